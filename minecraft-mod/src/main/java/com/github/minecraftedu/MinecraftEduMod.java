@@ -1,14 +1,26 @@
 package com.github.minecraftedu;
 
+import com.github.minecraftedu.config.EduConfig;
 import com.github.minecraftedu.init.ModBlocks;
 import com.github.minecraftedu.init.ModItems;
+import com.github.minecraftedu.network.NettyWebSocketServer;
+import com.github.minecraftedu.network.NioWebSocketServer;
+import com.github.minecraftedu.network.SessionRegistry;
 import com.github.minecraftedu.network.SimpleWebSocketServer;
+import com.github.minecraftedu.network.WebSocketOptions;
+import com.github.minecraftedu.network.WebSocketTransport;
+import com.github.minecraftedu.world.QueryBatcher;
+import com.github.minecraftedu.world.SnapshotStore;
+import com.github.minecraftedu.world.WorldEditScheduler;
+import net.minecraft.world.level.storage.LevelResource;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.server.ServerStartingEvent;
 import net.minecraftforge.event.server.ServerStoppingEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.apache.logging.log4j.LogManager;
@@ -20,7 +32,9 @@ public class MinecraftEduMod {
     public static final String MOD_ID = "minecraftedu";
     public static final Logger LOGGER = LogManager.getLogger();
 
-    private SimpleWebSocketServer webSocketServer;
+    private WebSocketTransport webSocketServer;
+    private SessionRegistry sessionRegistry;
+    private WorldEditScheduler editScheduler;
 
     public MinecraftEduMod() {
         // Get the MOD event bus for registration
@@ -30,6 +44,9 @@ public class MinecraftEduMod {
         ModBlocks.BLOCKS.register(modEventBus);
         ModItems.ITEMS.register(modEventBus);
 
+        // 設定ファイル登録
+        ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, EduConfig.SPEC);
+
         // Register this class to the Forge event bus for server events
         MinecraftForge.EVENT_BUS.register(this);
 
@@ -47,11 +64,39 @@ public class MinecraftEduMod {
         LOGGER.info("MinecraftEdu server starting...");
 
         try {
-            // WebSocketサーバー起動
-            webSocketServer = new SimpleWebSocketServer(14711, event.getServer());
+            // WebSocketサーバー起動（トランスポートは設定で選択）
+            int port = EduConfig.PORT.get();
+            EduConfig.Transport transport = EduConfig.TRANSPORT.get();
+            WebSocketOptions options = new WebSocketOptions(
+                EduConfig.MAX_MESSAGE_BYTES.get(),
+                EduConfig.COMPRESSION.get(),
+                EduConfig.COMPRESSION_THRESHOLD.get(),
+                EduConfig.COMPRESSION_CONTEXT_TAKEOVER.get());
+            // 大きな範囲編集はサーバーティックごとに少しずつ実行する
+            editScheduler = new WorldEditScheduler(event.getServer(), EduConfig.TICK_BUDGET_MS.get(),
+                EduConfig.TARGET_MSPT.get(), EduConfig.MAX_QUEUED_VOLUME.get());
+            MinecraftForge.EVENT_BUS.register(editScheduler);
+            // 読み取りはティックの終わりにまとめて実行する
+            QueryBatcher queryBatcher = editScheduler.getQueryBatcher();
+            SnapshotStore snapshotStore = new SnapshotStore(
+                event.getServer().getWorldPath(LevelResource.ROOT).resolve(MOD_ID).resolve("snapshots"));
+            sessionRegistry = new SessionRegistry(event.getServer(), editScheduler, queryBatcher, snapshotStore,
+                EduConfig.WORKER_THREADS.get(), EduConfig.MAX_IN_FLIGHT_REQUESTS.get());
+            switch (transport) {
+                case SIMPLE:
+                    webSocketServer = new SimpleWebSocketServer(port, sessionRegistry, options);
+                    break;
+                case NETTY:
+                    webSocketServer = new NettyWebSocketServer(port, sessionRegistry, options, EduConfig.EVENT_LOOP_THREADS.get());
+                    break;
+                case NIO:
+                default:
+                    webSocketServer = new NioWebSocketServer(port, sessionRegistry, options, EduConfig.EVENT_LOOP_THREADS.get());
+                    break;
+            }
             webSocketServer.start();
 
-            LOGGER.info("WebSocket server started on port 14711");
+            LOGGER.info("WebSocket server (" + transport + ") started on port " + port);
             LOGGER.info("Scratch clients can now connect!");
         } catch (Exception e) {
             LOGGER.error("Failed to start WebSocket server", e);
@@ -65,10 +110,16 @@ public class MinecraftEduMod {
         if (webSocketServer != null) {
             try {
                 webSocketServer.stop();
+                sessionRegistry.closeAll();
                 LOGGER.info("WebSocket server stopped");
             } catch (Exception e) {
                 LOGGER.error("Error stopping WebSocket server", e);
             }
         }
+
+        if (editScheduler != null) {
+            MinecraftForge.EVENT_BUS.unregister(editScheduler);
+            editScheduler.cancelAll();
+        }
     }
 }
@@ -0,0 +1,156 @@
+package com.github.minecraftedu.commands;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.state.properties.Property;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ブロック状態の文字列（"oak_stairs[facing=north]" など）を解析した結果の共有キャッシュ
+ *
+ * 全セッションで共有し、どのスレッドから呼んでもよい。解析できなかった文字列も記録するので、
+ * 同じ誤りを繰り返すスクリプトでも解析と警告は1回で済む。
+ * 上限を超えたら一部をまとめて捨てる（使用順は追わない、近似的な上限）。
+ * プロパティはブロックのStateDefinitionが持つ名前の索引で引く。
+ */
+public final class BlockStateCache {
+
+    private static final int MAX_ENTRIES = 4096;
+    // 上限を超えたときにこの数まで減らす
+    private static final int TRIM_TO = MAX_ENTRIES * 3 / 4;
+
+    private static final BlockStateCache INSTANCE = new BlockStateCache();
+
+    // 解析できなかった文字列はOptional.empty()
+    private final Map<String, Optional<BlockState>> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder invalidHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private BlockStateCache() {
+    }
+
+    public static BlockStateCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * ブロック状態の文字列を解析する（解析できなければnull）
+     */
+    public BlockState parse(String blockTypeString) {
+        Optional<BlockState> cached = entries.get(blockTypeString);
+        if (cached != null) {
+            (cached.isPresent() ? hits : invalidHits).increment();
+            return cached.orElse(null);
+        }
+
+        misses.increment();
+        Optional<BlockState> parsed = Optional.ofNullable(parseUncached(blockTypeString));
+        if (entries.size() >= MAX_ENTRIES) {
+            trim();
+        }
+        entries.put(blockTypeString, parsed);
+        return parsed.orElse(null);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 解析できない文字列としてキャッシュから返した回数
+     */
+    public long getInvalidHits() {
+        return invalidHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * キャッシュから返した割合（0～1、まだ呼ばれていなければ0）
+     */
+    public double getHitRate() {
+        long found = hits.sum() + invalidHits.sum();
+        long total = found + misses.sum();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    private void trim() {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (entries.size() > TRIM_TO && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private static BlockState parseUncached(String blockTypeString) {
+        // [properties] 部分があるかチェック
+        int bracketIndex = blockTypeString.indexOf('[');
+        String blockTypeName = bracketIndex > 0 ? blockTypeString.substring(0, bracketIndex) : blockTypeString;
+
+        // ブロックを取得
+        ResourceLocation blockId = ResourceLocation.tryParse(blockTypeName.trim());
+        Optional<Block> block = blockId != null ? BuiltInRegistries.BLOCK.getOptional(blockId) : Optional.empty();
+        if (block.isEmpty()) {
+            MinecraftEduMod.LOGGER.warn("Unknown block type: " + blockTypeName);
+            return null;
+        }
+
+        BlockState blockState = block.get().defaultBlockState();
+        if (bracketIndex <= 0) {
+            return blockState;
+        }
+
+        // プロパティを適用（"key=value" をカンマで区切る）
+        int end = blockTypeString.endsWith("]") ? blockTypeString.length() - 1 : blockTypeString.length();
+        for (String pair : blockTypeString.substring(bracketIndex + 1, end).split(",")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0 || equals != pair.lastIndexOf('=')) {
+                continue;
+            }
+            String propertyName = pair.substring(0, equals).trim();
+            String propertyValue = pair.substring(equals + 1).trim();
+
+            Property<?> property = block.get().getStateDefinition().getProperty(propertyName);
+            if (property != null) {
+                blockState = setPropertyValue(blockState, property, propertyValue);
+            } else {
+                MinecraftEduMod.LOGGER.warn("Unknown property '" + propertyName + "' for block " + blockTypeName);
+            }
+        }
+        return blockState;
+    }
+
+    /**
+     * BlockStateに特定のプロパティ値を設定する
+     */
+    private static <T extends Comparable<T>> BlockState setPropertyValue(BlockState state, Property<T> property, String value) {
+        Optional<T> optionalValue = property.getValue(value);
+        if (optionalValue.isPresent()) {
+            return state.setValue(property, optionalValue.get());
+        } else {
+            MinecraftEduMod.LOGGER.warn("Invalid value '" + value + "' for property '" + property.getName() + "'");
+            return state;
+        }
+    }
+}
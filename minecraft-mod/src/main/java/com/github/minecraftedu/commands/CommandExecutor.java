@@ -1,7 +1,26 @@
 package com.github.minecraftedu.commands;
 
 import com.github.minecraftedu.MinecraftEduMod;
+import com.github.minecraftedu.config.EduConfig;
+import com.github.minecraftedu.world.BlockPattern;
+import com.github.minecraftedu.world.BulkBlockWriter;
+import com.github.minecraftedu.world.EditJournal;
+import com.github.minecraftedu.world.EditOptions;
+import com.github.minecraftedu.world.LayeredBlockSource;
+import com.github.minecraftedu.world.QueryBatcher;
+import com.github.minecraftedu.world.RegionReader;
+import com.github.minecraftedu.world.RegionSnapshot;
+import com.github.minecraftedu.world.ReplaceBlockSource;
+import com.github.minecraftedu.world.ServerBusyException;
+import com.github.minecraftedu.world.ShapeBlockSource;
+import com.github.minecraftedu.world.SnapshotStore;
+import com.github.minecraftedu.world.WorldEditJob;
+import com.github.minecraftedu.world.WorldEditScheduler;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import net.minecraft.Util;
+import net.minecraft.commands.arguments.blocks.BlockStateParser;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.resources.ResourceLocation;
@@ -13,192 +32,598 @@ import net.minecraft.world.level.GameType;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.block.state.properties.Property;
-
-import java.util.HashMap;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 public class CommandExecutor {
 
+    /** getRegionで1回に読める最大ブロック数 */
+    public static final int MAX_REGION_VOLUME = 1024 * 1024;
+
+    /** getBlocksで1回に読める最大座標数 */
+    public static final int MAX_QUERY_POSITIONS = 65536;
+
     private final MinecraftServer server;
-    private JsonObject lastResult;
+    private final WorldEditScheduler editScheduler;
+    private final QueryBatcher queryBatcher;
+    private final SnapshotStore snapshotStore;
+    // このセッションの編集履歴（undo/redo）
+    private final EditJournal journal;
+    private final EduConfig.CompletionMode completionMode;
+    private final int maxEditVolume;
+    // ワーカー（先のメッセージを待った後の処理に使う）
+    private final Executor workers;
+    // 受け取った順の読み取りと書き込みの順番
+    private final RequestOrder requestOrder = new RequestOrder();
+    // dispatch中のメッセージの番号（応答の後まで続く書き込みを加える）
+    private final ThreadLocal<RequestOrder.Ticket> currentTicket = new ThreadLocal<>();
+
+    /**
+     * サーバースレッドで実行する処理
+     * dataへ結果データを書き込み、成否を返す
+     */
+    @FunctionalInterface
+    private interface ServerTask {
+        boolean run(JsonObject data);
+    }
 
-    public CommandExecutor(MinecraftServer server) {
+    public CommandExecutor(MinecraftServer server, WorldEditScheduler editScheduler, QueryBatcher queryBatcher,
+                           SnapshotStore snapshotStore, Executor workers) {
         this.server = server;
-        this.lastResult = new JsonObject();
+        this.workers = workers;
+        this.editScheduler = editScheduler;
+        this.queryBatcher = queryBatcher;
+        this.snapshotStore = snapshotStore;
+        this.journal = new EditJournal(EduConfig.JOURNAL_MEMORY_BYTES.get(), EduConfig.JOURNAL_DISK_BYTES.get(),
+            EduConfig.JOURNAL_MAX_ENTRIES.get());
+        this.completionMode = EduConfig.COMPLETION_MODE.get();
+        this.maxEditVolume = EduConfig.MAX_EDIT_VOLUME.get();
+    }
+
+    /**
+     * コマンドを実行する
+     * ワールドを変更するコマンドは、サーバースレッドでの実行が終わった時点で完了する。
+     * 結果は呼び出しごとに独立しているので、複数のスレッドから同時に呼んでよい
+     */
+    public CompletableFuture<CommandResult> execute(String action, JsonObject params) {
+        return execute(action, params, null, null);
+    }
+
+    /**
+     * コマンドを実行する
+     * 複数ティックにわたる範囲編集（fillBlocks、clearArea）の進捗はprogressListenerへ通知される。
+     * ticket（nextTicketで受信順に取ったもの、nullなら順番を守らない）があれば、ブロックの読み取りは先に受け取った書き込みの後に、
+     * 書き込みは先に受け取った読み取りと書き込みの後に行う（RequestOrder）
+     */
+    public CompletableFuture<CommandResult> execute(String action, JsonObject params, WorldEditJob.ProgressListener progressListener,
+                                                    RequestOrder.Ticket ticket) {
+        CompletableFuture<Void> ready = ticket != null ? ticket.declare(kindOf(action)) : CompletableFuture.completedFuture(null);
+        if (ready.isDone()) {
+            return run(action, params, progressListener, ticket);
+        }
+        // 先のメッセージを待った後の処理（図形の展開など）はサーバースレッドではなくワーカーで行う
+        return ready.thenComposeAsync(ignored -> run(action, params, progressListener, ticket), workers);
+    }
+
+    /**
+     * メッセージを受け取った順に番号を取る（受信スレッドで呼ぶ）
+     */
+    public RequestOrder.Ticket nextTicket() {
+        return requestOrder.next();
     }
 
-    public boolean execute(String action, JsonObject params) {
+    private CompletableFuture<CommandResult> run(String action, JsonObject params, WorldEditJob.ProgressListener progressListener,
+                                                 RequestOrder.Ticket ticket) {
+        JsonObject result = new JsonObject();
+        CompletableFuture<Boolean> future;
+        RequestOrder.Ticket previous = currentTicket.get();
+        currentTicket.set(ticket);
         try {
-            lastResult = new JsonObject();
+            future = dispatch(action, params, result, progressListener);
+        } catch (InvalidParamsException e) {
+            MinecraftEduMod.LOGGER.warn("Invalid parameters for " + action + ": " + e.getMessage());
+            return CompletableFuture.completedFuture(new CommandResult(false, result, "INVALID_PARAMS"));
+        } catch (Exception e) {
+            MinecraftEduMod.LOGGER.error("Error executing command: " + action, e);
+            return CompletableFuture.completedFuture(new CommandResult(false, result));
+        } finally {
+            currentTicket.set(previous);
+        }
 
-            switch (action) {
-                case "chat":
-                    return executeChat(params);
+        return future.handle((success, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof ServerBusyException) {
+                    return new CommandResult(false, result, "SERVER_BUSY");
+                }
+                MinecraftEduMod.LOGGER.error("Error executing command: " + action, error);
+                return new CommandResult(false, result);
+            }
+            return new CommandResult(success, result);
+        });
+    }
 
-                case "setBlock":
-                    return executeSetBlock(params);
+    /**
+     * コマンドがブロックを読むか書くか（RequestOrderで順番を守る対象）
+     */
+    private static RequestOrder.Kind kindOf(String action) {
+        switch (action) {
+            case "getBlock":
+            case "getBlocks":
+            case "getBlockType":
+            case "getRegion":
+            case "snapshotRegion":
+                return RequestOrder.Kind.READ;
+            case "setBlock":
+            case "fillBlocks":
+            case "replaceBlocks":
+            case "sphere":
+            case "cylinder":
+            case "line":
+            case "hollowBox":
+            case "pyramid":
+            case "clearArea":
+            case "restoreRegion":
+            case "undo":
+            case "redo":
+                return RequestOrder.Kind.WRITE;
+            default:
+                return RequestOrder.Kind.NONE;
+        }
+    }
 
-                case "getBlock":
-                    return executeGetBlock(params);
+    /**
+     * 複数のコマンドを1回のサーバータスクで順番に実行する
+     * 各コマンドはサーバースレッド上で呼ばれるので、前のコマンドの変更は次のコマンドから見える。
+     * 複数ティックにわたる範囲編集があれば、その完了を待ってから（その時点のサーバースレッドで）次へ進む。
+     * 1つが失敗しても残りは実行する。ticketがあれば、先に受け取ったブロックの読み書きがすべて終わってから始める。
+     * サーバータスクはWorldEditScheduler.submitTaskで投入する（負荷が高い間は延期される）
+     */
+    public CompletableFuture<List<CommandResult>> executeBatch(List<String> actions, List<JsonObject> params, RequestOrder.Ticket ticket) {
+        CompletableFuture<Void> ready = ticket != null ? ticket.declare(RequestOrder.Kind.BOTH) : CompletableFuture.completedFuture(null);
+        return ready.thenCompose(ignored -> editScheduler.submitTask(() -> {
+            List<CommandResult> results = new ArrayList<>(actions.size());
+            // サーバースレッド上ではrunはその場で完了するので、続きもこのタスク内で実行される
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (int i = 0; i < actions.size(); i++) {
+                String action = actions.get(i);
+                JsonObject itemParams = params.get(i);
+                chain = chain.thenCompose(done -> run(action, itemParams, null, ticket)).thenAccept(results::add);
+            }
+            return chain.thenApply(done -> results);
+        })).thenCompose(results -> results);
+    }
 
-                case "fillBlocks":
-                    return executeFillBlocks(params);
+    private CompletableFuture<Boolean> dispatch(String action, JsonObject params, JsonObject result,
+                                                WorldEditJob.ProgressListener progressListener) {
+        switch (action) {
+            case "chat":
+                return executeChat(params, result);
 
-                case "getPosition":
-                    return executeGetPosition(params);
+            case "setBlock":
+                return executeSetBlock(params, result);
 
-                case "getPlayerFacing":
-                    return executeGetPlayerFacing(params);
+            case "getBlock":
+                return executeGetBlock(params, result);
 
-                case "getBlockType":
-                    return executeGetBlockType(params);
+            case "getBlocks":
+                return executeGetBlocks(params, result);
 
-                case "summonEntity":
-                    return executeSummonEntity(params);
+            case "fillBlocks":
+                return executeFillBlocks(params, result, progressListener);
 
-                case "teleport":
-                    return executeTeleport(params);
+            case "replaceBlocks":
+                return executeReplaceBlocks(params, result, progressListener);
 
-                case "setWeather":
-                    return executeSetWeather(params);
+            case "sphere":
+            case "cylinder":
+            case "line":
+            case "hollowBox":
+            case "pyramid":
+                return executeShape(action, params, result, progressListener);
 
-                case "setTime":
-                    return executeSetTime(params);
+            case "getPosition":
+                return query(result, () -> executeGetPosition(params, result));
 
-                case "setGameMode":
-                    return executeSetGameMode(params);
+            case "getPlayerFacing":
+                return query(result, () -> executeGetPlayerFacing(params, result));
 
-                case "clearArea":
-                    return executeClearArea(params);
+            case "getBlockType":
+                return executeGetBlockType(params, result);
 
-                case "clearAllEntities":
-                    return executeClearAllEntities(params);
+            case "getRegion":
+                return executeGetRegion(params, result, progressListener);
 
-                case "setGameRule":
-                    return executeSetGameRule(params);
+            case "getServerStats":
+                return done(executeGetServerStats(result));
 
-                default:
-                    MinecraftEduMod.LOGGER.warn("Unknown command: " + action);
-                    return false;
-            }
-        } catch (Exception e) {
-            MinecraftEduMod.LOGGER.error("Error executing command: " + action, e);
-            return false;
+            case "summonEntity":
+                return executeSummonEntity(params, result);
+
+            case "teleport":
+                return executeTeleport(params, result);
+
+            case "setWeather":
+                return executeSetWeather(params, result);
+
+            case "setTime":
+                return executeSetTime(params, result);
+
+            case "setGameMode":
+                return executeSetGameMode(params, result);
+
+            case "clearArea":
+                return executeClearArea(params, result, progressListener);
+
+            case "snapshotRegion":
+                return executeSnapshotRegion(params, result, progressListener);
+
+            case "restoreRegion":
+                return executeRestoreRegion(params, result, progressListener);
+
+            case "undo":
+                return executeReplay(result, progressListener, false);
+
+            case "redo":
+                return executeReplay(result, progressListener, true);
+
+            case "clearAllEntities":
+                return executeClearAllEntities(params, result);
+
+            case "setGameRule":
+                return executeSetGameRule(params, result);
+
+            default:
+                MinecraftEduMod.LOGGER.warn("Unknown command: " + action);
+                return done(false);
+        }
+    }
+
+    /**
+     * taskをサーバースレッドで実行する
+     * TICKモードでは実行が終わった時点で完了し、resultにサーバースレッドでの所要時間（serverTimeMs）を加える。
+     * QUEUEDモードでは投入した時点で成功として完了する（taskが書く結果データは応答に含まれない）。
+     * サーバーの負荷が目標を超えている間は、範囲編集と同じくティックの予算の中で実行される（WorldEditScheduler.submitTask）
+     */
+    private CompletableFuture<Boolean> onServerThread(JsonObject result, ServerTask task) {
+        if (completionMode == EduConfig.CompletionMode.QUEUED) {
+            trackEdit(editScheduler.submitTask(() -> runTimed(new JsonObject(), task)));
+            return done(true);
+        }
+        if (server.isSameThread()) {
+            return done(runTimed(result, task));
+        }
+        CompletableFuture<Boolean> future = editScheduler.submitTask(() -> runTimed(result, task));
+        trackEdit(future);
+        return future;
+    }
+
+    /**
+     * 範囲編集をスケジューラーへ登録する（複数ティックに分けて書き込まれる）
+     * TICKモードでは書き込みがすべて終わった時点でonCompleteに変更数を渡し、
+     * resultに書き込みに使ったサーバースレッドの時間（serverTimeMs）とティック数（ticks）を加える。
+     * QUEUEDモードでは登録した時点で成功として完了する。
+     * サーバーの負荷が高くて登録できなければServerBusyExceptionで失敗する。
+     * recorderがあれば、ジョブが終わった時点で（途中で失敗しても書き換えた分を）編集履歴に加える。
+     * 後のメッセージは編集履歴に加わった後で始まる（後のundoが直前の編集を取り出せる）
+     */
+    private CompletableFuture<Boolean> scheduleEdit(JsonObject result, WorldEditJob job, EditJournal.Recorder recorder,
+                                                    IntConsumer onComplete) {
+        CompletableFuture<Integer> future = editScheduler.submit(job);
+        if (recorder != null) {
+            future = future.whenComplete((changedCount, error) -> journal.record(recorder));
+        }
+        trackEdit(future);
+        if (completionMode == EduConfig.CompletionMode.QUEUED && !future.isCompletedExceptionally()) {
+            return done(true);
         }
+        return future.thenApply(changedCount -> {
+            onComplete.accept(changedCount);
+            result.addProperty("serverTimeMs", job.getServerTimeMs());
+            result.addProperty("ticks", job.getTicks());
+            return true;
+        });
     }
 
-    public JsonObject getLastResult() {
-        return lastResult;
+    /**
+     * 読み取りをサーバースレッドで実行する（completionModeに関係なく、読み終わった時点で完了する）
+     * 他のクエリとまとめて（QueryBatcher）読む。先に受け取った書き込みとの順番はexecuteで待ってから呼ばれる。
+     * resultにサーバースレッドでの所要時間（serverTimeMs）を加える。結果の整形は呼び出し側で、サーバースレッドの外で行う
+     */
+    private <T> CompletableFuture<T> query(JsonObject result, Supplier<T> reader) {
+        if (server.isSameThread()) {
+            return CompletableFuture.completedFuture(runQuery(result, reader));
+        }
+        return queryBatcher.submit(() -> runQuery(result, reader));
     }
 
-    private boolean executeChat(JsonObject params) {
+    private <T> T runQuery(JsonObject result, Supplier<T> reader) {
+        long start = System.nanoTime();
+        try {
+            return reader.get();
+        } finally {
+            result.addProperty("serverTimeMs", (System.nanoTime() - start) / 1000 / 1000.0);
+        }
+    }
+
+    /**
+     * 応答の後まで続くかもしれない書き込みを、dispatch中のメッセージに加える（後の読み取りはこれが終わってから読む）
+     */
+    private void trackEdit(CompletableFuture<?> edit) {
+        RequestOrder.Ticket ticket = currentTicket.get();
+        if (ticket != null) {
+            ticket.track(edit);
+        }
+    }
+
+    private boolean runTimed(JsonObject result, ServerTask task) {
+        long start = System.nanoTime();
+        boolean success = task.run(result);
+        // ティックの負荷の計算にはsubmitTaskが含める
+        long elapsed = System.nanoTime() - start;
+        result.addProperty("serverTimeMs", elapsed / 1000 / 1000.0);
+        return success;
+    }
+
+    private static CompletableFuture<Boolean> done(boolean success) {
+        return CompletableFuture.completedFuture(success);
+    }
+
+    private CompletableFuture<Boolean> executeChat(JsonObject params, JsonObject result) {
         String message = params.get("message").getAsString();
 
-        server.execute(() -> {
+        MinecraftEduMod.LOGGER.info("Chat message sent: " + message);
+        return onServerThread(result, data -> {
             server.getPlayerList().getPlayers().forEach(player -> {
                 player.sendSystemMessage(net.minecraft.network.chat.Component.literal(message));
             });
+            return true;
         });
-
-        MinecraftEduMod.LOGGER.info("Chat message sent: " + message);
-        return true;
     }
 
-    private boolean executeSetBlock(JsonObject params) {
+    private CompletableFuture<Boolean> executeSetBlock(JsonObject params, JsonObject result) {
         String blockType = params.get("blockType").getAsString();
 
-        // 座標取得（絶対または相対）
-        int x, y, z;
-        ServerPlayer player = getFirstPlayer();
-
-        if (params.has("x")) {
-            // 絶対座標
-            x = params.get("x").getAsInt();
-            y = params.get("y").getAsInt();
-            z = params.get("z").getAsInt();
-        } else {
-            // 相対座標
-            if (player == null) {
-                MinecraftEduMod.LOGGER.warn("No player found for relative coordinates");
-                return false;
-            }
-
-            int relX = params.get("relativeX").getAsInt();
-            int relY = params.get("relativeY").getAsInt();
-            int relZ = params.get("relativeZ").getAsInt();
-
-            x = (int) player.getX() + relX;
-            y = (int) player.getY() + relY;
-            z = (int) player.getZ() + relZ;
-        }
+        // 座標取得（絶対、または相対ならプレイヤーの位置からの差分。プレイヤーの位置はサーバータスクの中で読む）
+        boolean relative = !params.has("x");
+        int x = relative ? params.get("relativeX").getAsInt() : params.get("x").getAsInt();
+        int y = relative ? params.get("relativeY").getAsInt() : params.get("y").getAsInt();
+        int z = relative ? params.get("relativeZ").getAsInt() : params.get("z").getAsInt();
 
         // ブロック状態を解析（プロパティを含む）
         BlockState blockState = parseBlockState(blockType);
 
         if (blockState == null) {
             MinecraftEduMod.LOGGER.warn("Failed to parse block state: " + blockType);
-            return false;
+            return done(false);
         }
 
-        BlockPos pos = new BlockPos(x, y, z);
-
         // ブロック配置
-        server.execute(() -> {
-            ServerLevel world = server.overworld();
-            world.setBlock(pos, blockState, 3);
-        });
-
-        MinecraftEduMod.LOGGER.info("Block placed: " + blockType + " at " + x + "," + y + "," + z);
-
-        // 結果データを設定
-        lastResult.addProperty("blockPlaced", true);
-        JsonObject position = new JsonObject();
-        position.addProperty("x", x);
-        position.addProperty("y", y);
-        position.addProperty("z", z);
-        lastResult.add("position", position);
+        EditOptions options = editOptions(params);
+        return onServerThread(result, data -> {
+            int px = x, py = y, pz = z;
+            if (relative) {
+                ServerPlayer player = getFirstPlayer();
+                if (player == null) {
+                    MinecraftEduMod.LOGGER.warn("No player found for relative coordinates");
+                    return false;
+                }
+                px += (int) player.getX();
+                py += (int) player.getY();
+                pz += (int) player.getZ();
+            }
 
-        return true;
+            MinecraftEduMod.LOGGER.debug("Block placed: {} at {},{},{}", blockType, px, py, pz);
+
+            // 結果データを設定
+            data.addProperty("blockPlaced", true);
+            JsonObject position = new JsonObject();
+            position.addProperty("x", px);
+            position.addProperty("y", py);
+            position.addProperty("z", pz);
+            data.add("position", position);
+
+            EditJournal.Recorder recorder = journal.newRecorder("setBlock");
+            boolean changed = placeBlock(px, py, pz, blockState, recorder, options);
+            data.addProperty("blocksChanged", changed ? 1 : 0);
+            data.addProperty("blocksUnchanged", changed ? 0 : 1);
+            journal.record(recorder);
+            return true;
+        });
     }
 
-    private boolean executeGetBlock(JsonObject params) {
+    private CompletableFuture<Boolean> executeGetBlock(JsonObject params, JsonObject result) {
         int x = params.get("x").getAsInt();
         int y = params.get("y").getAsInt();
         int z = params.get("z").getAsInt();
 
-        BlockPos pos = new BlockPos(x, y, z);
+        // ブロック情報取得（サーバースレッドで読む）
+        return query(result, () -> getBlockId(x, y, z)).thenApply(blockId -> {
+            if (blockId == null) {
+                MinecraftEduMod.LOGGER.warn("Failed to get block ID at " + x + "," + y + "," + z);
+                return false;
+            }
+
+            MinecraftEduMod.LOGGER.debug("Block retrieved: {} at {},{},{}", blockId, x, y, z);
+
+            // 結果データを設定
+            result.addProperty("blockType", blockId.toString());
+            JsonObject position = new JsonObject();
+            position.addProperty("x", x);
+            position.addProperty("y", y);
+            position.addProperty("z", z);
+            result.add("position", position);
+            result.add("blockState", new JsonObject());
+            return true;
+        });
+    }
+
+    /**
+     * 任意の座標の一覧のブロックをまとめて返す
+     * すべての座標を1回のサーバータスクで読み、ブロックIDはパレットで重複をまとめて入力の順に返す
+     */
+    private CompletableFuture<Boolean> executeGetBlocks(JsonObject params, JsonObject result) {
+        JsonArray positions = params.getAsJsonArray("positions");
+        if (positions.size() > MAX_QUERY_POSITIONS) {
+            MinecraftEduMod.LOGGER.warn("Too many positions: " + positions.size() + " (max: " + MAX_QUERY_POSITIONS + ")");
+            return done(false);
+        }
+
+        // [x, y, z] または {"x": .., "y": .., "z": ..}
+        int[] coords = new int[positions.size() * 3];
+        for (int i = 0; i < positions.size(); i++) {
+            if (positions.get(i).isJsonArray()) {
+                JsonArray position = positions.get(i).getAsJsonArray();
+                coords[i * 3] = position.get(0).getAsInt();
+                coords[i * 3 + 1] = position.get(1).getAsInt();
+                coords[i * 3 + 2] = position.get(2).getAsInt();
+            } else {
+                JsonObject position = positions.get(i).getAsJsonObject();
+                coords[i * 3] = position.get("x").getAsInt();
+                coords[i * 3 + 1] = position.get("y").getAsInt();
+                coords[i * 3 + 2] = position.get("z").getAsInt();
+            }
+        }
+
+        return query(result, () -> readBlocks(coords)).thenApply(blocks -> {
+            Map<Block, Integer> paletteIndex = new IdentityHashMap<>();
+            JsonArray palette = new JsonArray();
+            JsonArray indices = new JsonArray();
+            for (Block block : blocks) {
+                Integer index = paletteIndex.get(block);
+                if (index == null) {
+                    index = palette.size();
+                    paletteIndex.put(block, index);
+                    palette.add(BuiltInRegistries.BLOCK.getKey(block).toString());
+                }
+                indices.add(index);
+            }
+
+            result.add("palette", palette);
+            result.add("blocks", indices);
+            MinecraftEduMod.LOGGER.debug("Blocks retrieved: {} positions, {} types", blocks.length, palette.size());
+            return true;
+        });
+    }
+
+    /**
+     * 座標（x, y, zの順に並べた配列）のブロックを読む（サーバースレッドから呼ぶ）
+     */
+    private Block[] readBlocks(int[] coords) {
         ServerLevel world = server.overworld();
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        Block[] blocks = new Block[coords.length / 3];
+        for (int i = 0; i < blocks.length; i++) {
+            pos.set(coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2]);
+            blocks[i] = world.getBlockState(pos).getBlock();
+        }
+        return blocks;
+    }
 
-        // ブロック情報取得
-        BlockState blockState = world.getBlockState(pos);
-        Block block = blockState.getBlock();
-        ResourceLocation blockId = BuiltInRegistries.BLOCK.getKey(block);
+    /**
+     * 範囲のブロック状態をパレットとインデックスの配列でまとめて返す
+     * ブロックはWorldEditJobとしてセクションごとに読み（大きな範囲は複数ティックに分かれる）、詰めるのと整形はサーバースレッドの外で行う
+     */
+    private CompletableFuture<Boolean> executeGetRegion(JsonObject params, JsonObject result,
+                                                       WorldEditJob.ProgressListener progressListener) {
+        JsonObject from = params.getAsJsonObject("from");
+        JsonObject to = params.getAsJsonObject("to");
 
-        if (blockId == null) {
-            MinecraftEduMod.LOGGER.warn("Failed to get block ID at " + x + "," + y + "," + z);
-            return false;
+        // 座標範囲を正規化（小さい方から大きい方へ）
+        int minX = Math.min(from.get("x").getAsInt(), to.get("x").getAsInt());
+        int maxX = Math.max(from.get("x").getAsInt(), to.get("x").getAsInt());
+        int minY = Math.min(from.get("y").getAsInt(), to.get("y").getAsInt());
+        int maxY = Math.max(from.get("y").getAsInt(), to.get("y").getAsInt());
+        int minZ = Math.min(from.get("z").getAsInt(), to.get("z").getAsInt());
+        int maxZ = Math.max(from.get("z").getAsInt(), to.get("z").getAsInt());
+
+        long volume = fillVolume(minX, minY, minZ, maxX, maxY, maxZ);
+        if (volume > MAX_REGION_VOLUME) {
+            MinecraftEduMod.LOGGER.warn("Region too large: " + volume + " blocks (max: " + MAX_REGION_VOLUME + ")");
+            return done(false);
+        }
+        BoundingBox region = new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+
+        // 範囲編集と同じくセクションごとにティックの予算の中で読み、詰めるのはワーカーで行う
+        RegionReader reader = new RegionReader(server.overworld(), region);
+        CompletableFuture<RegionReader.Result> reading;
+        if (reader.getReadRegion() == null) {
+            result.addProperty("serverTimeMs", 0.0);
+            reading = CompletableFuture.completedFuture(reader.getResult());
+        } else {
+            WorldEditJob job = new WorldEditJob(reader.getReadRegion(), reader, progressListener);
+            reading = editScheduler.submit(job).thenApplyAsync(ignored -> {
+                result.addProperty("serverTimeMs", job.getServerTimeMs());
+                result.addProperty("ticks", job.getTicks());
+                return reader.getResult();
+            }, workers);
         }
 
-        MinecraftEduMod.LOGGER.info("Block retrieved: " + blockId + " at " + x + "," + y + "," + z);
+        return reading.thenApply(read -> {
+            JsonObject fromPos = new JsonObject();
+            fromPos.addProperty("x", minX);
+            fromPos.addProperty("y", minY);
+            fromPos.addProperty("z", minZ);
+            JsonObject size = new JsonObject();
+            size.addProperty("x", region.getXSpan());
+            size.addProperty("y", region.getYSpan());
+            size.addProperty("z", region.getZSpan());
+            JsonArray palette = new JsonArray();
+            for (BlockState state : read.getPalette()) {
+                palette.add(BlockStateParser.serialize(state));
+            }
 
-        // 結果データを設定
-        lastResult.addProperty("blockType", blockId.toString());
-        JsonObject position = new JsonObject();
-        position.addProperty("x", x);
-        position.addProperty("y", y);
-        position.addProperty("z", z);
-        lastResult.add("position", position);
-        lastResult.add("blockState", new JsonObject());
+            result.add("from", fromPos);
+            result.add("size", size);
+            result.add("palette", palette);
+            result.addProperty("bits", read.getBits());
+            result.addProperty("indices", Base64.getEncoder().encodeToString(read.getIndices()));
+            MinecraftEduMod.LOGGER.debug("Region read: {} blocks, {} states", volume, read.getPalette().size());
+            return true;
+        });
+    }
 
+    /**
+     * サーバー全体の統計（ブロック状態キャッシュとクエリのまとめ実行の利用状況）
+     */
+    private boolean executeGetServerStats(JsonObject result) {
+        BlockStateCache cache = BlockStateCache.get();
+        JsonObject blockStates = new JsonObject();
+        blockStates.addProperty("size", cache.size());
+        blockStates.addProperty("hits", cache.getHits());
+        blockStates.addProperty("invalidHits", cache.getInvalidHits());
+        blockStates.addProperty("misses", cache.getMisses());
+        blockStates.addProperty("evictions", cache.getEvictions());
+        blockStates.addProperty("hitRate", cache.getHitRate());
+        result.add("blockStateCache", blockStates);
+        JsonObject queries = new JsonObject();
+        queries.addProperty("batches", queryBatcher.getBatches());
+        queries.addProperty("queries", queryBatcher.getQueries());
+        result.add("queryBatcher", queries);
         return true;
     }
 
-    private boolean executeFillBlocks(JsonObject params) {
+    private CompletableFuture<Boolean> executeFillBlocks(JsonObject params, JsonObject result,
+                                                        WorldEditJob.ProgressListener progressListener) {
         // fromとtoの座標を取得
         JsonObject from = params.getAsJsonObject("from");
         JsonObject to = params.getAsJsonObject("to");
-        String blockType = params.get("blockType").getAsString();
+        // 重み付きのpatternならその説明（ログ用）
+        String blockType = params.has("pattern") ? "pattern " + params.get("pattern") : params.get("blockType").getAsString();
 
         int fromX = from.get("x").getAsInt();
         int fromY = from.get("y").getAsInt();
@@ -216,42 +641,23 @@ public class CommandExecutor {
         int minZ = Math.min(fromZ, toZ);
         int maxZ = Math.max(fromZ, toZ);
 
-        // 範囲チェック（最大2000000ブロックまで）
-        int volume = (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
-        if (volume > 2000000) {
-            MinecraftEduMod.LOGGER.warn("Fill volume too large: " + volume + " blocks (max: 2000000)");
-            return false;
+        // 範囲チェック（上限は設定のmaxEditVolume）
+        long volume = fillVolume(minX, minY, minZ, maxX, maxY, maxZ);
+        if (volume > maxEditVolume) {
+            MinecraftEduMod.LOGGER.warn("Fill volume too large: " + volume + " blocks (max: " + maxEditVolume + ")");
+            return done(false);
         }
 
         // ブロック状態を解析（プロパティを含む）
-        BlockState blockState = parseBlockState(blockType);
-
-        if (blockState == null) {
-            MinecraftEduMod.LOGGER.warn("Failed to parse block state: " + blockType);
-            return false;
+        BulkBlockWriter.BlockSource blocks = parseFillSource(params, result);
+        if (blocks == null) {
+            return done(false);
         }
 
-        // ブロック配置
-        server.execute(() -> {
-            ServerLevel world = server.overworld();
-            int placedCount = 0;
-
-            for (int x = minX; x <= maxX; x++) {
-                for (int y = minY; y <= maxY; y++) {
-                    for (int z = minZ; z <= maxZ; z++) {
-                        BlockPos pos = new BlockPos(x, y, z);
-                        world.setBlock(pos, blockState, 3);
-                        placedCount++;
-                    }
-                }
-            }
-
-            MinecraftEduMod.LOGGER.info("Filled " + placedCount + " blocks with " + blockType);
-        });
-
         // 結果データを設定
-        lastResult.addProperty("blocksFilled", volume);
-        lastResult.addProperty("blockType", blockType);
+        if (!params.has("pattern")) {
+            result.addProperty("blockType", blockType);
+        }
         JsonObject fromPos = new JsonObject();
         fromPos.addProperty("x", minX);
         fromPos.addProperty("y", minY);
@@ -260,13 +666,244 @@ public class CommandExecutor {
         toPos.addProperty("x", maxX);
         toPos.addProperty("y", maxY);
         toPos.addProperty("z", maxZ);
-        lastResult.add("from", fromPos);
-        lastResult.add("to", toPos);
+        result.add("from", fromPos);
+        result.add("to", toPos);
+
+        // ブロック配置（ティックごとに少しずつ書き込む。変更数は実際に状態が変わったブロックの数）
+        EditJournal.Recorder recorder = journal.newRecorder("fillBlocks");
+        WorldEditJob job = new WorldEditJob(server.overworld(), new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ),
+            blocks, recorder, editOptions(params), progressListener);
+        return scheduleEdit(result, job, recorder, changedCount -> {
+            result.addProperty("blocksFilled", volume);
+            result.addProperty("blocksChanged", changedCount);
+            result.addProperty("blocksUnchanged", volume - changedCount);
+            MinecraftEduMod.LOGGER.info("Filled " + volume + " blocks with " + blockType + " (" + changedCount + " changed)");
+        });
+    }
 
-        return true;
+    /**
+     * 図形（sphere、cylinder、line、hollowBox、pyramid）を1回のコマンドで置く
+     * 図形はこのスレッドでセクションごとのビットマスクに展開し、書き込みはfillBlocksと同じくティックごとに少しずつ行う。
+     * 隣接更新（physics）は図形を囲む直方体の外周で行う
+     */
+    private CompletableFuture<Boolean> executeShape(String shapeName, JsonObject params, JsonObject result,
+                                                    WorldEditJob.ProgressListener progressListener) {
+        String blockType = params.get("blockType").getAsString();
+        boolean hollow = params.has("hollow") && params.get("hollow").getAsBoolean();
+
+        // 展開する前に大きさを確かめる（座標の計算があふれないよう、図形を囲む直方体を作る前にlongで確かめる）
+        int radius = params.has("radius") ? params.get("radius").getAsInt() : 0;
+        int height = params.has("height") ? params.get("height").getAsInt() : 1;
+        if (radius < 0 || height < 1) {
+            throw new InvalidParamsException("Invalid " + shapeName + " size: radius " + radius + ", height " + height);
+        }
+        int cx = 0, cy = 0, cz = 0;
+        int[] from = null, to = null;
+        long[] min, max;
+        switch (shapeName) {
+            case "sphere":
+            case "cylinder":
+            case "pyramid": {
+                JsonObject center = params.getAsJsonObject("center");
+                if (center == null) {
+                    throw new InvalidParamsException(shapeName + " needs center");
+                }
+                cx = center.get("x").getAsInt();
+                cy = center.get("y").getAsInt();
+                cz = center.get("z").getAsInt();
+                // 中心から水平方向の広がりと、中心からの上下の範囲
+                long extent = shapeName.equals("pyramid") ? height - 1L : radius;
+                long below = shapeName.equals("sphere") ? radius : 0;
+                long above = shapeName.equals("sphere") ? radius : height - 1L;
+                min = new long[] {cx - extent, cy - below, cz - extent};
+                max = new long[] {cx + extent, cy + above, cz + extent};
+                break;
+            }
+            default: {
+                from = position(params, "from");
+                to = position(params, "to");
+                min = new long[] {Math.min(from[0], to[0]), Math.min(from[1], to[1]), Math.min(from[2], to[2])};
+                max = new long[] {Math.max(from[0], to[0]), Math.max(from[1], to[1]), Math.max(from[2], to[2])};
+                break;
+            }
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            if (min[axis] < Integer.MIN_VALUE || max[axis] > Integer.MAX_VALUE) {
+                throw new InvalidParamsException(shapeName + " is outside the coordinate range");
+            }
+        }
+        // 線は書き込むブロック数（最も長い軸の長さ）、それ以外は図形を囲む直方体の体積で制限する
+        double size = shapeName.equals("line")
+            ? Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2])) + 1.0
+            : (max[0] - min[0] + 1.0) * (max[1] - min[1] + 1.0) * (max[2] - min[2] + 1.0);
+        if (size > maxEditVolume) {
+            MinecraftEduMod.LOGGER.warn("Shape too large: " + (long) size + " blocks (max: " + maxEditVolume + ")");
+            return done(false);
+        }
+
+        BlockState blockState = parseBlockState(blockType);
+        if (blockState == null) {
+            MinecraftEduMod.LOGGER.warn("Failed to parse block state: " + blockType);
+            return done(false);
+        }
+
+        ShapeBlockSource shape;
+        switch (shapeName) {
+            case "sphere":
+                shape = ShapeBlockSource.sphere(cx, cy, cz, radius, hollow, blockState);
+                break;
+            case "cylinder":
+                shape = ShapeBlockSource.cylinder(cx, cy, cz, radius, height, hollow, blockState);
+                break;
+            case "pyramid":
+                shape = ShapeBlockSource.pyramid(cx, cy, cz, height, hollow, blockState);
+                break;
+            case "hollowBox":
+                shape = ShapeBlockSource.hollowBox(new BoundingBox((int) min[0], (int) min[1], (int) min[2],
+                    (int) max[0], (int) max[1], (int) max[2]), blockState);
+                break;
+            default:
+                shape = ShapeBlockSource.line(from[0], from[1], from[2], to[0], to[1], to[2], blockState);
+                break;
+        }
+
+        long blockCount = shape.getBlockCount();
+        BoundingBox region = shape.getBounds();
+        result.addProperty("shape", shapeName);
+        result.addProperty("blockType", blockType);
+        JsonObject fromPos = new JsonObject();
+        fromPos.addProperty("x", region.minX());
+        fromPos.addProperty("y", region.minY());
+        fromPos.addProperty("z", region.minZ());
+        JsonObject toPos = new JsonObject();
+        toPos.addProperty("x", region.maxX());
+        toPos.addProperty("y", region.maxY());
+        toPos.addProperty("z", region.maxZ());
+        result.add("from", fromPos);
+        result.add("to", toPos);
+
+        EditJournal.Recorder recorder = journal.newRecorder(shapeName);
+        // 線を囲む直方体は大きいので、線のあるセクションだけを書く
+        WorldEditJob job = shapeName.equals("line")
+            ? new WorldEditJob(server.overworld(), shape.getSlices(), shape, recorder, editOptions(params), progressListener)
+            : new WorldEditJob(server.overworld(), region, shape, recorder, editOptions(params), progressListener);
+        return scheduleEdit(result, job, recorder, changedCount -> {
+            result.addProperty("blocksPlaced", blockCount);
+            result.addProperty("blocksChanged", changedCount);
+            result.addProperty("blocksUnchanged", blockCount - changedCount);
+            MinecraftEduMod.LOGGER.info("Placed " + shapeName + " of " + blockCount + " blocks with " + blockType
+                + " (" + changedCount + " changed)");
+        });
     }
 
-    private boolean executeGetPosition(JsonObject params) {
+    /**
+     * 範囲の中で、matchの状態のブロックだけをblockType（またはpattern）に置き換える
+     * matchに書いたプロパティ（"oak_stairs[facing=north]" など）だけを比べ、書いていないプロパティはどの値でもよい。
+     * パレットにmatchの状態が無いセクションはブロックを読まずに飛ばす
+     */
+    private CompletableFuture<Boolean> executeReplaceBlocks(JsonObject params, JsonObject result,
+                                                            WorldEditJob.ProgressListener progressListener) {
+        JsonObject from = params.getAsJsonObject("from");
+        JsonObject to = params.getAsJsonObject("to");
+        String match = params.get("match").getAsString();
+        BoundingBox region = BoundingBox.fromCorners(
+            new BlockPos(from.get("x").getAsInt(), from.get("y").getAsInt(), from.get("z").getAsInt()),
+            new BlockPos(to.get("x").getAsInt(), to.get("y").getAsInt(), to.get("z").getAsInt()));
+
+        long volume = fillVolume(region.minX(), region.minY(), region.minZ(), region.maxX(), region.maxY(), region.maxZ());
+        if (volume > maxEditVolume) {
+            MinecraftEduMod.LOGGER.warn("Replace volume too large: " + volume + " blocks (max: " + maxEditVolume + ")");
+            return done(false);
+        }
+
+        BlockState matchState = parseBlockState(match);
+        if (matchState == null) {
+            MinecraftEduMod.LOGGER.warn("Failed to parse block state: " + match);
+            return done(false);
+        }
+        // matchに書いたプロパティだけを比べる
+        List<Property<?>> properties = new ArrayList<>();
+        int bracketIndex = match.indexOf('[');
+        if (bracketIndex > 0) {
+            String propertyList = match.substring(bracketIndex + 1, match.endsWith("]") ? match.length() - 1 : match.length());
+            for (String pair : propertyList.split(",")) {
+                int equals = pair.indexOf('=');
+                Property<?> property = equals < 0 ? null
+                    : matchState.getBlock().getStateDefinition().getProperty(pair.substring(0, equals).trim());
+                if (property != null) {
+                    properties.add(property);
+                }
+            }
+        }
+
+        BulkBlockWriter.BlockSource replacement = parseFillSource(params, result);
+        if (replacement == null) {
+            return done(false);
+        }
+
+        result.addProperty("match", match);
+        if (!params.has("pattern")) {
+            result.addProperty("blockType", params.get("blockType").getAsString());
+        }
+        JsonObject fromPos = new JsonObject();
+        fromPos.addProperty("x", region.minX());
+        fromPos.addProperty("y", region.minY());
+        fromPos.addProperty("z", region.minZ());
+        JsonObject toPos = new JsonObject();
+        toPos.addProperty("x", region.maxX());
+        toPos.addProperty("y", region.maxY());
+        toPos.addProperty("z", region.maxZ());
+        result.add("from", fromPos);
+        result.add("to", toPos);
+
+        ReplaceBlockSource source = new ReplaceBlockSource(matchState, properties, replacement);
+        EditJournal.Recorder recorder = journal.newRecorder("replaceBlocks");
+        WorldEditJob job = new WorldEditJob(server.overworld(), region, source, recorder, editOptions(params), progressListener);
+        return scheduleEdit(result, job, recorder, changedCount -> {
+            result.addProperty("blocksChanged", changedCount);
+            MinecraftEduMod.LOGGER.info("Replaced " + changedCount + " blocks of " + match + " in " + volume + " blocks");
+        });
+    }
+
+    /**
+     * 置くブロック（blockType、または重み付きのpattern: [{"blockType": ..., "weight": ...}, ...]）。解析できなければnull
+     * patternは位置とseedで決まり、seedを指定しなければ乱数で決めてresultに返す（同じseedで同じ模様を作り直せる）
+     */
+    private BulkBlockWriter.BlockSource parseFillSource(JsonObject params, JsonObject result) {
+        if (!params.has("pattern")) {
+            String blockType = params.get("blockType").getAsString();
+            BlockState blockState = parseBlockState(blockType);
+            if (blockState == null) {
+                MinecraftEduMod.LOGGER.warn("Failed to parse block state: " + blockType);
+                return null;
+            }
+            return BulkBlockWriter.BlockSource.of(blockState);
+        }
+
+        List<BlockState> states = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (JsonElement element : params.getAsJsonArray("pattern")) {
+            JsonObject entry = element.getAsJsonObject();
+            String blockType = entry.get("blockType").getAsString();
+            BlockState blockState = parseBlockState(blockType);
+            int weight = entry.has("weight") ? entry.get("weight").getAsInt() : 1;
+            if (blockState == null || weight <= 0) {
+                MinecraftEduMod.LOGGER.warn("Invalid pattern entry: " + entry);
+                return null;
+            }
+            states.add(blockState);
+            weights.add(weight);
+        }
+        if (states.isEmpty()) {
+            MinecraftEduMod.LOGGER.warn("Empty pattern");
+            return null;
+        }
+        long seed = params.has("seed") ? params.get("seed").getAsLong() : ThreadLocalRandom.current().nextLong();
+        result.addProperty("seed", seed);
+        return new BlockPattern(states, weights, seed);
+    }
+
+    private boolean executeGetPosition(JsonObject params, JsonObject result) {
         ServerPlayer player = getFirstPlayer();
         if (player == null) {
             MinecraftEduMod.LOGGER.warn("No player found for getPosition");
@@ -279,19 +916,19 @@ public class CommandExecutor {
         float yaw = player.getYRot();
         float pitch = player.getXRot();
 
-        MinecraftEduMod.LOGGER.info("Player position: " + x + "," + y + "," + z);
+        MinecraftEduMod.LOGGER.debug("Player position: {},{},{}", x, y, z);
 
         // 結果データを設定
-        lastResult.addProperty("x", x);
-        lastResult.addProperty("y", y);
-        lastResult.addProperty("z", z);
-        lastResult.addProperty("yaw", yaw);
-        lastResult.addProperty("pitch", pitch);
+        result.addProperty("x", x);
+        result.addProperty("y", y);
+        result.addProperty("z", z);
+        result.addProperty("yaw", yaw);
+        result.addProperty("pitch", pitch);
 
         return true;
     }
 
-    private boolean executeGetPlayerFacing(JsonObject params) {
+    private boolean executeGetPlayerFacing(JsonObject params, JsonObject result) {
         ServerPlayer player = getFirstPlayer();
         if (player == null) {
             MinecraftEduMod.LOGGER.warn("No player found for getPlayerFacing");
@@ -322,50 +959,44 @@ public class CommandExecutor {
         MinecraftEduMod.LOGGER.info("Player facing: " + facing + " (yaw: " + yaw + ")");
 
         // 結果データを設定
-        lastResult.addProperty("facing", facing);
-        lastResult.addProperty("yaw", yaw);
+        result.addProperty("facing", facing);
+        result.addProperty("yaw", yaw);
 
         return true;
     }
 
-    private boolean executeGetBlockType(JsonObject params) {
+    private CompletableFuture<Boolean> executeGetBlockType(JsonObject params, JsonObject result) {
         int x = params.get("x").getAsInt();
         int y = params.get("y").getAsInt();
         int z = params.get("z").getAsInt();
 
-        BlockPos pos = new BlockPos(x, y, z);
-        ServerLevel world = server.overworld();
-
-        // ブロック情報取得
-        BlockState blockState = world.getBlockState(pos);
-        Block block = blockState.getBlock();
-        ResourceLocation blockId = BuiltInRegistries.BLOCK.getKey(block);
-
-        if (blockId == null) {
-            MinecraftEduMod.LOGGER.warn("Failed to get block ID at " + x + "," + y + "," + z);
-            return false;
-        }
-
-        // "minecraft:" プレフィックスを削除してシンプルな形式にする
-        String blockType = blockId.toString();
-        if (blockType.startsWith("minecraft:")) {
-            blockType = blockType.substring(10);
-        }
+        // ブロック情報取得（サーバースレッドで読む）
+        return query(result, () -> getBlockId(x, y, z)).thenApply(blockId -> {
+            if (blockId == null) {
+                MinecraftEduMod.LOGGER.warn("Failed to get block ID at " + x + "," + y + "," + z);
+                return false;
+            }
 
-        MinecraftEduMod.LOGGER.info("Block type retrieved: " + blockType + " at " + x + "," + y + "," + z);
+            // "minecraft:" プレフィックスを削除してシンプルな形式にする
+            String blockType = blockId.toString();
+            if (blockType.startsWith("minecraft:")) {
+                blockType = blockType.substring(10);
+            }
 
-        // 結果データを設定
-        lastResult.addProperty("blockType", blockType);
-        JsonObject position = new JsonObject();
-        position.addProperty("x", x);
-        position.addProperty("y", y);
-        position.addProperty("z", z);
-        lastResult.add("position", position);
+            MinecraftEduMod.LOGGER.debug("Block type retrieved: {} at {},{},{}", blockType, x, y, z);
 
-        return true;
+            // 結果データを設定
+            result.addProperty("blockType", blockType);
+            JsonObject position = new JsonObject();
+            position.addProperty("x", x);
+            position.addProperty("y", y);
+            position.addProperty("z", z);
+            result.add("position", position);
+            return true;
+        });
     }
 
-    private boolean executeSummonEntity(JsonObject params) {
+    private CompletableFuture<Boolean> executeSummonEntity(JsonObject params, JsonObject result) {
         String entityType = params.get("entityType").getAsString();
         double x = params.get("x").getAsDouble();
         double y = params.get("y").getAsDouble();
@@ -376,46 +1007,45 @@ public class CommandExecutor {
 
         if (type == null) {
             MinecraftEduMod.LOGGER.warn("Unknown entity type: " + entityType);
-            return false;
+            return done(false);
         }
 
-        server.execute(() -> {
+        MinecraftEduMod.LOGGER.info("Entity summoned: " + entityType + " at " + x + "," + y + "," + z);
+        return onServerThread(result, data -> {
             ServerLevel world = server.overworld();
             net.minecraft.world.entity.Entity entity = type.create(world);
 
-            if (entity != null) {
-                entity.setPos(x, y, z);
-                world.addFreshEntity(entity);
+            if (entity == null) {
+                return false;
             }
+            entity.setPos(x, y, z);
+            return world.addFreshEntity(entity);
         });
-
-        MinecraftEduMod.LOGGER.info("Entity summoned: " + entityType + " at " + x + "," + y + "," + z);
-        return true;
     }
 
-    private boolean executeTeleport(JsonObject params) {
+    private CompletableFuture<Boolean> executeTeleport(JsonObject params, JsonObject result) {
         double x = params.get("x").getAsDouble();
         double y = params.get("y").getAsDouble();
         double z = params.get("z").getAsDouble();
 
-        ServerPlayer player = getFirstPlayer();
-        if (player == null) {
-            MinecraftEduMod.LOGGER.warn("No player found for teleport");
-            return false;
-        }
-
-        server.execute(() -> {
+        // プレイヤーはサーバースレッドで探す
+        return onServerThread(result, data -> {
+            ServerPlayer player = getFirstPlayer();
+            if (player == null) {
+                MinecraftEduMod.LOGGER.warn("No player found for teleport");
+                return false;
+            }
             player.teleportTo(x, y, z);
+            MinecraftEduMod.LOGGER.info("Player teleported to " + x + "," + y + "," + z);
+            return true;
         });
-
-        MinecraftEduMod.LOGGER.info("Player teleported to " + x + "," + y + "," + z);
-        return true;
     }
 
-    private boolean executeSetWeather(JsonObject params) {
+    private CompletableFuture<Boolean> executeSetWeather(JsonObject params, JsonObject result) {
         String weather = params.get("weather").getAsString();
 
-        server.execute(() -> {
+        MinecraftEduMod.LOGGER.info("Weather set to: " + weather);
+        return onServerThread(result, data -> {
             ServerLevel world = server.overworld();
 
             switch (weather) {
@@ -429,33 +1059,24 @@ public class CommandExecutor {
                     world.setWeatherParameters(0, 6000, true, true);
                     break;
             }
+            return true;
         });
-
-        MinecraftEduMod.LOGGER.info("Weather set to: " + weather);
-        return true;
     }
 
-    private boolean executeSetTime(JsonObject params) {
+    private CompletableFuture<Boolean> executeSetTime(JsonObject params, JsonObject result) {
         long time = params.get("time").getAsLong();
 
-        server.execute(() -> {
+        MinecraftEduMod.LOGGER.info("Time set to: " + time);
+        return onServerThread(result, data -> {
             ServerLevel world = server.overworld();
             world.setDayTime(time);
+            return true;
         });
-
-        MinecraftEduMod.LOGGER.info("Time set to: " + time);
-        return true;
     }
 
-    private boolean executeSetGameMode(JsonObject params) {
+    private CompletableFuture<Boolean> executeSetGameMode(JsonObject params, JsonObject result) {
         String mode = params.get("mode").getAsString();
 
-        ServerPlayer player = getFirstPlayer();
-        if (player == null) {
-            MinecraftEduMod.LOGGER.warn("No player found for setGameMode");
-            return false;
-        }
-
         GameType gameType;
         switch (mode.toLowerCase()) {
             case "survival":
@@ -472,20 +1093,24 @@ public class CommandExecutor {
                 break;
             default:
                 MinecraftEduMod.LOGGER.warn("Unknown game mode: " + mode);
-                return false;
+                return done(false);
         }
 
-        server.execute(() -> {
-            player.setGameMode(gameType);
-        });
-
-        MinecraftEduMod.LOGGER.info("Game mode set to: " + mode);
-
         // 結果データを設定
-        lastResult.addProperty("gameMode", mode);
-        lastResult.addProperty("playerName", player.getName().getString());
+        result.addProperty("gameMode", mode);
 
-        return true;
+        // プレイヤーはサーバースレッドで探す
+        return onServerThread(result, data -> {
+            ServerPlayer player = getFirstPlayer();
+            if (player == null) {
+                MinecraftEduMod.LOGGER.warn("No player found for setGameMode");
+                return false;
+            }
+            player.setGameMode(gameType);
+            data.addProperty("playerName", player.getName().getString());
+            MinecraftEduMod.LOGGER.info("Game mode set to: " + mode);
+            return true;
+        });
     }
 
     /**
@@ -506,12 +1131,17 @@ public class CommandExecutor {
      *   - Scratchの「ON (true)」→ Minecraftの「false」
      *   - Scratchの「OFF (false)」→ Minecraftの「true」
      */
-    private boolean executeSetGameRule(JsonObject params) {
+    private CompletableFuture<Boolean> executeSetGameRule(JsonObject params, JsonObject result) {
         String rule = params.get("rule").getAsString();
         String value = params.get("value").getAsString();
         boolean boolValue = value.equalsIgnoreCase("true");
 
-        server.execute(() -> {
+        // 結果データを設定
+        result.addProperty("gameRule", rule);
+        result.addProperty("value", value);
+        result.addProperty("success", true);
+
+        return onServerThread(result, data -> {
             ServerLevel world = server.overworld();
             net.minecraft.world.level.GameRules gameRules = world.getGameRules();
 
@@ -540,92 +1170,100 @@ public class CommandExecutor {
                     break;
                 default:
                     MinecraftEduMod.LOGGER.warn("Unknown game rule: " + rule);
-                    return;
+                    return false;
             }
+            return true;
         });
-
-        // 結果データを設定
-        lastResult.addProperty("gameRule", rule);
-        lastResult.addProperty("value", value);
-        lastResult.addProperty("success", true);
-
-        return true;
     }
 
     /**
-     * ブロックタイプ文字列からBlockStateを解析する
-     * 形式: "oak_stairs[half=top,facing=north]" または "stone"
+     * ブロックを1つ置く（サーバースレッドから呼ぶ）
+     * 状態が変わった場合にtrue（すでに同じ状態なら何もしない）。recorderがあれば変更前の状態を記録する
      */
-    private BlockState parseBlockState(String blockTypeString) {
-        // [properties] 部分があるかチェック
-        int bracketIndex = blockTypeString.indexOf('[');
-
-        String blockTypeName;
-        Map<String, String> properties = new HashMap<>();
+    public boolean placeBlock(int x, int y, int z, BlockState blockState, EditJournal.Recorder recorder) {
+        return placeBlock(x, y, z, blockState, recorder, EditOptions.DEFAULT);
+    }
 
-        if (bracketIndex > 0) {
-            // ブロック名とプロパティを分離
-            blockTypeName = blockTypeString.substring(0, bracketIndex);
-            String propertiesString = blockTypeString.substring(bracketIndex + 1, blockTypeString.length() - 1);
-
-            // プロパティをパース
-            if (!propertiesString.isEmpty()) {
-                String[] pairs = propertiesString.split(",");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split("=");
-                    if (keyValue.length == 2) {
-                        properties.put(keyValue[0].trim(), keyValue[1].trim());
-                    }
-                }
-            }
-        } else {
-            blockTypeName = blockTypeString;
+    /**
+     * optionsのphysicsがfalseなら隣接ブロックを更新せずに置く
+     */
+    public boolean placeBlock(int x, int y, int z, BlockState blockState, EditJournal.Recorder recorder, EditOptions options) {
+        ServerLevel world = server.overworld();
+        BlockPos pos = new BlockPos(x, y, z);
+        BlockState oldState = world.getBlockState(pos);
+        if (oldState == blockState) {
+            return false;
+        }
+        if (recorder != null) {
+            recorder.recordBlock(x, y, z, oldState);
         }
+        return world.setBlock(pos, blockState, options.getSetBlockFlags());
+    }
 
-        // ブロックを取得
-        ResourceLocation blockId = new ResourceLocation(blockTypeName);
-        Block block = BuiltInRegistries.BLOCK.get(blockId);
+    /**
+     * 直方体の範囲を埋めるためのライター（サーバースレッドで使う）
+     * チャンクセクションへ直接書き込むので、範囲内のブロックごとの隣接更新は行われない。
+     * recorderがあれば変更前の状態を記録する。書き終えたらflushChangesでクライアントへ送ること
+     */
+    public BulkBlockWriter newBlockWriter(EditJournal.Recorder recorder) {
+        return new BulkBlockWriter(server.overworld(), recorder);
+    }
 
-        if (block == null) {
-            MinecraftEduMod.LOGGER.warn("Unknown block type: " + blockTypeName);
-            return null;
-        }
+    public EditJournal getJournal() {
+        return journal;
+    }
 
-        // デフォルトのBlockStateを取得
-        BlockState blockState = block.defaultBlockState();
+    /**
+     * 1回の範囲編集の最大ブロック数（設定のmaxEditVolume）
+     */
+    public int getMaxEditVolume() {
+        return maxEditVolume;
+    }
 
-        // プロパティを適用
-        for (Map.Entry<String, String> entry : properties.entrySet()) {
-            String propertyName = entry.getKey();
-            String propertyValue = entry.getValue();
+    /**
+     * セッションの終了時に編集履歴を破棄する
+     */
+    public void close() {
+        journal.close();
+    }
 
-            // ブロックのプロパティを検索
-            Optional<Property<?>> optionalProperty = blockState.getProperties().stream()
-                .filter(p -> p.getName().equals(propertyName))
-                .findFirst();
+    /**
+     * 指定座標のブロックIDを返す（取得できなければnull、サーバースレッドから呼ぶ）
+     */
+    public ResourceLocation getBlockId(int x, int y, int z) {
+        BlockState blockState = server.overworld().getBlockState(new BlockPos(x, y, z));
+        return BuiltInRegistries.BLOCK.getKey(blockState.getBlock());
+    }
 
-            if (optionalProperty.isPresent()) {
-                blockState = setPropertyValue(blockState, optionalProperty.get(), propertyValue);
-            } else {
-                MinecraftEduMod.LOGGER.warn("Unknown property '" + propertyName + "' for block " + blockTypeName);
-            }
+    /**
+     * パラメータの編集モード（physics: 既定true）
+     */
+    private static EditOptions editOptions(JsonObject params) {
+        boolean physics = !params.has("physics") || params.get("physics").getAsBoolean();
+        return physics ? EditOptions.DEFAULT : new EditOptions(false);
+    }
+
+    /**
+     * paramsのnameの座標（x, y, z）。無ければInvalidParamsException
+     */
+    private static int[] position(JsonObject params, String name) {
+        JsonObject position = params.getAsJsonObject(name);
+        if (position == null) {
+            throw new InvalidParamsException("Missing " + name);
         }
+        return new int[] {position.get("x").getAsInt(), position.get("y").getAsInt(), position.get("z").getAsInt()};
+    }
 
-        return blockState;
+    public static long fillVolume(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
     }
 
     /**
-     * BlockStateに特定のプロパティ値を設定する
+     * ブロックタイプ文字列からBlockStateを取得する（全セッション共有のキャッシュ付き）
+     * 形式: "oak_stairs[half=top,facing=north]" または "stone"。解析できなければnull
      */
-    @SuppressWarnings("unchecked")
-    private <T extends Comparable<T>> BlockState setPropertyValue(BlockState state, Property<T> property, String value) {
-        Optional<T> optionalValue = property.getValue(value);
-        if (optionalValue.isPresent()) {
-            return state.setValue(property, optionalValue.get());
-        } else {
-            MinecraftEduMod.LOGGER.warn("Invalid value '" + value + "' for property '" + property.getName() + "'");
-            return state;
-        }
+    public BlockState parseBlockState(String blockTypeString) {
+        return BlockStateCache.get().parse(blockTypeString);
     }
 
     /**
@@ -636,66 +1274,209 @@ public class CommandExecutor {
      * Y=-61: 草ブロック
      * Y=-60～100: 空気
      */
-    private boolean executeClearArea(JsonObject params) {
+    private CompletableFuture<Boolean> executeClearArea(JsonObject params, JsonObject result,
+                                                       WorldEditJob.ProgressListener progressListener) {
         // 中心座標を取得（デフォルト: 0, 0）
         int centerX = params.has("centerX") ? params.get("centerX").getAsInt() : 0;
         int centerZ = params.has("centerZ") ? params.get("centerZ").getAsInt() : 0;
 
-        server.execute(() -> {
-            ServerLevel world = server.overworld();
-            BlockState bedrock = net.minecraft.world.level.block.Blocks.BEDROCK.defaultBlockState();
-            BlockState dirt = net.minecraft.world.level.block.Blocks.DIRT.defaultBlockState();
-            BlockState grass = net.minecraft.world.level.block.Blocks.GRASS_BLOCK.defaultBlockState();
-            BlockState air = net.minecraft.world.level.block.Blocks.AIR.defaultBlockState();
+        result.addProperty("centerX", centerX);
+        result.addProperty("centerZ", centerZ);
 
-            // 中心座標から±50の範囲
-            int minX = centerX - 50;
-            int maxX = centerX + 50;
-            int minZ = centerZ - 50;
-            int maxZ = centerZ + 50;
-
-            int blocksCleared = 0;
-            for (int x = minX; x <= maxX; x++) {
-                for (int y = -64; y <= 100; y++) {
-                    for (int z = minZ; z <= maxZ; z++) {
-                        BlockPos pos = new BlockPos(x, y, z);
-                        BlockState blockToPlace;
-
-                        if (y == -64) {
-                            blockToPlace = bedrock;
-                        } else if (y >= -63 && y <= -62) {
-                            blockToPlace = dirt;
-                        } else if (y == -61) {
-                            blockToPlace = grass;
-                        } else {
-                            blockToPlace = air;
-                        }
-
-                        world.setBlock(pos, blockToPlace, 3);
-                        blocksCleared++;
-                    }
-                }
+        BlockState bedrock = net.minecraft.world.level.block.Blocks.BEDROCK.defaultBlockState();
+        BlockState dirt = net.minecraft.world.level.block.Blocks.DIRT.defaultBlockState();
+        BlockState grass = net.minecraft.world.level.block.Blocks.GRASS_BLOCK.defaultBlockState();
+        BlockState air = net.minecraft.world.level.block.Blocks.AIR.defaultBlockState();
+
+        // 中心座標から±50の範囲
+        BoundingBox region = new BoundingBox(centerX - 50, -64, centerZ - 50, centerX + 50, 100, centerZ + 50);
+        long blocksCleared = fillVolume(region.minX(), region.minY(), region.minZ(), region.maxX(), region.maxY(), region.maxZ());
+
+        // 目標の層構成と比べ、違うブロックだけを書き換える（すでに一致しているセクションは読まずに飛ばす）
+        LayeredBlockSource flatLayers = new LayeredBlockSource(-64, new BlockState[] {bedrock, dirt, dirt, grass}, bedrock, air);
+        EditJournal.Recorder recorder = journal.newRecorder("clearArea");
+        WorldEditJob job = new WorldEditJob(server.overworld(), region, flatLayers, recorder, editOptions(params), progressListener);
+
+        return scheduleEdit(result, job, recorder, blocksChanged -> {
+            MinecraftEduMod.LOGGER.info("周囲クリア完了: 中心(" + centerX + ", " + centerZ + ") から " + blocksCleared + "ブロック（スーパーフラット初期状態、変更 " + blocksChanged + "）");
+            result.addProperty("blocksCleared", blocksCleared);
+            result.addProperty("blocksChanged", blocksChanged);
+            result.addProperty("blocksUnchanged", blocksCleared - blocksChanged);
+        });
+    }
+
+    /**
+     * 範囲のブロックを名前付きのスナップショットとして保存する
+     * ブロックの読み取りはfillBlocksと同じくティックごとにセクション単位で少しずつ行い、ファイルへの書き込みはI/Oスレッドで行う
+     */
+    private CompletableFuture<Boolean> executeSnapshotRegion(JsonObject params, JsonObject result,
+                                                            WorldEditJob.ProgressListener progressListener) {
+        String name = params.get("name").getAsString();
+        if (!SnapshotStore.isValidName(name)) {
+            MinecraftEduMod.LOGGER.warn("Invalid snapshot name: " + name);
+            return done(false);
+        }
+
+        JsonObject from = params.getAsJsonObject("from");
+        JsonObject to = params.getAsJsonObject("to");
+        ServerLevel world = server.overworld();
+
+        // 座標範囲を正規化し、高さはワールドの範囲に収める
+        int minX = Math.min(from.get("x").getAsInt(), to.get("x").getAsInt());
+        int maxX = Math.max(from.get("x").getAsInt(), to.get("x").getAsInt());
+        int minY = Math.max(Math.min(from.get("y").getAsInt(), to.get("y").getAsInt()), world.getMinBuildHeight());
+        int maxY = Math.min(Math.max(from.get("y").getAsInt(), to.get("y").getAsInt()), world.getMaxBuildHeight() - 1);
+        int minZ = Math.min(from.get("z").getAsInt(), to.get("z").getAsInt());
+        int maxZ = Math.max(from.get("z").getAsInt(), to.get("z").getAsInt());
+        if (minY > maxY) {
+            MinecraftEduMod.LOGGER.warn("Snapshot region is outside the world height");
+            return done(false);
+        }
+
+        long volume = fillVolume(minX, minY, minZ, maxX, maxY, maxZ);
+        if (volume > maxEditVolume) {
+            MinecraftEduMod.LOGGER.warn("Snapshot volume too large: " + volume + " blocks (max: " + maxEditVolume + ")");
+            return done(false);
+        }
+        BoundingBox region = new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+
+        result.addProperty("name", name);
+        result.addProperty("blocks", volume);
+
+        RegionSnapshot.Capture capture = new RegionSnapshot.Capture(world, region);
+        WorldEditJob job = new WorldEditJob(region, capture, progressListener);
+        return editScheduler.submit(job).thenApplyAsync(ignored -> {
+            result.addProperty("serverTimeMs", job.getServerTimeMs());
+            result.addProperty("ticks", job.getTicks());
+            int bytes;
+            try {
+                ByteBuffer contents = capture.toBuffer();
+                bytes = contents.remaining();
+                snapshotStore.save(name, contents);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
+            result.addProperty("bytes", bytes);
+            MinecraftEduMod.LOGGER.info("Snapshot saved: " + name + " (" + volume + " blocks, " + bytes + " bytes)");
+            return true;
+        }, Util.ioPool());
+    }
 
-            MinecraftEduMod.LOGGER.info("周囲クリア完了: 中心(" + centerX + ", " + centerZ + ") から " + blocksCleared + "ブロック（スーパーフラット初期状態）");
+    /**
+     * 保存したスナップショットの範囲を元に戻す
+     * 今の状態と違うブロックだけを書き換える（1種類だけのセクションが一致していれば読まずに飛ばす）
+     */
+    private CompletableFuture<Boolean> executeRestoreRegion(JsonObject params, JsonObject result,
+                                                           WorldEditJob.ProgressListener progressListener) {
+        String name = params.get("name").getAsString();
+        if (!SnapshotStore.isValidName(name)) {
+            MinecraftEduMod.LOGGER.warn("Invalid snapshot name: " + name);
+            return done(false);
+        }
+
+        RegionSnapshot snapshot;
+        try {
+            snapshot = snapshotStore.open(name);
+        } catch (NoSuchFileException e) {
+            MinecraftEduMod.LOGGER.warn("Snapshot not found: " + name);
+            return done(false);
+        } catch (IOException e) {
+            MinecraftEduMod.LOGGER.error("Failed to open snapshot: " + name, e);
+            return done(false);
+        }
+
+        BoundingBox region = snapshot.getRegion();
+        long volume = fillVolume(region.minX(), region.minY(), region.minZ(), region.maxX(), region.maxY(), region.maxZ());
+        result.addProperty("name", name);
+        JsonObject fromPos = new JsonObject();
+        fromPos.addProperty("x", region.minX());
+        fromPos.addProperty("y", region.minY());
+        fromPos.addProperty("z", region.minZ());
+        JsonObject toPos = new JsonObject();
+        toPos.addProperty("x", region.maxX());
+        toPos.addProperty("y", region.maxY());
+        toPos.addProperty("z", region.maxZ());
+        result.add("from", fromPos);
+        result.add("to", toPos);
+
+        EditJournal.Recorder recorder = journal.newRecorder("restoreRegion");
+        WorldEditJob job = new WorldEditJob(server.overworld(), region, snapshot, recorder, EditOptions.DEFAULT, progressListener);
+        return scheduleEdit(result, job, recorder, changedCount -> {
+            result.addProperty("blocksRestored", volume);
+            result.addProperty("blocksChanged", changedCount);
+            result.addProperty("blocksUnchanged", volume - changedCount);
+            MinecraftEduMod.LOGGER.info("Snapshot restored: " + name + " (" + changedCount + " changed)");
         });
+    }
 
-        lastResult.addProperty("blocksCleared", 1683165);  // 101 * 165 * 101
-        lastResult.addProperty("centerX", centerX);
-        lastResult.addProperty("centerZ", centerZ);
-        return true;
+    /**
+     * このセッションの直前の編集を元に戻す（redoがtrueなら、元に戻した編集をやり直す）
+     * 記録したセクションだけを範囲編集と同じ方法で書き戻すので、かかる時間は編集の大きさに比例する。
+     * 書き戻すときに上書きした状態は逆方向の履歴に加える。
+     * 編集履歴はサーバータスクの中で取り出す。先に受け取った書き込みは（RequestOrderで）その時点で終わって履歴に加わっていて、
+     * 取り出してから書き戻しを登録するまでの間に他の書き込みは入らない
+     */
+    private CompletableFuture<Boolean> executeReplay(JsonObject result, WorldEditJob.ProgressListener progressListener, boolean redo) {
+        boolean queued = completionMode == EduConfig.CompletionMode.QUEUED;
+        JsonObject data = queued ? new JsonObject() : result;
+        CompletableFuture<Boolean> future = server.isSameThread()
+            ? replay(data, progressListener, redo)
+            : editScheduler.submitTask(() -> replay(data, progressListener, redo)).thenCompose(replayed -> replayed);
+        trackEdit(future);
+        return queued ? done(true) : future;
     }
 
     /**
-     * 全エンティティをクリア
-     * X:-50～50、Y:-64～100、Z:-50～50の範囲のエンティティを削除（プレイヤーを除く）
+     * 編集履歴から取り出して書き戻しのジョブを登録する（サーバースレッド）
      */
-    private boolean executeClearAllEntities(JsonObject params) {
+    private CompletableFuture<Boolean> replay(JsonObject result, WorldEditJob.ProgressListener progressListener, boolean redo) {
+        EditJournal.Entry entry;
+        try {
+            entry = redo ? journal.pollRedo() : journal.pollUndo();
+        } catch (IOException e) {
+            MinecraftEduMod.LOGGER.error("Failed to read edit journal", e);
+            return done(false);
+        }
+        if (entry == null) {
+            MinecraftEduMod.LOGGER.warn("Nothing to " + (redo ? "redo" : "undo"));
+            return done(false);
+        }
+
+        String editAction = entry.getAction();
+        result.addProperty(redo ? "redone" : "undone", editAction);
+        result.addProperty("blocksRecorded", entry.getBlockCount());
+
+        EditJournal.Replay replay = entry.createReplay();
+        EditJournal.Recorder recorder = journal.newRecorder(editAction);
+        WorldEditJob job = new WorldEditJob(server.overworld(), replay.getSections(), replay, recorder, EditOptions.DEFAULT,
+            progressListener);
+        // 履歴を書き換えてから完了する（後のundo/redoはこの結果を取り出す）
+        return editScheduler.submit(job).whenComplete((changedCount, error) -> {
+            journal.recordReplay(recorder, redo);
+            // 書き戻せなかった（途中までの）記録は、もう一度実行できるように履歴へ戻す
+            if (error != null) {
+                journal.restore(entry, redo);
+            }
+        }).thenApply(changedCount -> {
+            result.addProperty("blocksChanged", changedCount);
+            result.addProperty("blocksUnchanged", entry.getBlockCount() - changedCount);
+            result.addProperty("serverTimeMs", job.getServerTimeMs());
+            result.addProperty("ticks", job.getTicks());
+            MinecraftEduMod.LOGGER.info((redo ? "Redone: " : "Undone: ") + editAction + " (" + changedCount + " changed)");
+            return true;
+        });
+    }
+
+    private CompletableFuture<Boolean> executeClearAllEntities(JsonObject params, JsonObject result) {
         // 中心座標を取得（デフォルト: 0, 0）
         int centerX = params.has("centerX") ? params.get("centerX").getAsInt() : 0;
         int centerZ = params.has("centerZ") ? params.get("centerZ").getAsInt() : 0;
 
-        server.execute(() -> {
+        result.addProperty("entitiesRemoved", true);
+        result.addProperty("centerX", centerX);
+        result.addProperty("centerZ", centerZ);
+
+        return onServerThread(result, data -> {
             ServerLevel world = server.overworld();
 
             // 中心座標から±50の範囲
@@ -720,14 +1501,14 @@ public class CommandExecutor {
             }
 
             MinecraftEduMod.LOGGER.info("エンティティクリア完了: 中心(" + centerX + ", " + centerZ + ") から " + entitiesRemoved + "体");
+            data.addProperty("entityCount", entitiesRemoved);
+            return true;
         });
-
-        lastResult.addProperty("entitiesRemoved", true);
-        lastResult.addProperty("centerX", centerX);
-        lastResult.addProperty("centerZ", centerZ);
-        return true;
     }
 
+    /**
+     * 最初のプレイヤー（いなければnull）。プレイヤーの一覧はサーバースレッドから読むこと
+     */
     private ServerPlayer getFirstPlayer() {
         if (server.getPlayerList().getPlayers().isEmpty()) {
             return null;
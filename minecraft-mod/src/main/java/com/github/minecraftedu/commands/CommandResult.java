@@ -0,0 +1,41 @@
+package com.github.minecraftedu.commands;
+
+import com.google.gson.JsonObject;
+
+/**
+ * 1回のコマンド実行の結果
+ */
+public class CommandResult {
+
+    private final boolean success;
+    private final JsonObject data;
+    private final String errorCode;
+
+    public CommandResult(boolean success, JsonObject data) {
+        this(success, data, null);
+    }
+
+    public CommandResult(boolean success, JsonObject data, String errorCode) {
+        this.success = success;
+        this.data = data;
+        this.errorCode = errorCode;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * 応答のresultに入れる結果データ
+     */
+    public JsonObject getData() {
+        return data;
+    }
+
+    /**
+     * 失敗の理由を表すエラーコード（特に無ければnull）
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.minecraftedu.commands;
+
+/**
+ * パラメータが不正なためコマンドを実行しなかった（応答のerrorCodeはINVALID_PARAMS）
+ */
+public class InvalidParamsException extends RuntimeException {
+
+    public InvalidParamsException(String message) {
+        super(message);
+    }
+}
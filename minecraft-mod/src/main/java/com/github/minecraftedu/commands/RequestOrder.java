@@ -0,0 +1,135 @@
+package com.github.minecraftedu.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 1つの接続で受け取ったメッセージの順に、ブロックの読み取りと書き込みの順番を守る
+ *
+ * メッセージはワーカーで並行に処理されるので、先に受け取ったsetBlockより後のgetBlockが先にサーバーへ届くことがある。
+ * 受信スレッドで受け取った順にnextで番号（Ticket）を取り、処理するスレッドで種類を宣言する。
+ * <ul>
+ *   <li>READ: 先に受け取った書き込みが終わってから読む（読み取り同士は待たない）</li>
+ *   <li>WRITE: 先に受け取った読み取りと書き込みが終わってから書く（複数ティックにわたる範囲編集も、終わるまで後の書き込みを待たせる）</li>
+ *   <li>BOTH: 先に受け取った読み取りと書き込みがすべて終わってから実行する（batch、バイナリメッセージ）</li>
+ *   <li>NONE: ブロックを読み書きしない（プレイヤーの位置など）。何も待たず、後のメッセージも待たせない</li>
+ * </ul>
+ * 先のメッセージがまだ種類を宣言していなければ、宣言するまで待つ。
+ * 待つのは先に受け取ったメッセージだけなので、待ちが循環することはない。
+ */
+public final class RequestOrder {
+
+    public enum Kind {
+        NONE, READ, WRITE, BOTH;
+
+        /**
+         * otherの後に受け取ったとき、otherが終わるのを待つ必要があるか
+         */
+        boolean mustWaitFor(Kind other) {
+            switch (this) {
+                case READ:
+                    return other == WRITE || other == BOTH;
+                case WRITE:
+                case BOTH:
+                    return other != NONE;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static final CompletableFuture<Void> READY = CompletableFuture.completedFuture(null);
+
+    // まだ終わっていないメッセージ（受け取った順）
+    private final ConcurrentSkipListMap<Long, Ticket> active = new ConcurrentSkipListMap<>();
+    private long nextSequence = 0;
+
+    /**
+     * 受信スレッドで、メッセージを受け取った順に呼ぶ
+     */
+    public synchronized Ticket next() {
+        Ticket ticket = new Ticket(nextSequence++);
+        active.put(ticket.sequence, ticket);
+        return ticket;
+    }
+
+    /**
+     * 1つのメッセージの順番
+     */
+    public final class Ticket {
+        private final long sequence;
+        private final CompletableFuture<Kind> kind = new CompletableFuture<>();
+        // このメッセージの読み取り・書き込みがすべて終わった
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        // 応答の後まで続く処理（QUEUEDモードの書き込みなど、trackedLockで保護）
+        private final List<CompletableFuture<?>> tracked = new ArrayList<>();
+        private final Object trackedLock = new Object();
+        private boolean closed = false;
+
+        private Ticket(long sequence) {
+            this.sequence = sequence;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * 種類を宣言し、先に受け取ったメッセージとの順番が守られた時点で完了するfutureを返す
+         * 2回目以降の宣言は無視する（すぐに完了したfutureを返す）
+         */
+        public CompletableFuture<Void> declare(Kind declared) {
+            if (!kind.complete(declared) || declared == Kind.NONE) {
+                return READY;
+            }
+            List<CompletableFuture<?>> waits = new ArrayList<>();
+            for (Ticket earlier : active.headMap(sequence).values()) {
+                if (earlier.done.isDone()) {
+                    continue;
+                }
+                Kind earlierKind = earlier.kind.getNow(null);
+                if (earlierKind == null) {
+                    waits.add(earlier.kind.thenCompose(k -> declared.mustWaitFor(k) ? earlier.done : READY));
+                } else if (declared.mustWaitFor(earlierKind)) {
+                    waits.add(earlier.done);
+                }
+            }
+            return waits.isEmpty() ? READY : CompletableFuture.allOf(waits.toArray(new CompletableFuture<?>[0]));
+        }
+
+        /**
+         * 応答の後まで続く処理を加える（このメッセージはそれも終わった時点で終わる）
+         */
+        public void track(CompletableFuture<?> work) {
+            synchronized (trackedLock) {
+                // closeの後に加わった処理は順番に含めない（応答の前に加えること）
+                if (!closed) {
+                    tracked.add(work);
+                }
+            }
+        }
+
+        /**
+         * メッセージの処理が終わった（応答を返した）ときに呼ぶ。種類を宣言していなければNONEになる
+         * 失敗した処理も終わったものとして扱う
+         */
+        public void close() {
+            kind.complete(Kind.NONE);
+            CompletableFuture<?>[] works;
+            synchronized (trackedLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                works = tracked.toArray(new CompletableFuture<?>[0]);
+                tracked.clear();
+            }
+            CompletableFuture.allOf(works).handle((ignored, error) -> null).thenRun(() -> {
+                active.remove(sequence);
+                done.complete(null);
+            });
+        }
+    }
+}
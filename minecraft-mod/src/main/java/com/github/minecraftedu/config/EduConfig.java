@@ -0,0 +1,146 @@
+package com.github.minecraftedu.config;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+
+/**
+ * MOD設定（config/minecraftedu-common.toml）
+ *
+ * サーバー起動時に読み込まれる値のみを扱う。
+ */
+public class EduConfig {
+
+    /**
+     * WebSocketのトランスポート実装
+     */
+    public enum Transport {
+        /** 1接続につき1スレッドのブロッキング実装 */
+        SIMPLE,
+        /** Selectorベースのノンブロッキング実装 */
+        NIO,
+        /** Nettyのパイプライン（epoll対応）による実装 */
+        NETTY
+    }
+
+    /**
+     * ワールドを変更するコマンドの応答タイミング
+     */
+    public enum CompletionMode {
+        /** サーバースレッドで実行が終わってから応答する（変更数と実行時間を含む） */
+        TICK,
+        /** サーバーへ投入した時点で応答する（旧動作） */
+        QUEUED
+    }
+
+    public static final ForgeConfigSpec SPEC;
+
+    public static final ForgeConfigSpec.IntValue PORT;
+    public static final ForgeConfigSpec.EnumValue<Transport> TRANSPORT;
+    public static final ForgeConfigSpec.IntValue EVENT_LOOP_THREADS;
+    public static final ForgeConfigSpec.IntValue MAX_MESSAGE_BYTES;
+    public static final ForgeConfigSpec.BooleanValue COMPRESSION;
+    public static final ForgeConfigSpec.IntValue COMPRESSION_THRESHOLD;
+    public static final ForgeConfigSpec.BooleanValue COMPRESSION_CONTEXT_TAKEOVER;
+    public static final ForgeConfigSpec.IntValue WORKER_THREADS;
+    public static final ForgeConfigSpec.IntValue MAX_IN_FLIGHT_REQUESTS;
+    public static final ForgeConfigSpec.EnumValue<CompletionMode> COMPLETION_MODE;
+    public static final ForgeConfigSpec.IntValue TICK_BUDGET_MS;
+    public static final ForgeConfigSpec.IntValue MAX_EDIT_VOLUME;
+    public static final ForgeConfigSpec.IntValue TARGET_MSPT;
+    public static final ForgeConfigSpec.IntValue MAX_QUEUED_VOLUME;
+    public static final ForgeConfigSpec.IntValue JOURNAL_MEMORY_BYTES;
+    public static final ForgeConfigSpec.IntValue JOURNAL_DISK_BYTES;
+    public static final ForgeConfigSpec.IntValue JOURNAL_MAX_ENTRIES;
+
+    static {
+        ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+        builder.comment("WebSocket server settings").push("websocket");
+
+        PORT = builder
+            .comment("Port the WebSocket server listens on")
+            .defineInRange("port", 14711, 1, 65535);
+
+        TRANSPORT = builder
+            .comment("Transport implementation: SIMPLE (thread per connection), NIO (selector event loops) or NETTY (Netty pipeline)")
+            .defineEnum("transport", Transport.NIO);
+
+        EVENT_LOOP_THREADS = builder
+            .comment("Number of event loop threads for the NIO and NETTY transports")
+            .defineInRange("eventLoopThreads", 2, 1, 16);
+
+        MAX_MESSAGE_BYTES = builder
+            .comment("Maximum size of one (reassembled) WebSocket message in bytes; larger messages are closed with 1009")
+            .defineInRange("maxMessageBytes", 16 * 1024 * 1024, 1024, 256 * 1024 * 1024);
+
+        COMPRESSION = builder
+            .comment("Accept the permessage-deflate extension (RFC 7692) when the client offers it")
+            .define("compression", true);
+
+        COMPRESSION_THRESHOLD = builder
+            .comment("Outgoing messages smaller than this many bytes are sent uncompressed")
+            .defineInRange("compressionThreshold", 512, 0, Integer.MAX_VALUE);
+
+        COMPRESSION_CONTEXT_TAKEOVER = builder
+            .comment("Keep the compression dictionary between messages (better ratio, about 300 KB more memory per connection)")
+            .define("compressionContextTakeover", true);
+
+        builder.pop();
+
+        builder.comment("Request processing settings").push("requests");
+
+        WORKER_THREADS = builder
+            .comment("Number of threads that process incoming JSON messages (shared by all connections)")
+            .defineInRange("workerThreads", 4, 1, 32);
+
+        MAX_IN_FLIGHT_REQUESTS = builder
+            .comment("Maximum number of messages processed concurrently for one connection; further messages wait in order")
+            .defineInRange("maxInFlightRequests", 16, 1, 256);
+
+        COMPLETION_MODE = builder
+            .comment("When world-changing commands reply: TICK (after the change has been applied on the server thread) or QUEUED (as soon as it is scheduled)")
+            .defineEnum("completionMode", CompletionMode.TICK);
+
+        builder.pop();
+
+        builder.comment("Large world edit settings (fillBlocks, clearArea)").push("worldEdit");
+
+        TICK_BUDGET_MS = builder
+            .comment("Milliseconds of each server tick that large edits may use; edits that need more continue over the following ticks")
+            .defineInRange("tickBudgetMs", 10, 1, 50);
+
+        TARGET_MSPT = builder
+            .comment("Target milliseconds per tick; large edits slow down, wait or are refused (SERVER_BUSY) so the whole tick stays below this")
+            .defineInRange("targetMspt", 45, 10, 50);
+
+        MAX_QUEUED_VOLUME = builder
+            .comment("Maximum number of blocks waiting in large edits of all clients; further edits are refused with SERVER_BUSY")
+            .defineInRange("maxQueuedVolume", 64 * 1024 * 1024, 1, Integer.MAX_VALUE);
+
+        MAX_EDIT_VOLUME = builder
+            .comment("Maximum number of blocks in one fillBlocks request")
+            .defineInRange("maxEditVolume", 16 * 1024 * 1024, 1, Integer.MAX_VALUE);
+
+        builder.pop();
+
+        builder.comment("Undo/redo history of each connection").push("journal");
+
+        JOURNAL_MEMORY_BYTES = builder
+            .comment("Bytes of history kept in memory per connection; older entries are written to temporary files")
+            .defineInRange("memoryBytes", 4 * 1024 * 1024, 0, Integer.MAX_VALUE);
+
+        JOURNAL_DISK_BYTES = builder
+            .comment("Bytes of history kept in temporary files per connection; the oldest entries beyond this are discarded")
+            .defineInRange("diskBytes", 256 * 1024 * 1024, 0, Integer.MAX_VALUE);
+
+        JOURNAL_MAX_ENTRIES = builder
+            .comment("Maximum number of undoable commands per connection")
+            .defineInRange("maxEntries", 100, 1, 10000);
+
+        builder.pop();
+
+        SPEC = builder.build();
+    }
+
+    private EduConfig() {
+    }
+}
@@ -0,0 +1,511 @@
+package com.github.minecraftedu.network;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import com.github.minecraftedu.commands.CommandExecutor;
+import com.github.minecraftedu.commands.RequestOrder;
+import com.github.minecraftedu.world.BulkBlockWriter;
+import com.github.minecraftedu.world.EditJournal;
+import com.github.minecraftedu.world.EditOptions;
+import com.github.minecraftedu.world.ServerBusyException;
+import com.github.minecraftedu.world.WorldEditJob;
+import com.github.minecraftedu.world.WorldEditScheduler;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * バイナリメッセージ（opcode 0x2）の処理
+ *
+ * 大量のブロック操作向けのコンパクトな形式。ブロック状態はメッセージ先頭の
+ * パレットで1度だけ送り、各操作はパレット番号と前の座標からの差分（varint）で表す。
+ * Gsonのツリーを作らずに直接CommandExecutorの操作へ変換し、
+ * 1メッセージ分の操作をまとめて1回のサーバータスクで実行する。
+ * ただしfillの合計がINLINE_FILL_VOLUMEを超える分は、WorldEditSchedulerのジョブとして複数ティックに分けて書き込み、
+ * 終わってから残りの操作へ進む（メッセージ内の順番は変わらない）。
+ * 形式の詳細は shared/protocol/PROTOCOL_SPEC.md の「バイナリプロトコル」を参照。
+ */
+public class BinaryProtocolHandler {
+
+    static final int VERSION = 1;
+
+    static final int OP_SET_BLOCK = 0x01;
+    static final int OP_FILL = 0x02;
+    static final int OP_GET_BLOCK = 0x03;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_INVALID_PARAMS = 1;
+    static final int STATUS_COMMAND_FAILED = 2;
+    static final int STATUS_SERVER_BUSY = 3;
+
+    // 1メッセージに含められるパレット/操作の上限
+    private static final int MAX_PALETTE_SIZE = 4096;
+    private static final int MAX_OPS = 1 << 20;
+    private static final int MAX_STRING_BYTES = 1024;
+    // 1メッセージでサーバータスク内に直接書き込むfillの合計（超える分はスケジューラーへ回す）
+    static final int INLINE_FILL_VOLUME = 32768;
+
+    private final ClientSession session;
+    private final CommandExecutor commandExecutor;
+    private final WorldEditScheduler editScheduler;
+
+    public BinaryProtocolHandler(ClientSession session) {
+        this.session = session;
+        this.commandExecutor = session.getCommandExecutor();
+        this.editScheduler = session.getRegistry().getEditScheduler();
+    }
+
+    /**
+     * メッセージを解析してサーバースレッドへ投入する
+     * messageは呼び出し中のみ有効（解析はこのメソッド内で完了させる）。
+     * ticket（受信順に取ったもの）は、先に受け取ったブロックの読み書きを待つのに使い、応答を送った時点で閉じる。
+     * 返すfutureは応答を送り終えたとき（解析できずにすぐ応答した場合は直ちに）完了する
+     */
+    public CompletableFuture<Void> handleMessage(ByteBuffer message, RequestOrder.Ticket ticket) {
+        CompletableFuture<Void> response;
+        try {
+            response = submit(message, ticket);
+        } catch (RuntimeException e) {
+            ticket.close();
+            throw e;
+        }
+        if (response == null) {
+            ticket.close();
+            return CompletableFuture.completedFuture(null);
+        }
+        return response;
+    }
+
+    /**
+     * 処理待ちが多すぎて受け付けないメッセージにSERVER_BUSYを返す
+     */
+    public void handleOverload(ByteBuffer message) {
+        try {
+            int version = message.get() & 0xFF;
+            long requestId = readVarLong(message);
+            if (version == VERSION) {
+                sendStatus(requestId, STATUS_SERVER_BUSY);
+            }
+        } catch (RuntimeException e) {
+            // requestIdが読めなければ応答できない
+            MinecraftEduMod.LOGGER.warn("Malformed binary message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * サーバースレッドへ投入した場合は応答を送ったときに完了するfuture（応答を送った後でticketを閉じる）、
+     * 投入せずに応答した場合はnull
+     */
+    private CompletableFuture<Void> submit(ByteBuffer message, RequestOrder.Ticket ticket) {
+        long requestId = -1;
+        Request request;
+        try {
+            int version = message.get() & 0xFF;
+            requestId = readVarLong(message);
+            if (version != VERSION) {
+                sendStatus(requestId, STATUS_INVALID_PARAMS);
+                return null;
+            }
+            request = parseRequest(requestId, message);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException、不正なvarint、解析できないブロックIDなど
+            MinecraftEduMod.LOGGER.warn("Malformed binary message: " + e.getMessage());
+            if (requestId >= 0) {
+                sendStatus(requestId, STATUS_INVALID_PARAMS);
+            }
+            return null;
+        }
+
+        if (request == null) {
+            sendStatus(requestId, STATUS_INVALID_PARAMS);
+            return null;
+        }
+
+        MinecraftServer server = session.getRegistry().getMinecraftServer();
+        CompletableFuture<Void> response = new CompletableFuture<>();
+        // 負荷が目標を超えている間は、範囲編集と同じくティックの予算の中で実行される
+        ticket.declare(RequestOrder.Kind.BOTH)
+            .thenCompose(ignored -> editScheduler.submitTask(() -> {
+                resume(new Execution(request, server, response), ticket);
+                return null;
+            }))
+            .whenComplete((ignored, error) -> {
+                if (error != null) {
+                    MinecraftEduMod.LOGGER.error("Error executing binary request " + request.requestId, error);
+                    ticket.close();
+                    response.complete(null);
+                }
+            });
+        return response;
+    }
+
+    private Request parseRequest(long requestId, ByteBuffer in) {
+        int paletteSize = readVarInt(in);
+        if (paletteSize > MAX_PALETTE_SIZE) {
+            throw new IllegalArgumentException("Palette too large: " + paletteSize);
+        }
+        BlockState[] palette = new BlockState[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            String blockType = readString(in);
+            palette[i] = commandExecutor.parseBlockState(blockType);
+            if (palette[i] == null) {
+                MinecraftEduMod.LOGGER.warn("Failed to parse block state: " + blockType);
+                return null;
+            }
+        }
+
+        int opCount = readVarInt(in);
+        // 1操作は最低4バイト（op + 座標3つ）
+        if (opCount > MAX_OPS || opCount > in.remaining() / 4) {
+            throw new IllegalArgumentException("Too many operations: " + opCount);
+        }
+
+        // 操作ごとに [op, x1, y1, z1, x2, y2, z2, palette] の8要素
+        int[] ops = new int[opCount * 8];
+        int x = 0, y = 0, z = 0;
+        int getCount = 0;
+        long totalVolume = 0;
+        for (int i = 0; i < opCount; i++) {
+            int base = i * 8;
+            int op = in.get() & 0xFF;
+            x += readZigZag(in);
+            y += readZigZag(in);
+            z += readZigZag(in);
+            ops[base] = op;
+            ops[base + 1] = x;
+            ops[base + 2] = y;
+            ops[base + 3] = z;
+
+            switch (op) {
+                case OP_SET_BLOCK:
+                    ops[base + 7] = readPaletteIndex(in, paletteSize);
+                    break;
+                case OP_FILL: {
+                    // 終点は始点からの差分
+                    int toX = x + readZigZag(in);
+                    int toY = y + readZigZag(in);
+                    int toZ = z + readZigZag(in);
+                    ops[base + 1] = Math.min(x, toX);
+                    ops[base + 2] = Math.min(y, toY);
+                    ops[base + 3] = Math.min(z, toZ);
+                    ops[base + 4] = Math.max(x, toX);
+                    ops[base + 5] = Math.max(y, toY);
+                    ops[base + 6] = Math.max(z, toZ);
+                    ops[base + 7] = readPaletteIndex(in, paletteSize);
+                    // 上限はメッセージ内のfill全体の合計に対して適用する
+                    totalVolume += CommandExecutor.fillVolume(ops[base + 1], ops[base + 2], ops[base + 3], ops[base + 4], ops[base + 5], ops[base + 6]);
+                    if (totalVolume > commandExecutor.getMaxEditVolume()) {
+                        MinecraftEduMod.LOGGER.warn("Fill volume too large: " + totalVolume + " blocks (max: " + commandExecutor.getMaxEditVolume() + ")");
+                        return null;
+                    }
+                    break;
+                }
+                case OP_GET_BLOCK:
+                    getCount++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + op);
+            }
+        }
+
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing bytes: " + in.remaining());
+        }
+        return new Request(requestId, palette, ops, opCount, getCount);
+    }
+
+    /**
+     * サーバースレッドで次の操作から実行する
+     * スケジューラーへ回したfillがあれば、その完了を待って（その時点のサーバースレッドで）続きを実行する
+     */
+    private void resume(Execution execution, RequestOrder.Ticket ticket) {
+        CompletableFuture<Integer> scheduledFill = execution.runInline();
+
+        if (scheduledFill == null) {
+            finish(execution, ticket);
+            return;
+        }
+        scheduledFill.whenComplete((changedCount, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof ServerBusyException) {
+                    execution.status = STATUS_SERVER_BUSY;
+                } else {
+                    MinecraftEduMod.LOGGER.error("Error executing binary request " + execution.request.requestId, cause);
+                    execution.status = STATUS_COMMAND_FAILED;
+                }
+                finish(execution, ticket);
+                return;
+            }
+            execution.changed += changedCount;
+            execution.applied++;
+            resume(execution, ticket);
+        });
+    }
+
+    private void finish(Execution execution, RequestOrder.Ticket ticket) {
+        try {
+            execution.writer.flushChanges();
+            commandExecutor.getJournal().record(execution.recorder);
+
+            MinecraftEduMod.LOGGER.debug("Binary request {}: {}/{} operations, {} blocks changed", execution.request.requestId,
+                execution.applied, execution.request.opCount, execution.changed);
+            session.sendBinary(execution.toResponse());
+        } finally {
+            ticket.close();
+            execution.response.complete(null);
+        }
+    }
+
+    private void sendStatus(long requestId, int status) {
+        Writer out = new Writer(16);
+        out.writeByte(VERSION);
+        out.writeVarLong(requestId);
+        out.writeByte(status);
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        out.writeVarInt(0);
+        session.sendBinary(out.toByteBuffer());
+    }
+
+    private static int readPaletteIndex(ByteBuffer in, int paletteSize) {
+        int index = readVarInt(in);
+        if (index >= paletteSize) {
+            throw new IllegalArgumentException("Palette index out of range: " + index);
+        }
+        return index;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length > MAX_STRING_BYTES || length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int readVarInt(ByteBuffer in) {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("VarInt too large");
+        }
+        return (int) value;
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int b = in.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarLong too long");
+    }
+
+    static int readZigZag(ByteBuffer in) {
+        long encoded = readVarLong(in);
+        if (encoded > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("ZigZag value too large");
+        }
+        int value = (int) encoded;
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 解析済みのリクエスト
+     */
+    private static final class Request {
+        private final long requestId;
+        private final BlockState[] palette;
+        private final int[] ops;
+        private final int opCount;
+        private final int getCount;
+
+        Request(long requestId, BlockState[] palette, int[] ops, int opCount, int getCount) {
+            this.requestId = requestId;
+            this.palette = palette;
+            this.ops = ops;
+            this.opCount = opCount;
+            this.getCount = getCount;
+        }
+    }
+
+    /**
+     * 1つのリクエストの実行状態（サーバースレッドのみ）
+     */
+    private final class Execution {
+        private final Request request;
+        private final MinecraftServer server;
+        private final CompletableFuture<Void> response;
+        // getの結果は応答側のパレット番号で返す
+        private final Map<String, Integer> resultIndex = new HashMap<>();
+        private final List<String> resultPalette = new ArrayList<>();
+        private final int[] results;
+        // 1つのメッセージの書き込みを1件の編集履歴にする（setBlockの記録はチャンクセクションごとにまとめる）
+        private final EditJournal.Recorder recorder = commandExecutor.getJournal().newRecorder("binary");
+        // fillの変更はメッセージの終わり（スケジューラーへ回す前）にセクション単位でまとめて送る
+        private final BulkBlockWriter writer = commandExecutor.newBlockWriter(recorder);
+        private int resultCount = 0;
+        private int applied = 0;
+        private long changed = 0;
+        private long inlineFillVolume = 0;
+        private int status = STATUS_OK;
+
+        Execution(Request request, MinecraftServer server, CompletableFuture<Void> response) {
+            this.request = request;
+            this.server = server;
+            this.response = response;
+            this.results = new int[request.getCount];
+        }
+
+        /**
+         * 次の操作から、スケジューラーへ回すfillの手前まで（または最後まで）実行する
+         * fillをスケジューラーへ回した場合はそのfutureを返す（そのfillはまだappliedに数えない）
+         */
+        CompletableFuture<Integer> runInline() {
+            int[] ops = request.ops;
+            try {
+                while (applied < request.opCount && status == STATUS_OK) {
+                    int base = applied * 8;
+                    switch (ops[base]) {
+                        case OP_SET_BLOCK:
+                            if (commandExecutor.placeBlock(ops[base + 1], ops[base + 2], ops[base + 3], request.palette[ops[base + 7]], recorder)) {
+                                changed++;
+                            }
+                            break;
+                        case OP_FILL: {
+                            long volume = CommandExecutor.fillVolume(ops[base + 1], ops[base + 2], ops[base + 3],
+                                ops[base + 4], ops[base + 5], ops[base + 6]);
+                            if (inlineFillVolume + volume > INLINE_FILL_VOLUME) {
+                                return scheduleFill(ops, base);
+                            }
+                            inlineFillVolume += volume;
+                            changed += writer.fill(ops[base + 1], ops[base + 2], ops[base + 3],
+                                ops[base + 4], ops[base + 5], ops[base + 6], request.palette[ops[base + 7]]);
+                            break;
+                        }
+                        case OP_GET_BLOCK: {
+                            ResourceLocation blockId = commandExecutor.getBlockId(ops[base + 1], ops[base + 2], ops[base + 3]);
+                            String name = blockId != null ? blockId.toString() : "";
+                            Integer index = resultIndex.get(name);
+                            if (index == null) {
+                                index = resultPalette.size();
+                                resultIndex.put(name, index);
+                                resultPalette.add(name);
+                            }
+                            results[resultCount++] = index;
+                            break;
+                        }
+                        default:
+                            break;
+                    }
+                    applied++;
+                }
+            } catch (Exception e) {
+                MinecraftEduMod.LOGGER.error("Error executing binary request " + request.requestId, e);
+                status = STATUS_COMMAND_FAILED;
+            }
+            return null;
+        }
+
+        private CompletableFuture<Integer> scheduleFill(int[] ops, int base) {
+            // ここまでの変更を先に送る（ジョブの変更はジョブがティックごとに送る）
+            writer.flushChanges();
+            BoundingBox region = new BoundingBox(ops[base + 1], ops[base + 2], ops[base + 3], ops[base + 4], ops[base + 5], ops[base + 6]);
+            WorldEditJob job = new WorldEditJob(server.overworld(), region, BulkBlockWriter.BlockSource.of(request.palette[ops[base + 7]]),
+                recorder, EditOptions.DEFAULT, null);
+            return editScheduler.submit(job);
+        }
+
+        ByteBuffer toResponse() {
+            int size = 32;
+            for (String name : resultPalette) {
+                size += 5 + name.length();
+            }
+            size += resultCount * 5;
+
+            Writer out = new Writer(size);
+            out.writeByte(VERSION);
+            out.writeVarLong(request.requestId);
+            out.writeByte(status);
+            out.writeVarInt(applied);
+            out.writeVarInt(resultPalette.size());
+            for (String name : resultPalette) {
+                out.writeString(name);
+            }
+            out.writeVarInt(resultCount);
+            for (int i = 0; i < resultCount; i++) {
+                out.writeVarInt(results[i]);
+            }
+            return out.toByteBuffer();
+        }
+    }
+
+    /**
+     * 応答メッセージの書き込み（必要に応じて拡張するヒープバッファ）
+     */
+    static final class Writer {
+        private ByteBuffer buffer;
+
+        Writer(int initialCapacity) {
+            this.buffer = ByteBuffer.allocate(Math.max(16, initialCapacity));
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        ByteBuffer toByteBuffer() {
+            buffer.flip();
+            return buffer;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.github.minecraftedu.network;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import com.github.minecraftedu.commands.CommandExecutor;
+import com.github.minecraftedu.commands.RequestOrder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 1つのWebSocket接続に対応するセッション
+ *
+ * 接続が続く間、同じハンドラーとCommandExecutorを使い回す。
+ * 切断時にSessionRegistry.closeで破棄される。
+ *
+ * テキストメッセージは受信スレッドでは処理せず、共有のワーカーへ渡す。
+ * バイナリメッセージと合わせて1接続あたり最大maxInFlightRequests件を並行に処理し、応答は完了した順に返す
+ * （クライアントはrequestIdで対応付ける）。上限を超えた分は受信順に待たせる（バイナリメッセージはコピーして待たせる）。
+ * 受信時に受け取った順の番号（RequestOrder.Ticket）を付け、ブロックの読み取りと書き込みはその順番を守る。
+ */
+public class ClientSession {
+
+    // 処理待ちがこれを超えたらRATE_LIMIT_EXCEEDEDを返す
+    private static final int MAX_PENDING_MESSAGES = 1024;
+
+    private final String sessionId;
+    private final SessionRegistry registry;
+    private final MessageSink sink;
+    private final String remoteAddress;
+    private final long connectedAt;
+    private final CommandExecutor commandExecutor;
+    private final MinecraftWebSocketHandler handler;
+    private final BinaryProtocolHandler binaryHandler;
+
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private volatile String clientId;
+
+    // 並行処理の管理（dispatchLockで保護）
+    private final Object dispatchLock = new Object();
+    private final Deque<PendingMessage> pending = new ArrayDeque<>();
+    private int inFlight = 0;
+    private boolean closed = false;
+
+    ClientSession(SessionRegistry registry, MessageSink sink, String remoteAddress) {
+        this.sessionId = UUID.randomUUID().toString();
+        this.registry = registry;
+        this.sink = sink;
+        this.remoteAddress = remoteAddress;
+        this.connectedAt = System.currentTimeMillis();
+        this.commandExecutor = new CommandExecutor(registry.getMinecraftServer(), registry.getEditScheduler(),
+            registry.getQueryBatcher(), registry.getSnapshotStore(), registry.getWorkers());
+        this.handler = new MinecraftWebSocketHandler(this);
+        this.binaryHandler = new BinaryProtocolHandler(this);
+    }
+
+    /**
+     * 受信したテキストメッセージをワーカーへ渡す（応答は処理完了後に送信される）
+     */
+    public void onTextMessage(String message) {
+        messagesReceived.incrementAndGet();
+        // 受信スレッドで受け取った順に番号を取る
+        PendingMessage pendingMessage = new PendingMessage(message, commandExecutor.nextTicket());
+
+        boolean overloaded = false;
+        synchronized (dispatchLock) {
+            if (closed) {
+                return;
+            }
+            if (inFlight < registry.getMaxInFlightRequests()) {
+                inFlight++;
+            } else if (pending.size() < MAX_PENDING_MESSAGES) {
+                pending.add(pendingMessage);
+                return;
+            } else {
+                overloaded = true;
+            }
+        }
+
+        if (overloaded) {
+            MinecraftEduMod.LOGGER.warn("Too many pending messages for session " + sessionId);
+            pendingMessage.ticket.close();
+            send(handler.handleOverload(message));
+            return;
+        }
+        dispatch(pendingMessage);
+    }
+
+    private void dispatch(PendingMessage message) {
+        try {
+            registry.getWorkers().execute(() -> {
+                if (message.binary != null) {
+                    processBinary(message.binary, message.ticket);
+                } else {
+                    process(message);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // サーバー停止中
+            synchronized (dispatchLock) {
+                inFlight--;
+                pending.clear();
+            }
+        }
+    }
+
+    private void process(PendingMessage message) {
+        CompletableFuture<String> response;
+        try {
+            response = handler.handleMessage(message.text, message.ticket);
+        } catch (Exception e) {
+            MinecraftEduMod.LOGGER.error("Error handling message", e);
+            message.ticket.close();
+            complete();
+            return;
+        }
+
+        // サーバースレッドでの実行を待つ間、ワーカーは他のメッセージを処理できる
+        response.whenComplete((text, error) -> {
+            message.ticket.close();
+            if (error != null) {
+                MinecraftEduMod.LOGGER.error("Error handling message", error);
+            } else if (text != null) {
+                send(text);
+            }
+            complete();
+        });
+    }
+
+    /**
+     * 1件の処理が終わったら、待っているメッセージがあれば次を始める
+     */
+    private void complete() {
+        PendingMessage next;
+        synchronized (dispatchLock) {
+            next = closed ? null : pending.poll();
+            if (next == null) {
+                inFlight--;
+            }
+        }
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    /**
+     * 切断時に処理待ちのメッセージと編集履歴を破棄する
+     */
+    void onClosed() {
+        synchronized (dispatchLock) {
+            closed = true;
+            pending.clear();
+        }
+        commandExecutor.close();
+    }
+
+    /**
+     * 受信したバイナリメッセージを処理する（応答は実行後に非同期で送られる）
+     * messageは呼び出し中のみ有効。上限内ならこのスレッドでそのまま解析し、上限を超えていればコピーして待たせる
+     */
+    public void onBinaryMessage(ByteBuffer message) {
+        messagesReceived.incrementAndGet();
+        RequestOrder.Ticket ticket = commandExecutor.nextTicket();
+
+        boolean overloaded = false;
+        synchronized (dispatchLock) {
+            if (closed) {
+                return;
+            }
+            if (inFlight < registry.getMaxInFlightRequests()) {
+                inFlight++;
+            } else if (pending.size() < MAX_PENDING_MESSAGES) {
+                ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+                copy.put(message).flip();
+                pending.add(new PendingMessage(copy, ticket));
+                return;
+            } else {
+                overloaded = true;
+            }
+        }
+
+        if (overloaded) {
+            MinecraftEduMod.LOGGER.warn("Too many pending messages for session " + sessionId);
+            ticket.close();
+            binaryHandler.handleOverload(message);
+            return;
+        }
+        processBinary(message, ticket);
+    }
+
+    private void processBinary(ByteBuffer message, RequestOrder.Ticket ticket) {
+        CompletableFuture<Void> response;
+        try {
+            response = binaryHandler.handleMessage(message, ticket);
+        } catch (Exception e) {
+            MinecraftEduMod.LOGGER.error("Error handling binary message", e);
+            complete();
+            return;
+        }
+        response.whenComplete((ignored, error) -> complete());
+    }
+
+    public void send(String message) {
+        messagesSent.incrementAndGet();
+        sink.sendText(message);
+    }
+
+    public void sendBinary(ByteBuffer message) {
+        messagesSent.incrementAndGet();
+        sink.sendBinary(message);
+    }
+
+    public void disconnect() {
+        sink.close();
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public SessionRegistry getRegistry() {
+        return registry;
+    }
+
+    public CommandExecutor getCommandExecutor() {
+        return commandExecutor;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    /**
+     * 処理を待つメッセージ（テキストまたはバイナリのコピー）と、受け取った順の番号
+     */
+    private static final class PendingMessage {
+        private final String text;
+        private final ByteBuffer binary;
+        private final RequestOrder.Ticket ticket;
+
+        private PendingMessage(String text, RequestOrder.Ticket ticket) {
+            this.text = text;
+            this.binary = null;
+            this.ticket = ticket;
+        }
+
+        private PendingMessage(ByteBuffer binary, RequestOrder.Ticket ticket) {
+            this.text = null;
+            this.binary = binary;
+            this.ticket = ticket;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.minecraftedu.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * セッションからクライアントへの送信口
+ *
+ * 各トランスポートが接続ごとに実装する。どのスレッドから呼ばれてもよい。
+ */
+public interface MessageSink {
+
+    void sendText(String message);
+
+    /**
+     * バイナリフレームを送る
+     * 呼び出し後にmessageの内容を変更してはならない（送信まで参照される場合がある）
+     */
+    void sendBinary(ByteBuffer message);
+
+    void close();
+}
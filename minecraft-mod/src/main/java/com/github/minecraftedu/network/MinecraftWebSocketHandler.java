@@ -2,64 +2,112 @@ package com.github.minecraftedu.network;
 
 import com.github.minecraftedu.MinecraftEduMod;
 import com.github.minecraftedu.commands.CommandExecutor;
+import com.github.minecraftedu.commands.CommandResult;
+import com.github.minecraftedu.commands.RequestOrder;
+import com.github.minecraftedu.world.WorldEditJob;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import net.minecraft.server.MinecraftServer;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * JSONメッセージの処理
+ *
+ * セッションごとに1つ生成され、接続が続く間使い回される。
+ * 状態を持たないので、同じセッションの複数のメッセージを並行して処理してよい。
+ * command/queryの応答はサーバースレッドでの実行が終わってから生成される。
+ */
 public class MinecraftWebSocketHandler {
 
-    private final MinecraftServer minecraftServer;
-    private final Gson gson;
-    private final CommandExecutor commandExecutor;
-    private String sessionId;
+    // Gsonはスレッドセーフなので全セッションで共有する
+    private static final Gson GSON = new Gson();
+
+    // batchメッセージ1件に含められるコマンド数の上限
+    private static final int MAX_BATCH_SIZE = 1000;
 
-    public MinecraftWebSocketHandler(MinecraftServer minecraftServer) {
-        this.minecraftServer = minecraftServer;
-        this.gson = new Gson();
-        this.commandExecutor = new CommandExecutor(minecraftServer);
+    // batchのpayloadに指定すると各項目の既定値になる編集モード（fillBlocks、clearArea、replaceBlocks、図形のコマンド、setBlock）
+    private static final String[] EDIT_MODES = {"physics"};
+
+    private final ClientSession session;
+    private final CommandExecutor commandExecutor;
+    private final String sessionId;
+    // 応答の生成はサーバースレッドではなくワーカーで行う
+    private final Executor workers;
+
+    public MinecraftWebSocketHandler(ClientSession session) {
+        this.session = session;
+        this.commandExecutor = session.getCommandExecutor();
+        this.sessionId = session.getSessionId();
+        this.workers = session.getRegistry().getWorkers();
     }
 
-    public String handleMessage(String request) {
-        MinecraftEduMod.LOGGER.debug("Received: " + request);
+    /**
+     * メッセージを処理し、応答（無ければnull）で完了するfutureを返す
+     * ticketはメッセージを受け取った順の番号（ブロックの読み取りと書き込みの順番を守るために使う）
+     */
+    public CompletableFuture<String> handleMessage(String request, RequestOrder.Ticket ticket) {
+        MinecraftEduMod.LOGGER.debug("Received: {}", request);
 
+        JsonObject message = null;
         try {
-            JsonObject message = gson.fromJson(request, JsonObject.class);
-            return processMessage(message);
+            message = GSON.fromJson(request, JsonObject.class);
+            return processMessage(message, ticket);
         } catch (Exception e) {
             MinecraftEduMod.LOGGER.error("Error processing message", e);
-            return createError("INTERNAL_ERROR", "Failed to process message: " + e.getMessage());
+            return CompletableFuture.completedFuture(
+                createError(message, "INTERNAL_ERROR", "Failed to process message: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 処理待ちが上限を超えたメッセージへの応答
+     */
+    public String handleOverload(String request) {
+        JsonObject message = null;
+        try {
+            message = GSON.fromJson(request, JsonObject.class);
+        } catch (Exception e) {
+            // requestIdを付けられないだけなので無視する
         }
+        return createError(message, "RATE_LIMIT_EXCEEDED", "Too many requests in flight");
     }
 
-    private String processMessage(JsonObject message) {
+    private CompletableFuture<String> processMessage(JsonObject message, RequestOrder.Ticket ticket) {
         String type = message.get("type").getAsString();
 
         switch (type) {
             case "connect":
-                return handleConnect(message);
+                return CompletableFuture.completedFuture(handleConnect(message));
 
             case "command":
-                return handleCommand(message);
+                return handleCommand(message, ticket);
 
             case "query":
-                return handleQuery(message);
+                return handleQuery(message, ticket);
+
+            case "batch":
+                return handleBatch(message, ticket);
 
             case "heartbeat":
-                return handleHeartbeat();
+                return CompletableFuture.completedFuture(handleHeartbeat(message));
 
             default:
-                return createError("UNKNOWN_TYPE", "Unknown message type: " + type);
+                return CompletableFuture.completedFuture(
+                    createError(message, "UNKNOWN_TYPE", "Unknown message type: " + type));
         }
     }
 
     private String handleConnect(JsonObject message) {
-        // セッションID生成
-        sessionId = UUID.randomUUID().toString();
-
         JsonObject payload = message.getAsJsonObject("payload");
         String clientId = payload.get("clientId").getAsString();
+        session.setClientId(clientId);
 
         MinecraftEduMod.LOGGER.info("Client connected: " + clientId + " with session: " + sessionId);
 
@@ -86,142 +134,279 @@ public class MinecraftWebSocketHandler {
         serverInfo.addProperty("version", "0.1.0");
         serverInfo.addProperty("minecraftVersion", "1.20.1");
         serverInfo.addProperty("maxClients", 10);
-        serverInfo.addProperty("currentClients", 1);
+        serverInfo.addProperty("currentClients", session.getRegistry().size());
 
         responsePayload.add("serverInfo", serverInfo);
         response.add("payload", responsePayload);
 
-        return gson.toJson(response);
+        return GSON.toJson(response);
     }
 
-    private String handleCommand(JsonObject message) {
+    private CompletableFuture<String> handleCommand(JsonObject message, RequestOrder.Ticket ticket) {
         JsonObject payload = message.getAsJsonObject("payload");
         String action = payload.get("action").getAsString();
         JsonObject params = payload.getAsJsonObject("params");
 
-        MinecraftEduMod.LOGGER.info("Executing command: " + action);
+        MinecraftEduMod.LOGGER.debug("Executing command: {}", action);
 
-        try {
-            // コマンド実行
-            boolean success = commandExecutor.execute(action, params);
-
-            // レスポンス
-            JsonObject response = new JsonObject();
-            response.addProperty("version", "1.0");
-            response.addProperty("messageId", UUID.randomUUID().toString());
-            response.addProperty("timestamp", System.currentTimeMillis());
-            response.addProperty("sessionId", sessionId);
-            response.addProperty("type", "command_response");
-
-            // 元のリクエストのmessageIdを含める
-            if (message.has("messageId")) {
-                response.addProperty("requestId", message.get("messageId").getAsString());
+        // コマンド実行（ワールドへの反映が終わってから応答する）
+        return commandExecutor.execute(action, params, createProgressListener(message, action), ticket)
+            .thenApplyAsync(commandResult -> createCommandResponse(message, action, commandResult), workers)
+            .exceptionally(e -> {
+                MinecraftEduMod.LOGGER.error("Command execution error", e);
+                return createError(message, "COMMAND_FAILED", e.getMessage());
+            });
+    }
+
+    private String createCommandResponse(JsonObject message, String action, CommandResult commandResult) {
+        boolean success = commandResult.isSuccess();
+
+        // レスポンス
+        JsonObject response = new JsonObject();
+        response.addProperty("version", "1.0");
+        response.addProperty("messageId", UUID.randomUUID().toString());
+        response.addProperty("timestamp", System.currentTimeMillis());
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("type", "command_response");
+
+        // 元のリクエストのmessageIdを含める
+        if (message.has("messageId")) {
+            response.addProperty("requestId", message.get("messageId").getAsString());
+        }
+
+        JsonObject responsePayload = new JsonObject();
+        responsePayload.addProperty("success", success);
+        responsePayload.addProperty("action", action);
+
+        if (success) {
+            // コマンド実行結果を取得
+            JsonObject result = commandResult.getData();
+            if (result.size() == 0) {
+                // 結果データがない場合はデフォルトメッセージ
+                result.addProperty("message", "Command executed successfully");
             }
+            responsePayload.add("result", result);
+        } else {
+            addFailure(responsePayload, commandResult, "COMMAND_FAILED", "Failed to execute command");
+        }
 
-            JsonObject responsePayload = new JsonObject();
-            responsePayload.addProperty("success", success);
-            responsePayload.addProperty("action", action);
+        response.add("payload", responsePayload);
+        return GSON.toJson(response);
+    }
 
-            if (success) {
-                // コマンド実行結果を取得
-                JsonObject result = commandExecutor.getLastResult();
-                if (result.size() == 0) {
-                    // 結果データがない場合はデフォルトメッセージ
-                    result.addProperty("message", "Command executed successfully");
-                }
-                responsePayload.add("result", result);
-            } else {
-                responsePayload.addProperty("errorCode", "COMMAND_FAILED");
-                responsePayload.addProperty("errorMessage", "Failed to execute command");
+    /**
+     * 複数ティックにわたる範囲編集の進捗をprogressメッセージで送る
+     */
+    private WorldEditJob.ProgressListener createProgressListener(JsonObject message, String action) {
+        return (processed, total) -> {
+            try {
+                // サーバースレッドから呼ばれるので、生成と送信はワーカーで行う
+                workers.execute(() -> session.send(createProgress(message, action, processed, total)));
+            } catch (RejectedExecutionException e) {
+                // サーバー停止中
             }
+        };
+    }
 
-            response.add("payload", responsePayload);
-            return gson.toJson(response);
+    private String createProgress(JsonObject message, String action, long processed, long total) {
+        JsonObject response = new JsonObject();
+        response.addProperty("version", "1.0");
+        response.addProperty("messageId", UUID.randomUUID().toString());
+        response.addProperty("timestamp", System.currentTimeMillis());
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("type", "progress");
+        addRequestId(response, message);
 
-        } catch (Exception e) {
-            MinecraftEduMod.LOGGER.error("Command execution error", e);
-            return createError("COMMAND_FAILED", e.getMessage());
-        }
+        JsonObject payload = new JsonObject();
+        payload.addProperty("action", action);
+        payload.addProperty("processed", processed);
+        payload.addProperty("total", total);
+        payload.addProperty("percent", total > 0 ? (int) (processed * 100 / total) : 100);
+        response.add("payload", payload);
+
+        return GSON.toJson(response);
     }
 
-    private String handleQuery(JsonObject message) {
+    private CompletableFuture<String> handleQuery(JsonObject message, RequestOrder.Ticket ticket) {
         JsonObject payload = message.getAsJsonObject("payload");
         String action = payload.get("action").getAsString();
         JsonObject params = payload.has("params") ? payload.getAsJsonObject("params") : new JsonObject();
 
-        MinecraftEduMod.LOGGER.info("Executing query: " + action);
+        MinecraftEduMod.LOGGER.debug("Executing query: {}", action);
 
-        try {
-            // クエリ実行（コマンドExecutorを使用）
-            boolean success = commandExecutor.execute(action, params);
-
-            // レスポンス
-            JsonObject response = new JsonObject();
-            response.addProperty("version", "1.0");
-            response.addProperty("messageId", UUID.randomUUID().toString());
-            response.addProperty("timestamp", System.currentTimeMillis());
-            response.addProperty("sessionId", sessionId);
-            response.addProperty("type", "query_response");
-
-            // 元のリクエストのmessageIdを含める
-            if (message.has("messageId")) {
-                response.addProperty("requestId", message.get("messageId").getAsString());
+        // クエリ実行（コマンドExecutorを使用）
+        return commandExecutor.execute(action, params, null, ticket)
+            .thenApplyAsync(commandResult -> createQueryResponse(message, action, commandResult), workers)
+            .exceptionally(e -> {
+                MinecraftEduMod.LOGGER.error("Query execution error", e);
+                return createError(message, "QUERY_FAILED", e.getMessage());
+            });
+    }
+
+    private String createQueryResponse(JsonObject message, String action, CommandResult commandResult) {
+        boolean success = commandResult.isSuccess();
+
+        // レスポンス
+        JsonObject response = new JsonObject();
+        response.addProperty("version", "1.0");
+        response.addProperty("messageId", UUID.randomUUID().toString());
+        response.addProperty("timestamp", System.currentTimeMillis());
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("type", "query_response");
+
+        // 元のリクエストのmessageIdを含める
+        if (message.has("messageId")) {
+            response.addProperty("requestId", message.get("messageId").getAsString());
+        }
+
+        JsonObject responsePayload = new JsonObject();
+        responsePayload.addProperty("success", success);
+        responsePayload.addProperty("action", action);
+
+        if (success) {
+            // クエリ実行結果を取得
+            JsonObject result = commandResult.getData();
+            if (result.size() == 0) {
+                // 結果データがない場合はデフォルトメッセージ
+                result.addProperty("message", "Query executed successfully");
             }
+            responsePayload.add("result", result);
+        } else {
+            addFailure(responsePayload, commandResult, "QUERY_FAILED", "Failed to execute query");
+        }
 
-            JsonObject responsePayload = new JsonObject();
-            responsePayload.addProperty("success", success);
-            responsePayload.addProperty("action", action);
+        response.add("payload", responsePayload);
+        return GSON.toJson(response);
+    }
 
-            if (success) {
-                // クエリ実行結果を取得
-                JsonObject result = commandExecutor.getLastResult();
-                if (result.size() == 0) {
-                    // 結果データがない場合はデフォルトメッセージ
-                    result.addProperty("message", "Query executed successfully");
+    /**
+     * 複数のcommand/queryを1回のサーバータスクで実行し、まとめて1つの応答を返す
+     */
+    private CompletableFuture<String> handleBatch(JsonObject message, RequestOrder.Ticket ticket) {
+        JsonObject payload = message.getAsJsonObject("payload");
+        JsonArray items = payload.getAsJsonArray("items");
+
+        if (items.size() > MAX_BATCH_SIZE) {
+            return CompletableFuture.completedFuture(createError(message, "INVALID_PARAMS",
+                "Batch too large: " + items.size() + " items (max: " + MAX_BATCH_SIZE + ")"));
+        }
+
+        List<String> actions = new ArrayList<>(items.size());
+        List<JsonObject> paramsList = new ArrayList<>(items.size());
+        for (JsonElement element : items) {
+            JsonObject item = element.getAsJsonObject();
+            actions.add(item.get("action").getAsString());
+            JsonObject params = item.has("params") ? item.getAsJsonObject("params") : new JsonObject();
+            // バッチ全体の編集モードは、項目で指定していなければその項目にも使う
+            for (String mode : EDIT_MODES) {
+                if (payload.has(mode) && !params.has(mode)) {
+                    params.add(mode, payload.get(mode));
                 }
-                responsePayload.add("result", result);
-            } else {
-                responsePayload.addProperty("errorCode", "QUERY_FAILED");
-                responsePayload.addProperty("errorMessage", "Failed to execute query");
             }
+            paramsList.add(params);
+        }
 
-            response.add("payload", responsePayload);
-            return gson.toJson(response);
+        MinecraftEduMod.LOGGER.debug("Executing batch: {} items", actions.size());
 
-        } catch (Exception e) {
-            MinecraftEduMod.LOGGER.error("Query execution error", e);
-            return createError("QUERY_FAILED", e.getMessage());
+        return commandExecutor.executeBatch(actions, paramsList, ticket)
+            .thenApplyAsync(results -> createBatchResponse(message, actions, results), workers)
+            .exceptionally(e -> {
+                MinecraftEduMod.LOGGER.error("Batch execution error", e);
+                return createError(message, "COMMAND_FAILED", e.getMessage());
+            });
+    }
+
+    private String createBatchResponse(JsonObject message, List<String> actions, List<CommandResult> results) {
+        // レスポンス
+        JsonObject response = new JsonObject();
+        response.addProperty("version", "1.0");
+        response.addProperty("messageId", UUID.randomUUID().toString());
+        response.addProperty("timestamp", System.currentTimeMillis());
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("type", "batch_response");
+        addRequestId(response, message);
+
+        int succeeded = 0;
+        JsonArray resultArray = new JsonArray();
+        for (int i = 0; i < results.size(); i++) {
+            CommandResult commandResult = results.get(i);
+            JsonObject item = new JsonObject();
+            item.addProperty("success", commandResult.isSuccess());
+            item.addProperty("action", actions.get(i));
+            if (commandResult.isSuccess()) {
+                succeeded++;
+                item.add("result", commandResult.getData());
+            } else {
+                item.addProperty("errorCode", commandResult.getErrorCode() != null ? commandResult.getErrorCode() : "COMMAND_FAILED");
+            }
+            resultArray.add(item);
         }
+
+        JsonObject responsePayload = new JsonObject();
+        responsePayload.addProperty("success", succeeded == results.size());
+        responsePayload.addProperty("count", results.size());
+        responsePayload.addProperty("succeeded", succeeded);
+        responsePayload.add("results", resultArray);
+        response.add("payload", responsePayload);
+
+        return GSON.toJson(response);
     }
 
-    private String handleHeartbeat() {
+    private String handleHeartbeat(JsonObject message) {
         JsonObject response = new JsonObject();
         response.addProperty("version", "1.0");
         response.addProperty("messageId", UUID.randomUUID().toString());
         response.addProperty("timestamp", System.currentTimeMillis());
         response.addProperty("sessionId", sessionId);
         response.addProperty("type", "heartbeat");
+        addRequestId(response, message);
 
         JsonObject payload = new JsonObject();
         payload.addProperty("serverTime", System.currentTimeMillis());
         response.add("payload", payload);
 
-        return gson.toJson(response);
+        return GSON.toJson(response);
     }
 
-    private String createError(String errorCode, String errorMessage) {
+    /**
+     * エラー応答を生成する（元のメッセージが分かればrequestIdを付ける）
+     */
+    private String createError(JsonObject message, String errorCode, String errorMessage) {
         JsonObject response = new JsonObject();
         response.addProperty("version", "1.0");
         response.addProperty("messageId", UUID.randomUUID().toString());
         response.addProperty("timestamp", System.currentTimeMillis());
         response.addProperty("sessionId", sessionId);
         response.addProperty("type", "error");
+        addRequestId(response, message);
 
         JsonObject payload = new JsonObject();
         payload.addProperty("errorCode", errorCode);
         payload.addProperty("errorMessage", errorMessage);
         response.add("payload", payload);
 
-        return gson.toJson(response);
+        return GSON.toJson(response);
+    }
+
+    /**
+     * 失敗の応答にエラーコードを設定する（実行側の理由が分かればそちらを使う）
+     */
+    private static void addFailure(JsonObject payload, CommandResult commandResult, String defaultCode, String defaultMessage) {
+        if ("SERVER_BUSY".equals(commandResult.getErrorCode())) {
+            payload.addProperty("errorCode", "SERVER_BUSY");
+            payload.addProperty("errorMessage", "Server is busy, try again later");
+        } else if ("INVALID_PARAMS".equals(commandResult.getErrorCode())) {
+            payload.addProperty("errorCode", "INVALID_PARAMS");
+            payload.addProperty("errorMessage", "Invalid parameters");
+        } else {
+            payload.addProperty("errorCode", defaultCode);
+            payload.addProperty("errorMessage", defaultMessage);
+        }
+    }
+
+    private static void addRequestId(JsonObject response, JsonObject message) {
+        if (message != null && message.has("messageId")) {
+            response.addProperty("requestId", message.get("messageId").getAsString());
+        }
     }
 }
@@ -0,0 +1,185 @@
+package com.github.minecraftedu.network;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * NettyベースのWebSocketサーバー
+ *
+ * RFC 6455の処理（ハンドシェイク、断片化、ping/pong、close）は
+ * WebSocketServerProtocolHandlerに任せ、テキスト/バイナリフレームだけを
+ * セッションへ渡す。
+ * Linuxではepoll、それ以外ではNIOのイベントループを使う。
+ */
+public class NettyWebSocketServer implements WebSocketTransport {
+
+    private final int port;
+    private final SessionRegistry sessionRegistry;
+    private final WebSocketOptions options;
+    private final int eventLoopThreads;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    public NettyWebSocketServer(int port, SessionRegistry sessionRegistry, WebSocketOptions options, int eventLoopThreads) {
+        this.port = port;
+        this.sessionRegistry = sessionRegistry;
+        this.options = options;
+        this.eventLoopThreads = Math.max(1, eventLoopThreads);
+    }
+
+    @Override
+    public void start() throws IOException {
+        boolean epoll = Epoll.isAvailable();
+        Class<? extends ServerChannel> channelClass;
+
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(1, new DefaultThreadFactory("MinecraftEdu-Netty-Boss", true));
+            workerGroup = new EpollEventLoopGroup(eventLoopThreads, new DefaultThreadFactory("MinecraftEdu-Netty", true));
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("MinecraftEdu-Netty-Boss", true));
+            workerGroup = new NioEventLoopGroup(eventLoopThreads, new DefaultThreadFactory("MinecraftEdu-Netty", true));
+            channelClass = NioServerSocketChannel.class;
+        }
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+            .group(bossGroup, workerGroup)
+            .channel(channelClass)
+            .childOption(ChannelOption.TCP_NODELAY, true)
+            .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel channel) {
+                    MinecraftEduMod.LOGGER.info("Client connected: " + channel.remoteAddress());
+                    int maxMessageBytes = options.getMaxMessageBytes();
+                    channel.pipeline()
+                        .addLast(new HttpServerCodec())
+                        .addLast(new HttpObjectAggregator(WebSocketHandshake.MAX_REQUEST_BYTES));
+                    if (options.isCompression()) {
+                        // permessage-deflate（Nettyの実装は閾値を持たず、合意すれば全メッセージを圧縮する）
+                        channel.pipeline().addLast(new WebSocketServerCompressionHandler());
+                    }
+                    channel.pipeline()
+                        // パスは前方一致（"/" と "/minecraft" の両方を受け付ける）
+                        .addLast(new WebSocketServerProtocolHandler("/", null, true, maxMessageBytes, false, true))
+                        .addLast(new WebSocketFrameAggregator(maxMessageBytes))
+                        .addLast(new FrameHandler());
+                }
+            });
+
+        try {
+            serverChannel = bootstrap.bind(port).sync().channel();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+            throw new IOException("Interrupted while binding port " + port, e);
+        } catch (Exception e) {
+            stop();
+            throw new IOException("Failed to bind port " + port, e);
+        }
+
+        MinecraftEduMod.LOGGER.info("Netty WebSocket server started on port " + port + " (" + (epoll ? "epoll" : "nio") + ", " + eventLoopThreads + " event loop(s))");
+    }
+
+    @Override
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+        }
+        MinecraftEduMod.LOGGER.info("WebSocket server stopped");
+    }
+
+    /**
+     * 接続ごとに生成されるデータフレームのハンドラー
+     */
+    private final class FrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> implements MessageSink {
+        private volatile Channel channel;
+        private ClientSession session;
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+            if (event instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+                MinecraftEduMod.LOGGER.info("WebSocket handshake completed");
+                channel = ctx.channel();
+                session = sessionRegistry.open(this, String.valueOf(channel.remoteAddress()));
+            }
+            super.userEventTriggered(ctx, event);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            if (frame instanceof TextWebSocketFrame) {
+                String message = ((TextWebSocketFrame) frame).text();
+                MinecraftEduMod.LOGGER.debug("Received WebSocket message: {}", message);
+                session.onTextMessage(message);
+            } else if (frame instanceof BinaryWebSocketFrame) {
+                // フレームはこのメソッドの後で解放されるので、解析はonBinaryMessage内で終わらせる
+                session.onBinaryMessage(frame.content().nioBuffer());
+            }
+        }
+
+        @Override
+        public void sendText(String message) {
+            // プールされたバッファへ直接UTF-8で書き込む
+            channel.writeAndFlush(new TextWebSocketFrame(ByteBufUtil.writeUtf8(channel.alloc(), message)));
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer message) {
+            channel.writeAndFlush(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(message)));
+        }
+
+        @Override
+        public void close() {
+            channel.close();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            sessionRegistry.close(session);
+            MinecraftEduMod.LOGGER.info("Client disconnected");
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            MinecraftEduMod.LOGGER.error("Error handling client", cause);
+            ctx.close();
+        }
+    }
+}
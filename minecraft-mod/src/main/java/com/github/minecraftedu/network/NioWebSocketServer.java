@@ -0,0 +1,435 @@
+package com.github.minecraftedu.network;
+
+import com.github.minecraftedu.MinecraftEduMod;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selectorベースのノンブロッキング WebSocketサーバー
+ *
+ * 少数のイベントループスレッドで全接続を処理するため、
+ * 接続数が増えてもスレッド数は一定のまま。
+ * 受け付けは1番目のイベントループが担当し、各接続はラウンドロビンで割り当てる。
+ */
+public class NioWebSocketServer implements WebSocketTransport {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final int port;
+    private final SessionRegistry sessionRegistry;
+    private final WebSocketOptions options;
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    public NioWebSocketServer(int port, SessionRegistry sessionRegistry, WebSocketOptions options, int eventLoopThreads) {
+        this.port = port;
+        this.sessionRegistry = sessionRegistry;
+        this.options = options;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoopThreads)];
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+        }
+        serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        for (EventLoop loop : eventLoops) {
+            loop.thread.start();
+        }
+
+        MinecraftEduMod.LOGGER.info("NIO WebSocket server started on port " + port + " with " + eventLoops.length + " event loop(s)");
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            MinecraftEduMod.LOGGER.error("Error stopping server", e);
+        }
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        MinecraftEduMod.LOGGER.info("WebSocket server stopped");
+    }
+
+    private void acceptClients() throws IOException {
+        SocketChannel client;
+        while ((client = serverChannel.accept()) != null) {
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            MinecraftEduMod.LOGGER.info("Client connected: " + client.getRemoteAddress());
+
+            EventLoop loop = eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+            SocketChannel accepted = client;
+            loop.execute(() -> loop.register(accepted));
+        }
+    }
+
+    /**
+     * 1つのSelectorと、それを回すスレッド
+     * 接続の状態はすべてこのスレッドからのみ触る
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "MinecraftEdu-WebSocket-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(this, channel, key));
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.error("Error registering client", e);
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            acceptClients();
+                            continue;
+                        }
+
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (Exception e) {
+                            MinecraftEduMod.LOGGER.error("Error handling client", e);
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        MinecraftEduMod.LOGGER.error("Error in WebSocket event loop", e);
+                    }
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.error("Error closing selector", e);
+            }
+        }
+    }
+
+    /**
+     * 1つのクライアント接続
+     * sendText/close以外はイベントループのスレッドからのみ呼ばれる
+     */
+    private final class Connection implements MessageSink, WebSocketFrameDecoder.Listener {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ClientSession session;
+        // 送信待ちメッセージ（String = テキスト、ByteBuffer = バイナリ、ControlFrame = 制御フレーム）
+        private final Deque<Object> outbound = new ArrayDeque<>();
+        private final WebSocketFrameEncoder encoder = new WebSocketFrameEncoder(true);
+        private ByteBuffer handshakeResponse;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(options.getMaxMessageBytes());
+        private PerMessageDeflate deflate;
+        private boolean handshakeComplete = false;
+        private boolean closing = false;
+        private boolean closed = false;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                close();
+                return;
+            }
+
+            readBuffer.flip();
+            try {
+                if ((handshakeComplete || processHandshake()) && !closing && !closed) {
+                    decoder.decode(readBuffer, this);
+                }
+            } catch (WebSocketProtocolException e) {
+                MinecraftEduMod.LOGGER.warn("WebSocket protocol error: " + e.getMessage());
+                closing = true;
+                enqueue(new ControlFrame(0x8, WebSocketFrameDecoder.closePayload(e.getCloseCode())));
+            }
+            if (closing) {
+                // 閉じる途中は受信したデータを捨てて読み取りをやめる（読まないデータが残ると読み取り可能のまま回り続ける）
+                readBuffer.clear();
+                setInterest(key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0);
+                return;
+            }
+            readBuffer.compact();
+        }
+
+        private boolean processHandshake() throws IOException {
+            int start = readBuffer.position();
+            int end = WebSocketHandshake.findHeaderEnd(readBuffer.array(), start, readBuffer.remaining());
+            if (end == -1) {
+                if (readBuffer.remaining() >= WebSocketHandshake.MAX_REQUEST_BYTES) {
+                    MinecraftEduMod.LOGGER.warn("Handshake request too large");
+                    close();
+                }
+                return false;
+            }
+
+            String request = new String(readBuffer.array(), start, end - start - 4, StandardCharsets.ISO_8859_1);
+            readBuffer.position(end);
+
+            WebSocketHandshake handshake = WebSocketHandshake.parse(request);
+            if (handshake.getWebSocketKey() == null) {
+                MinecraftEduMod.LOGGER.warn("No WebSocket key found in headers");
+                close();
+                return false;
+            }
+
+            deflate = options.negotiateDeflate(handshake);
+            decoder.setDeflate(deflate);
+            encoder.setDeflate(deflate);
+            handshakeResponse = ByteBuffer.wrap(handshake.createResponse(deflate));
+            flush();
+            handshakeComplete = true;
+            MinecraftEduMod.LOGGER.info("WebSocket handshake completed" + (deflate != null ? " (permessage-deflate)" : ""));
+
+            String remoteAddress;
+            try {
+                remoteAddress = String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                remoteAddress = "unknown";
+            }
+            session = sessionRegistry.open(this, remoteAddress);
+            return true;
+        }
+
+        @Override
+        public void onTextMessage(String message) {
+            if (closing) {
+                return;
+            }
+            MinecraftEduMod.LOGGER.debug("Received WebSocket message: {}", message);
+            session.onTextMessage(message);
+        }
+
+        @Override
+        public void onBinaryMessage(ByteBuffer message) {
+            if (closing) {
+                return;
+            }
+            session.onBinaryMessage(message);
+        }
+
+        @Override
+        public void onPing(ByteBuffer payload) {
+            byte[] data = new byte[payload.remaining()];
+            payload.get(data);
+            enqueueQuietly(new ControlFrame(0xA, data));
+        }
+
+        @Override
+        public void onClose(int statusCode) {
+            if (closing) {
+                return;
+            }
+            MinecraftEduMod.LOGGER.info("Client requested close");
+            closing = true;
+            enqueueQuietly(new ControlFrame(0x8, WebSocketFrameDecoder.closePayload(statusCode)));
+        }
+
+        @Override
+        public void sendText(String message) {
+            // エンコードはイベントループ上で送信直前に行う
+            if (Thread.currentThread() == loop.thread) {
+                enqueueQuietly(message);
+            } else {
+                loop.execute(() -> enqueueQuietly(message));
+            }
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer message) {
+            if (Thread.currentThread() == loop.thread) {
+                enqueueQuietly(message);
+            } else {
+                loop.execute(() -> enqueueQuietly(message));
+            }
+        }
+
+        private void enqueueQuietly(Object message) {
+            try {
+                enqueue(message);
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.error("Error sending message", e);
+                close();
+            }
+        }
+
+        private void enqueue(Object message) throws IOException {
+            outbound.add(message);
+            flush();
+        }
+
+        void flush() throws IOException {
+            if (closed) {
+                outbound.clear();
+                return;
+            }
+
+            if (handshakeResponse != null) {
+                channel.write(handshakeResponse);
+                if (handshakeResponse.hasRemaining()) {
+                    setInterest(true);
+                    return;
+                }
+                handshakeResponse = null;
+            }
+
+            while (!encoder.isEmpty() || !outbound.isEmpty()) {
+                // 待ちメッセージをバッファに収まるだけまとめてエンコードする
+                if (encoder.isEmpty()) {
+                    while (!outbound.isEmpty() && encode(outbound.peek())) {
+                        outbound.poll();
+                    }
+                }
+
+                if (!encoder.writeTo(channel)) {
+                    // 送信バッファが一杯なので書き込み可能になるまで待つ
+                    setInterest(true);
+                    return;
+                }
+            }
+
+            if (closing) {
+                close();
+            } else {
+                setInterest(false);
+            }
+        }
+
+        /**
+         * 待つイベントを設定する（閉じる途中は読み取りを待たない）
+         */
+        private void setInterest(boolean write) {
+            if (key.isValid()) {
+                key.interestOps((closing ? 0 : SelectionKey.OP_READ) | (write ? SelectionKey.OP_WRITE : 0));
+            }
+        }
+
+        private boolean encode(Object message) {
+            if (message instanceof ControlFrame) {
+                ControlFrame frame = (ControlFrame) message;
+                return encoder.addFrame(frame.opcode, ByteBuffer.wrap(frame.payload));
+            }
+            if (message instanceof ByteBuffer) {
+                return encoder.addFrame(WebSocketFrameDecoder.OPCODE_BINARY, (ByteBuffer) message);
+            }
+            return encoder.addText((String) message);
+        }
+
+        @Override
+        public void close() {
+            if (Thread.currentThread() != loop.thread) {
+                loop.execute(this::close);
+                return;
+            }
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            closeQuietly(channel);
+            if (deflate != null) {
+                deflate.close();
+            }
+            sessionRegistry.close(session);
+            MinecraftEduMod.LOGGER.info("Client disconnected");
+        }
+    }
+
+    private static final class ControlFrame {
+        private final int opcode;
+        private final byte[] payload;
+
+        ControlFrame(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            MinecraftEduMod.LOGGER.error("Error closing client", e);
+        }
+    }
+}
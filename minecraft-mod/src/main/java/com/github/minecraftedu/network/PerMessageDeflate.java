@@ -0,0 +1,212 @@
+package com.github.minecraftedu.network;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate 拡張（RFC 7692）
+ *
+ * ハンドシェイクで合意した接続ごとに1つ生成する。
+ * 受信側（inflate）と送信側（deflate）は別スレッドから使われてもよいが、
+ * それぞれの側は直列に呼ばれる前提。切断時に必ずcloseでネイティブメモリを解放する。
+ */
+class PerMessageDeflate {
+
+    static final String EXTENSION_NAME = "permessage-deflate";
+
+    // 各メッセージの末尾から除去/補完する空のstored block
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int RETAINED_CAPACITY = 256 * 1024;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private final boolean serverNoContextTakeover;
+    private final boolean clientNoContextTakeover;
+    private final int threshold;
+
+    private ByteBuffer inflated = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private ByteBuffer deflated = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    private PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover, int threshold) {
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Sec-WebSocket-Extensionsヘッダーの申し出から受け入れ可能なものを選ぶ
+     * 受け入れられる申し出が無ければnull
+     *
+     * @param contextTakeover falseなら送信側の圧縮辞書をメッセージごとにリセットする
+     */
+    static PerMessageDeflate negotiate(String extensionsHeader, int threshold, boolean contextTakeover) {
+        if (extensionsHeader == null) {
+            return null;
+        }
+
+        for (String offer : extensionsHeader.split(",")) {
+            String[] params = offer.split(";");
+            if (!params[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+                continue;
+            }
+
+            boolean serverNoContextTakeover = !contextTakeover;
+            boolean clientNoContextTakeover = false;
+            boolean acceptable = true;
+
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().toLowerCase(Locale.ROOT);
+                String name = param;
+                String value = null;
+                int eq = param.indexOf('=');
+                if (eq >= 0) {
+                    name = param.substring(0, eq).trim();
+                    value = param.substring(eq + 1).trim().replace("\"", "");
+                }
+
+                switch (name) {
+                    case "server_no_context_takeover":
+                        serverNoContextTakeover = true;
+                        break;
+                    case "client_no_context_takeover":
+                        clientNoContextTakeover = true;
+                        break;
+                    case "server_max_window_bits":
+                        // java.util.zip.Deflaterはウィンドウサイズを指定できない
+                        if (!"15".equals(value)) {
+                            acceptable = false;
+                        }
+                        break;
+                    case "client_max_window_bits":
+                        // Inflaterはどのウィンドウサイズでも展開できる（応答には含めない）
+                        break;
+                    default:
+                        acceptable = false;
+                        break;
+                }
+            }
+
+            if (acceptable) {
+                return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover, threshold);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 101レスポンスのSec-WebSocket-Extensionsヘッダー値
+     */
+    String getResponseHeaderValue() {
+        StringBuilder value = new StringBuilder(EXTENSION_NAME);
+        if (serverNoContextTakeover) {
+            value.append("; server_no_context_takeover");
+        }
+        if (clientNoContextTakeover) {
+            value.append("; client_no_context_takeover");
+        }
+        return value.toString();
+    }
+
+    /**
+     * このサイズのメッセージを圧縮するか
+     */
+    boolean shouldCompress(int length) {
+        return length >= threshold;
+    }
+
+    /**
+     * 圧縮されたメッセージを展開する
+     * 戻り値のバッファは次の呼び出しまで有効
+     */
+    ByteBuffer inflate(ByteBuffer message, int maxMessageBytes) throws WebSocketProtocolException {
+        if (inflated.capacity() > RETAINED_CAPACITY) {
+            inflated = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        inflated.clear();
+
+        try {
+            inflateInput(message, maxMessageBytes);
+            inflateInput(ByteBuffer.wrap(TAIL), maxMessageBytes);
+        } catch (DataFormatException e) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.INVALID_PAYLOAD, "Invalid compressed data");
+        }
+
+        if (clientNoContextTakeover) {
+            inflater.reset();
+        }
+
+        inflated.flip();
+        return inflated;
+    }
+
+    private void inflateInput(ByteBuffer input, int maxMessageBytes) throws DataFormatException, WebSocketProtocolException {
+        inflater.setInput(input);
+        while (true) {
+            int count = inflater.inflate(inflated);
+            if (inflater.finished()) {
+                // BFINALのブロックで終わった場合は次のメッセージを新しいストリームとして扱う
+                inflater.reset();
+                return;
+            }
+            if (inflater.needsDictionary()) {
+                throw new DataFormatException("Preset dictionary is not supported");
+            }
+            if (inflated.hasRemaining()) {
+                if (inflater.needsInput() || count == 0) {
+                    return;
+                }
+                continue;
+            }
+
+            if (inflated.capacity() >= maxMessageBytes) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.MESSAGE_TOO_BIG,
+                    "Message exceeds " + maxMessageBytes + " bytes");
+            }
+            inflated = grow(inflated, Math.min((long) inflated.capacity() * 2, maxMessageBytes));
+        }
+    }
+
+    /**
+     * メッセージを圧縮する（末尾の 00 00 FF FF は除去済み）
+     * 戻り値のバッファは次の呼び出しまで有効
+     */
+    ByteBuffer deflate(ByteBuffer message) {
+        if (deflated.capacity() > RETAINED_CAPACITY) {
+            deflated = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        deflated.clear();
+
+        deflater.setInput(message);
+        while (true) {
+            deflater.deflate(deflated, Deflater.SYNC_FLUSH);
+            if (deflated.hasRemaining()) {
+                break;
+            }
+            deflated = grow(deflated, (long) deflated.capacity() * 2);
+        }
+
+        if (serverNoContextTakeover) {
+            deflater.reset();
+        }
+
+        deflated.flip();
+        deflated.limit(deflated.limit() - TAIL.length);
+        return deflated;
+    }
+
+    void close() {
+        deflater.end();
+        inflater.end();
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, long capacity) {
+        ByteBuffer larger = ByteBuffer.allocate((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.minecraftedu.network;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import com.github.minecraftedu.world.QueryBatcher;
+import com.github.minecraftedu.world.SnapshotStore;
+import com.github.minecraftedu.world.WorldEditScheduler;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 接続中のセッション一覧
+ *
+ * トランスポートはハンドシェイク完了時にopen、切断時にcloseを呼ぶ。
+ * 受信メッセージを処理するワーカースレッドは全セッションで共有する。
+ */
+public class SessionRegistry {
+
+    private final MinecraftServer minecraftServer;
+    private final WorldEditScheduler editScheduler;
+    private final QueryBatcher queryBatcher;
+    private final SnapshotStore snapshotStore;
+    private final Map<String, ClientSession> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final int maxInFlightRequests;
+
+    public SessionRegistry(MinecraftServer minecraftServer, WorldEditScheduler editScheduler, QueryBatcher queryBatcher,
+                           SnapshotStore snapshotStore, int workerThreads, int maxInFlightRequests) {
+        this.minecraftServer = minecraftServer;
+        this.editScheduler = editScheduler;
+        this.queryBatcher = queryBatcher;
+        this.snapshotStore = snapshotStore;
+        this.maxInFlightRequests = Math.max(1, maxInFlightRequests);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), runnable -> {
+            Thread thread = new Thread(runnable, "MinecraftEdu-Worker-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ClientSession open(MessageSink sink, String remoteAddress) {
+        ClientSession session = new ClientSession(this, sink, remoteAddress);
+        sessions.put(session.getSessionId(), session);
+        MinecraftEduMod.LOGGER.info("Session opened: " + session.getSessionId() + " (" + remoteAddress + ")");
+        return session;
+    }
+
+    public void close(ClientSession session) {
+        if (session == null || sessions.remove(session.getSessionId()) == null) {
+            return;
+        }
+        session.onClosed();
+
+        long duration = (System.currentTimeMillis() - session.getConnectedAt()) / 1000;
+        MinecraftEduMod.LOGGER.info("Session closed: " + session.getSessionId()
+            + " (received: " + session.getMessagesReceived()
+            + ", sent: " + session.getMessagesSent()
+            + ", duration: " + duration + "s)");
+    }
+
+    /**
+     * 全セッションを切断する（サーバー停止時）
+     */
+    public void closeAll() {
+        for (ClientSession session : new ArrayList<>(sessions.values())) {
+            session.disconnect();
+            close(session);
+        }
+        workers.shutdownNow();
+    }
+
+    public ClientSession get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public Collection<ClientSession> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public MinecraftServer getMinecraftServer() {
+        return minecraftServer;
+    }
+
+    public WorldEditScheduler getEditScheduler() {
+        return editScheduler;
+    }
+
+    public QueryBatcher getQueryBatcher() {
+        return queryBatcher;
+    }
+
+    public SnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    ExecutorService getWorkers() {
+        return workers;
+    }
+
+    int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+}
@@ -1,33 +1,33 @@
 package com.github.minecraftedu.network;
 
 import com.github.minecraftedu.MinecraftEduMod;
-import net.minecraft.server.MinecraftServer;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.util.Base64;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-public class SimpleWebSocketServer {
-    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+public class SimpleWebSocketServer implements WebSocketTransport {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
     private final int port;
-    private final MinecraftServer minecraftServer;
+    private final SessionRegistry sessionRegistry;
+    private final WebSocketOptions options;
     private ServerSocket serverSocket;
     private ExecutorService executor;
     private volatile boolean running = false;
 
-    public SimpleWebSocketServer(int port, MinecraftServer minecraftServer) {
+    public SimpleWebSocketServer(int port, SessionRegistry sessionRegistry, WebSocketOptions options) {
         this.port = port;
-        this.minecraftServer = minecraftServer;
+        this.sessionRegistry = sessionRegistry;
+        this.options = options;
         this.executor = Executors.newCachedThreadPool();
     }
 
+    @Override
     public void start() throws IOException {
         serverSocket = new ServerSocket(port);
         running = true;
@@ -50,99 +50,69 @@ public class SimpleWebSocketServer {
     }
 
     private void handleClient(Socket client) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        ClientSession session = null;
+        StreamSink sink = null;
+        try (InputStream in = client.getInputStream();
              OutputStream out = client.getOutputStream()) {
 
-            // Read HTTP headers
-            String line;
-            StringBuilder headers = new StringBuilder();
-            String webSocketKey = null;
-
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                headers.append(line).append("\r\n");
-                if (line.startsWith("Sec-WebSocket-Key:")) {
-                    webSocketKey = line.substring("Sec-WebSocket-Key:".length()).trim();
+            // Read HTTP headers (バイト単位で読み、ヘッダー以降のフレームを取りこぼさない)
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int length = 0;
+            int headerEnd = -1;
+            while (headerEnd == -1) {
+                if (length == WebSocketHandshake.MAX_REQUEST_BYTES) {
+                    MinecraftEduMod.LOGGER.warn("Handshake request too large");
+                    return;
+                }
+                int read = in.read(buffer, length, WebSocketHandshake.MAX_REQUEST_BYTES - length);
+                if (read == -1) {
+                    return;
                 }
+                length += read;
+                headerEnd = WebSocketHandshake.findHeaderEnd(buffer, 0, length);
             }
 
-            if (webSocketKey == null) {
+            WebSocketHandshake handshake = WebSocketHandshake.parse(
+                new String(buffer, 0, headerEnd - 4, StandardCharsets.ISO_8859_1));
+            if (handshake.getWebSocketKey() == null) {
                 MinecraftEduMod.LOGGER.warn("No WebSocket key found in headers");
-                client.close();
                 return;
             }
 
             // Perform WebSocket handshake
-            String acceptKey = generateAcceptKey(webSocketKey);
-            String response = "HTTP/1.1 101 Switching Protocols\r\n" +
-                    "Upgrade: websocket\r\n" +
-                    "Connection: Upgrade\r\n" +
-                    "Sec-WebSocket-Accept: " + acceptKey + "\r\n" +
-                    "\r\n";
-
-            out.write(response.getBytes(StandardCharsets.UTF_8));
+            PerMessageDeflate deflate = options.negotiateDeflate(handshake);
+            out.write(handshake.createResponse(deflate));
             out.flush();
 
-            MinecraftEduMod.LOGGER.info("WebSocket handshake completed");
+            MinecraftEduMod.LOGGER.info("WebSocket handshake completed" + (deflate != null ? " (permessage-deflate)" : ""));
+            sink = new StreamSink(client, out, deflate);
+            session = sessionRegistry.open(sink, String.valueOf(client.getRemoteSocketAddress()));
 
             // Handle WebSocket frames
-            InputStream in = client.getInputStream();
-            while (running && !client.isClosed()) {
-                // Read WebSocket frame
-                int firstByte = in.read();
-                if (firstByte == -1) break;
-
-                boolean fin = (firstByte & 0x80) != 0;
-                int opcode = firstByte & 0x0F;
-
-                int secondByte = in.read();
-                if (secondByte == -1) break;
-
-                boolean masked = (secondByte & 0x80) != 0;
-                int payloadLength = secondByte & 0x7F;
-
-                // Extended payload length
-                if (payloadLength == 126) {
-                    payloadLength = (in.read() << 8) | in.read();
-                } else if (payloadLength == 127) {
-                    payloadLength = 0;
-                    for (int i = 0; i < 8; i++) {
-                        payloadLength = (payloadLength << 8) | in.read();
-                    }
-                }
-
-                // Masking key
-                byte[] maskingKey = new byte[4];
-                if (masked) {
-                    in.read(maskingKey);
-                }
-
-                // Payload data
-                byte[] payload = new byte[payloadLength];
-                in.read(payload);
-
-                if (masked) {
-                    for (int i = 0; i < payload.length; i++) {
-                        payload[i] = (byte) (payload[i] ^ maskingKey[i % 4]);
-                    }
-                }
+            WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(options.getMaxMessageBytes());
+            decoder.setDeflate(deflate);
+            FrameListener listener = new FrameListener(session, sink);
+            try {
+                // ハンドシェイクと同じ読み込みで届いたフレーム
+                decoder.decode(ByteBuffer.wrap(buffer, headerEnd, length - headerEnd), listener);
 
-                // Handle message based on opcode
-                if (opcode == 0x1) { // Text frame
-                    String message = new String(payload, StandardCharsets.UTF_8);
-                    MinecraftEduMod.LOGGER.info("Received WebSocket message: " + message);
-                    handleWebSocketMessage(message, out);
-                } else if (opcode == 0x8) { // Close frame
-                    MinecraftEduMod.LOGGER.info("Client requested close");
-                    break;
-                } else if (opcode == 0x9) { // Ping frame
-                    // Send pong
-                    sendPong(out, payload);
+                while (running && !client.isClosed() && !listener.closeRequested) {
+                    int read = in.read(buffer);
+                    if (read == -1) break;
+                    decoder.decode(ByteBuffer.wrap(buffer, 0, read), listener);
                 }
+            } catch (WebSocketProtocolException e) {
+                MinecraftEduMod.LOGGER.warn("WebSocket protocol error: " + e.getMessage());
+                sink.sendControlFrame(0x8, WebSocketFrameDecoder.closePayload(e.getCloseCode()));
             }
 
         } catch (Exception e) {
             MinecraftEduMod.LOGGER.error("Error handling client", e);
         } finally {
+            sessionRegistry.close(session);
+            if (sink != null) {
+                sink.releaseDeflate();
+            }
             try {
                 client.close();
                 MinecraftEduMod.LOGGER.info("Client disconnected");
@@ -152,69 +122,112 @@ public class SimpleWebSocketServer {
         }
     }
 
-    private void handleWebSocketMessage(String message, OutputStream out) {
-        try {
-            // Parse JSON and delegate to handler
-            MinecraftWebSocketHandler handler = new MinecraftWebSocketHandler(minecraftServer);
-            String response = handler.handleMessage(message);
+    /**
+     * デコード済みメッセージの振り分け
+     */
+    private static final class FrameListener implements WebSocketFrameDecoder.Listener {
+        private final ClientSession session;
+        private final StreamSink sink;
+        private boolean closeRequested = false;
+
+        FrameListener(ClientSession session, StreamSink sink) {
+            this.session = session;
+            this.sink = sink;
+        }
 
-            if (response != null) {
-                sendTextFrame(out, response);
-            }
-        } catch (Exception e) {
-            MinecraftEduMod.LOGGER.error("Error handling message", e);
+        @Override
+        public void onTextMessage(String message) {
+            MinecraftEduMod.LOGGER.debug("Received WebSocket message: {}", message);
+            session.onTextMessage(message);
+        }
+
+        @Override
+        public void onBinaryMessage(ByteBuffer message) {
+            session.onBinaryMessage(message);
+        }
+
+        @Override
+        public void onPing(ByteBuffer payload) {
+            byte[] data = new byte[payload.remaining()];
+            payload.get(data);
+            sink.sendControlFrame(0xA, data);
+        }
+
+        @Override
+        public void onClose(int statusCode) {
+            MinecraftEduMod.LOGGER.info("Client requested close");
+            closeRequested = true;
+            sink.sendControlFrame(0x8, WebSocketFrameDecoder.closePayload(statusCode));
         }
     }
 
-    private void sendTextFrame(OutputStream out, String text) throws IOException {
-        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
-        ByteArrayOutputStream frame = new ByteArrayOutputStream();
-
-        // First byte: FIN + opcode (0x1 for text)
-        frame.write(0x81);
-
-        // Second byte: payload length (no mask for server-to-client)
-        if (payload.length < 126) {
-            frame.write(payload.length);
-        } else if (payload.length < 65536) {
-            frame.write(126);
-            frame.write((payload.length >> 8) & 0xFF);
-            frame.write(payload.length & 0xFF);
-        } else {
-            frame.write(127);
-            for (int i = 7; i >= 0; i--) {
-                frame.write((int) ((payload.length >> (i * 8)) & 0xFF));
+    /**
+     * ソケットへの送信口（書き込みは接続単位で直列化する）
+     */
+    private static final class StreamSink implements MessageSink {
+        private final Socket client;
+        private final OutputStream out;
+        private final WebSocketFrameEncoder encoder = new WebSocketFrameEncoder(false);
+        private PerMessageDeflate deflate;
+
+        StreamSink(Socket client, OutputStream out, PerMessageDeflate deflate) {
+            this.client = client;
+            this.out = out;
+            this.deflate = deflate;
+            encoder.setDeflate(deflate);
+        }
+
+        @Override
+        public synchronized void sendText(String message) {
+            try {
+                encoder.addText(message);
+                encoder.writeTo(out);
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.error("Error sending message", e);
             }
         }
 
-        // Payload
-        frame.write(payload);
+        @Override
+        public synchronized void sendBinary(ByteBuffer message) {
+            try {
+                encoder.addFrame(WebSocketFrameDecoder.OPCODE_BINARY, message);
+                encoder.writeTo(out);
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.error("Error sending message", e);
+            }
+        }
 
-        out.write(frame.toByteArray());
-        out.flush();
-    }
+        synchronized void sendControlFrame(int opcode, byte[] payload) {
+            try {
+                encoder.addFrame(opcode, ByteBuffer.wrap(payload));
+                encoder.writeTo(out);
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.error("Error sending control frame", e);
+            }
+        }
 
-    private void sendPong(OutputStream out, byte[] payload) throws IOException {
-        ByteArrayOutputStream frame = new ByteArrayOutputStream();
-        frame.write(0x8A); // FIN + opcode 0xA (pong)
-        frame.write(payload.length);
-        frame.write(payload);
-        out.write(frame.toByteArray());
-        out.flush();
-    }
+        /**
+         * 圧縮用のネイティブメモリを解放する（以降の送信は非圧縮になる）
+         */
+        synchronized void releaseDeflate() {
+            if (deflate != null) {
+                encoder.setDeflate(null);
+                deflate.close();
+                deflate = null;
+            }
+        }
 
-    private String generateAcceptKey(String webSocketKey) {
-        try {
-            String combined = webSocketKey + WEBSOCKET_GUID;
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] hash = md.digest(combined.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(hash);
-        } catch (Exception e) {
-            MinecraftEduMod.LOGGER.error("Error generating accept key", e);
-            return "";
+        @Override
+        public void close() {
+            try {
+                client.close();
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.error("Error closing client", e);
+            }
         }
     }
 
+    @Override
     public void stop() {
         running = false;
         try {
@@ -0,0 +1,294 @@
+package com.github.minecraftedu.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RFC 6455 フレームのインクリメンタルデコーダー
+ *
+ * 受信したバイト列を任意の区切りで渡してよい。ヘッダーやペイロードが
+ * 途中で切れていても状態を保持し、次のdecode呼び出しで続きから処理する。
+ * 断片化されたメッセージ（opcode 0x0の継続フレーム）は1つのメッセージへ
+ * 再構築され、最大サイズを超えた時点で1009として拒否される。
+ * permessage-deflateが合意済みなら、RSV1付きのメッセージを完成時に展開する。
+ * バッファは接続の間使い回す。1接続につき1インスタンスで、スレッドセーフではない。
+ */
+class WebSocketFrameDecoder {
+
+    /**
+     * デコード結果の受け取り先
+     */
+    interface Listener {
+        void onTextMessage(String message);
+
+        void onBinaryMessage(ByteBuffer message);
+
+        void onPing(ByteBuffer payload);
+
+        void onClose(int statusCode);
+    }
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    /** Closeフレームにステータスコードが無い場合 */
+    static final int STATUS_NO_CODE = 1005;
+
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+    private static final int INITIAL_MESSAGE_CAPACITY = 4096;
+    // これより大きく伸びたメッセージバッファはメッセージ完了後に解放する
+    private static final int RETAINED_MESSAGE_CAPACITY = 256 * 1024;
+
+    private final int maxMessageBytes;
+    private PerMessageDeflate deflate;
+    private final CharsetDecoder utf8Decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    // ヘッダー（最大 2 + 8 + 4 バイト）
+    private final byte[] header = new byte[14];
+    private int headerLength = 0;
+    private int headerNeeded = 2;
+
+    // 現在のフレーム
+    private boolean readingPayload = false;
+    private boolean fin;
+    private int opcode;
+    private final byte[] maskingKey = new byte[4];
+    private int maskIndex;
+    private long payloadRemaining;
+
+    // 再構築中のメッセージ（opcode 0 = メッセージなし）
+    private int messageOpcode = 0;
+    private boolean messageCompressed = false;
+    private ByteBuffer messageBuffer = ByteBuffer.allocate(INITIAL_MESSAGE_CAPACITY);
+    private final ByteBuffer controlBuffer = ByteBuffer.allocate(MAX_CONTROL_PAYLOAD);
+
+    WebSocketFrameDecoder(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * ハンドシェイクでpermessage-deflateを合意した場合に設定する
+     */
+    void setDeflate(PerMessageDeflate deflate) {
+        this.deflate = deflate;
+    }
+
+    /**
+     * inの残りバイトをすべて消費し、完成したメッセージをlistenerへ渡す
+     */
+    void decode(ByteBuffer in, Listener listener) throws WebSocketProtocolException {
+        while (in.hasRemaining()) {
+            if (!readingPayload) {
+                while (headerLength < headerNeeded && in.hasRemaining()) {
+                    header[headerLength++] = in.get();
+                    if (headerLength == 2) {
+                        headerNeeded = 2 + extendedLengthSize() + 4;
+                    }
+                }
+                if (headerLength < headerNeeded) {
+                    return;
+                }
+                beginFrame();
+                if (payloadRemaining == 0) {
+                    endFrame(listener);
+                }
+                continue;
+            }
+
+            ByteBuffer target = isControl(opcode) ? controlBuffer : messageBuffer;
+            int count = (int) Math.min(in.remaining(), payloadRemaining);
+            unmask(in, target, count);
+            payloadRemaining -= count;
+
+            if (payloadRemaining == 0) {
+                endFrame(listener);
+            }
+        }
+    }
+
+    private int extendedLengthSize() {
+        int length = header[1] & 0x7F;
+        return length == 126 ? 2 : length == 127 ? 8 : 0;
+    }
+
+    /**
+     * ヘッダーが揃った時点で検証し、ペイロードの受け入れ先を準備する
+     */
+    private void beginFrame() throws WebSocketProtocolException {
+        int firstByte = header[0] & 0xFF;
+        int secondByte = header[1] & 0xFF;
+
+        fin = (firstByte & 0x80) != 0;
+        opcode = firstByte & 0x0F;
+
+        // RSV1はpermessage-deflateのメッセージ先頭フレームでのみ許可
+        boolean rsv1 = (firstByte & 0x40) != 0;
+        if ((firstByte & 0x30) != 0 || (rsv1 && (deflate == null || isControl(opcode) || opcode == OPCODE_CONTINUATION))) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Reserved bits set without a negotiated extension");
+        }
+        if ((secondByte & 0x80) == 0) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Client frames must be masked");
+        }
+
+        // Payload length
+        int length = secondByte & 0x7F;
+        int offset = 2;
+        long payloadLength;
+        if (length == 126) {
+            payloadLength = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            offset = 4;
+        } else if (length == 127) {
+            payloadLength = 0;
+            for (int i = 0; i < 8; i++) {
+                payloadLength = (payloadLength << 8) | (header[2 + i] & 0xFF);
+            }
+            offset = 10;
+            if (payloadLength < 0) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Invalid payload length");
+            }
+        } else {
+            payloadLength = length;
+        }
+        System.arraycopy(header, offset, maskingKey, 0, 4);
+
+        if (isControl(opcode)) {
+            if (opcode != OPCODE_CLOSE && opcode != OPCODE_PING && opcode != OPCODE_PONG) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Unknown opcode: " + opcode);
+            }
+            if (!fin || payloadLength > MAX_CONTROL_PAYLOAD) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Invalid control frame");
+            }
+            controlBuffer.clear();
+        } else {
+            if (opcode == OPCODE_CONTINUATION) {
+                if (messageOpcode == 0) {
+                    throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Continuation frame without a message");
+                }
+            } else if (opcode == OPCODE_TEXT || opcode == OPCODE_BINARY) {
+                if (messageOpcode != 0) {
+                    throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "New message before previous one finished");
+                }
+                messageOpcode = opcode;
+                messageCompressed = rsv1;
+            } else {
+                throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Unknown opcode: " + opcode);
+            }
+
+            long messageLength = messageBuffer.position() + payloadLength;
+            if (messageLength > maxMessageBytes) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.MESSAGE_TOO_BIG,
+                    "Message exceeds " + maxMessageBytes + " bytes");
+            }
+            ensureMessageCapacity((int) messageLength);
+        }
+
+        payloadRemaining = payloadLength;
+        maskIndex = 0;
+        readingPayload = true;
+    }
+
+    private void endFrame(Listener listener) throws WebSocketProtocolException {
+        readingPayload = false;
+        headerLength = 0;
+        headerNeeded = 2;
+
+        if (isControl(opcode)) {
+            controlBuffer.flip();
+            if (opcode == OPCODE_CLOSE) {
+                int statusCode = controlBuffer.remaining() >= 2 ? controlBuffer.getShort() & 0xFFFF : STATUS_NO_CODE;
+                listener.onClose(statusCode);
+            } else if (opcode == OPCODE_PING) {
+                listener.onPing(controlBuffer);
+            }
+            return;
+        }
+
+        if (!fin) {
+            return;
+        }
+
+        // メッセージ完成
+        messageBuffer.flip();
+        try {
+            ByteBuffer payload = messageCompressed ? deflate.inflate(messageBuffer, maxMessageBytes) : messageBuffer;
+            if (messageOpcode == OPCODE_TEXT) {
+                String message;
+                try {
+                    message = utf8Decoder.reset().decode(payload).toString();
+                } catch (CharacterCodingException e) {
+                    throw new WebSocketProtocolException(WebSocketProtocolException.INVALID_PAYLOAD, "Invalid UTF-8 in text message");
+                }
+                listener.onTextMessage(message);
+            } else {
+                listener.onBinaryMessage(payload);
+            }
+        } finally {
+            messageOpcode = 0;
+            messageCompressed = false;
+            if (messageBuffer.capacity() > RETAINED_MESSAGE_CAPACITY) {
+                messageBuffer = ByteBuffer.allocate(INITIAL_MESSAGE_CAPACITY);
+            } else {
+                messageBuffer.clear();
+            }
+        }
+    }
+
+    private void ensureMessageCapacity(int required) {
+        if (messageBuffer.capacity() >= required) {
+            return;
+        }
+        int capacity = messageBuffer.capacity();
+        while (capacity < required) {
+            capacity = (int) Math.min((long) capacity * 2, maxMessageBytes);
+        }
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        messageBuffer.flip();
+        larger.put(messageBuffer);
+        messageBuffer = larger;
+    }
+
+    /**
+     * マスクを外しながらcountバイトをコピーする
+     */
+    private void unmask(ByteBuffer in, ByteBuffer target, int count) {
+        if (in.hasArray() && target.hasArray()) {
+            byte[] src = in.array();
+            int srcPos = in.arrayOffset() + in.position();
+            byte[] dst = target.array();
+            int dstPos = target.arrayOffset() + target.position();
+            for (int i = 0; i < count; i++) {
+                dst[dstPos + i] = (byte) (src[srcPos + i] ^ maskingKey[(maskIndex + i) & 3]);
+            }
+            in.position(in.position() + count);
+            target.position(target.position() + count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                target.put((byte) (in.get() ^ maskingKey[(maskIndex + i) & 3]));
+            }
+        }
+        maskIndex = (maskIndex + count) & 3;
+    }
+
+    private static boolean isControl(int opcode) {
+        return (opcode & 0x08) != 0;
+    }
+
+    /**
+     * Closeフレームのペイロード（ステータスコードのみ）
+     */
+    static byte[] closePayload(int statusCode) {
+        if (statusCode == STATUS_NO_CODE) {
+            return new byte[0];
+        }
+        return new byte[] {(byte) (statusCode >> 8), (byte) statusCode};
+    }
+}
@@ -0,0 +1,215 @@
+package com.github.minecraftedu.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * サーバー→クライアント方向のフレームエンコーダー
+ *
+ * 文字列をUTF-8で再利用バッファへ直接書き込み、ヘッダーはペイロードの直前に
+ * 後から書き込む（中間のbyte[]やByteArrayOutputStreamを作らない）。
+ * 複数のフレームを1つのバッファにまとめておき、ギャザリング書き込みで一度に送る。
+ * permessage-deflate合意時は、書き込んだペイロードをその場で圧縮して置き換える。
+ * 1接続につき1インスタンスで、スレッドセーフではない。
+ */
+class WebSocketFrameEncoder {
+
+    private static final int MAX_HEADER_LENGTH = 10;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int MAX_BATCHED_FRAMES = 64;
+
+    private final boolean direct;
+    private final CharsetEncoder utf8Encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private ByteBuffer buffer;
+    // フレームごとの [ヘッダー + ペイロード] 範囲（buffer内の位置）
+    private ByteBuffer[] frames = new ByteBuffer[MAX_BATCHED_FRAMES];
+    private int frameCount = 0;
+    private int firstUnwritten = 0;
+    private PerMessageDeflate deflate;
+
+    WebSocketFrameEncoder(boolean direct) {
+        this.direct = direct;
+        this.buffer = allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * ハンドシェイクでpermessage-deflateを合意した場合に設定する
+     * 閾値以上のテキスト/バイナリフレームを圧縮する（制御フレームは圧縮しない）
+     */
+    void setDeflate(PerMessageDeflate deflate) {
+        this.deflate = deflate;
+    }
+
+    /**
+     * テキストフレームを追加する
+     * バッチが満杯の場合はfalse（先にwriteToで送信してから再度呼ぶ）
+     */
+    boolean addText(CharSequence text) {
+        return add(WebSocketFrameDecoder.OPCODE_TEXT, text, null);
+    }
+
+    /**
+     * バイナリ/制御フレームを追加する
+     */
+    boolean addFrame(int opcode, ByteBuffer payload) {
+        return add(opcode, null, payload);
+    }
+
+    private boolean add(int opcode, CharSequence text, ByteBuffer payload) {
+        if (frameCount == frames.length) {
+            return false;
+        }
+
+        int start = buffer.position();
+        int payloadStart = start + MAX_HEADER_LENGTH;
+
+        while (buffer.capacity() < payloadStart || !writePayload(payloadStart, text, payload)) {
+            // 収まらない: 新しいバッファへ切り替える（まとめ済みのフレームは古いバッファを参照し続ける）
+            buffer.position(start);
+            int required = text != null
+                ? MAX_HEADER_LENGTH + (int) Math.min(Integer.MAX_VALUE - MAX_HEADER_LENGTH, (long) text.length() * 3)
+                : MAX_HEADER_LENGTH + payload.remaining();
+            buffer = allocate(Math.max(INITIAL_CAPACITY, Math.max(frameCount == 0 ? buffer.capacity() * 2 : 0, required)));
+            start = 0;
+            payloadStart = MAX_HEADER_LENGTH;
+        }
+
+        int payloadLength = buffer.position() - payloadStart;
+        boolean compressed = false;
+        if (deflate != null && opcode < 0x08 && deflate.shouldCompress(payloadLength)) {
+            payloadStart = compress(payloadStart, payloadLength);
+            payloadLength = buffer.position() - payloadStart;
+            compressed = true;
+        }
+
+        int headerLength = payloadLength < 126 ? 2 : payloadLength < 65536 ? 4 : 10;
+        int headerStart = payloadStart - headerLength;
+
+        // FIN + RSV1（圧縮時） + opcode
+        buffer.put(headerStart, (byte) (0x80 | (compressed ? 0x40 : 0) | opcode));
+
+        // Payload length (no mask for server-to-client)
+        if (payloadLength < 126) {
+            buffer.put(headerStart + 1, (byte) payloadLength);
+        } else if (payloadLength < 65536) {
+            buffer.put(headerStart + 1, (byte) 126);
+            buffer.putShort(headerStart + 2, (short) payloadLength);
+        } else {
+            buffer.put(headerStart + 1, (byte) 127);
+            buffer.putLong(headerStart + 2, payloadLength);
+        }
+
+        ByteBuffer frame = buffer.duplicate();
+        frame.limit(buffer.position()).position(headerStart);
+        frames[frameCount++] = frame;
+        return true;
+    }
+
+    /**
+     * 書き込み済みのペイロードを圧縮して置き換え、新しいペイロード開始位置を返す
+     * 圧縮結果は元の位置に上書きする（元より大きくなった場合だけ別バッファへ移す）
+     */
+    private int compress(int payloadStart, int payloadLength) {
+        ByteBuffer plain = buffer.duplicate();
+        plain.limit(payloadStart + payloadLength).position(payloadStart);
+        ByteBuffer deflated = deflate.deflate(plain);
+
+        if (deflated.remaining() <= payloadLength) {
+            buffer.position(payloadStart);
+            buffer.put(deflated);
+            return payloadStart;
+        }
+
+        buffer.position(payloadStart - MAX_HEADER_LENGTH);
+        buffer = allocate(Math.max(INITIAL_CAPACITY, MAX_HEADER_LENGTH + deflated.remaining()));
+        buffer.position(MAX_HEADER_LENGTH);
+        buffer.put(deflated);
+        return MAX_HEADER_LENGTH;
+    }
+
+    private boolean writePayload(int payloadStart, CharSequence text, ByteBuffer payload) {
+        buffer.limit(buffer.capacity()).position(payloadStart);
+
+        if (payload != null) {
+            if (buffer.remaining() < payload.remaining()) {
+                return false;
+            }
+            buffer.put(payload.duplicate());
+            return true;
+        }
+
+        utf8Encoder.reset();
+        CoderResult result = utf8Encoder.encode(CharBuffer.wrap(text), buffer, true);
+        if (result.isOverflow()) {
+            return false;
+        }
+        return !utf8Encoder.flush(buffer).isOverflow();
+    }
+
+    boolean isEmpty() {
+        return firstUnwritten == frameCount;
+    }
+
+    /**
+     * まとめたフレームをギャザリング書き込みで送る
+     * 全て送れたらtrue（バッファは次のバッチに再利用される）
+     */
+    boolean writeTo(GatheringByteChannel channel) throws IOException {
+        while (firstUnwritten < frameCount) {
+            channel.write(frames, firstUnwritten, frameCount - firstUnwritten);
+            while (firstUnwritten < frameCount && !frames[firstUnwritten].hasRemaining()) {
+                firstUnwritten++;
+            }
+            if (firstUnwritten < frameCount) {
+                return false;
+            }
+        }
+        reset();
+        return true;
+    }
+
+    /**
+     * まとめたフレームをストリームへ書き込み、1回だけflushする
+     */
+    void writeTo(OutputStream out) throws IOException {
+        for (int i = firstUnwritten; i < frameCount; i++) {
+            ByteBuffer frame = frames[i];
+            if (frame.hasArray()) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            } else {
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                out.write(bytes);
+            }
+        }
+        out.flush();
+        reset();
+    }
+
+    private void reset() {
+        Arrays.fill(frames, 0, frameCount, null);
+        frameCount = 0;
+        firstUnwritten = 0;
+        // 大きなメッセージで拡張したバッファは保持しない
+        if (buffer.capacity() > INITIAL_CAPACITY * 16) {
+            buffer = allocate(INITIAL_CAPACITY);
+        } else {
+            buffer.clear();
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
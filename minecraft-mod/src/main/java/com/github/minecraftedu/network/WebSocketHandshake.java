@@ -0,0 +1,98 @@
+package com.github.minecraftedu.network;
+
+import com.github.minecraftedu.MinecraftEduMod;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * WebSocketのHTTPアップグレード処理（RFC 6455 セクション4）
+ */
+class WebSocketHandshake {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /** ハンドシェイクリクエストの最大サイズ */
+    static final int MAX_REQUEST_BYTES = 8192;
+
+    private final Map<String, String> headers;
+
+    private WebSocketHandshake(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * リクエストヘッダー（空行を含まない）を解析する
+     * ヘッダー名は小文字に正規化される
+     */
+    static WebSocketHandshake parse(String request) {
+        Map<String, String> headers = new HashMap<>();
+        String[] lines = request.split("\r\n");
+
+        // 1行目はリクエストライン
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                headers.put(name, lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        return new WebSocketHandshake(headers);
+    }
+
+    /**
+     * バッファ内のヘッダー終端（\r\n\r\n）の直後の位置を返す
+     * 終端が見つからない場合は-1
+     */
+    static int findHeaderEnd(byte[] buffer, int offset, int length) {
+        for (int i = offset + 3; i < offset + length; i++) {
+            if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    String getWebSocketKey() {
+        return getHeader("Sec-WebSocket-Key");
+    }
+
+    /**
+     * 101 Switching Protocolsレスポンスを生成する
+     *
+     * @param deflate 合意したpermessage-deflate（無ければnull）
+     */
+    byte[] createResponse(PerMessageDeflate deflate) {
+        StringBuilder response = new StringBuilder()
+                .append("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append("Sec-WebSocket-Accept: ").append(generateAcceptKey(getWebSocketKey())).append("\r\n");
+        if (deflate != null) {
+            response.append("Sec-WebSocket-Extensions: ").append(deflate.getResponseHeaderValue()).append("\r\n");
+        }
+        response.append("\r\n");
+        return response.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static String generateAcceptKey(String webSocketKey) {
+        try {
+            String combined = webSocketKey + WEBSOCKET_GUID;
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] hash = md.digest(combined.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (Exception e) {
+            MinecraftEduMod.LOGGER.error("Error generating accept key", e);
+            return "";
+        }
+    }
+}
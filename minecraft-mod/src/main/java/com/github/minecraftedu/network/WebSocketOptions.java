@@ -0,0 +1,47 @@
+package com.github.minecraftedu.network;
+
+/**
+ * トランスポート共通の設定値
+ * MinecraftEduModがEduConfigから生成して各トランスポートへ渡す。
+ */
+public class WebSocketOptions {
+
+    private final int maxMessageBytes;
+    private final boolean compression;
+    private final int compressionThreshold;
+    private final boolean compressionContextTakeover;
+
+    public WebSocketOptions(int maxMessageBytes, boolean compression, int compressionThreshold, boolean compressionContextTakeover) {
+        this.maxMessageBytes = maxMessageBytes;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionContextTakeover = compressionContextTakeover;
+    }
+
+    public int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public boolean isCompressionContextTakeover() {
+        return compressionContextTakeover;
+    }
+
+    /**
+     * クライアントの申し出に対してpermessage-deflateを合意する（無効または合意不可ならnull）
+     */
+    PerMessageDeflate negotiateDeflate(WebSocketHandshake handshake) {
+        if (!compression) {
+            return null;
+        }
+        return PerMessageDeflate.negotiate(handshake.getHeader("Sec-WebSocket-Extensions"),
+            compressionThreshold, compressionContextTakeover);
+    }
+}
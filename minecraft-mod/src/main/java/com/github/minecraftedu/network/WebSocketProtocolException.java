@@ -0,0 +1,25 @@
+package com.github.minecraftedu.network;
+
+import java.io.IOException;
+
+/**
+ * RFC 6455違反などで接続を閉じる必要があるときの例外
+ * closeCodeはクライアントへ返すCloseフレームのステータスコード
+ */
+public class WebSocketProtocolException extends IOException {
+
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int INVALID_PAYLOAD = 1007;
+    public static final int MESSAGE_TOO_BIG = 1009;
+
+    private final int closeCode;
+
+    public WebSocketProtocolException(int closeCode, String message) {
+        super(message);
+        this.closeCode = closeCode;
+    }
+
+    public int getCloseCode() {
+        return closeCode;
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.minecraftedu.network;
+
+import java.io.IOException;
+
+/**
+ * WebSocketサーバーの共通インターフェース
+ *
+ * 実装はMinecraftEduMod.onServerStartingで設定に応じて選択される。
+ */
+public interface WebSocketTransport {
+
+    void start() throws IOException;
+
+    void stop();
+}
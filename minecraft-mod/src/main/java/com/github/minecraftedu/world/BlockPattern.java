@@ -0,0 +1,73 @@
+package com.github.minecraftedu.world;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.List;
+
+/**
+ * 重み付きのランダムなブロック状態（"石 3 : 丸石 1" など）
+ *
+ * 状態は位置とseedから決まるので、同じ位置で何度呼んでも同じ状態になる（seedを同じにすれば同じ模様を作り直せる）。
+ * 作成後は変更せず、どのスレッドから呼んでもよい。
+ */
+public final class BlockPattern implements BulkBlockWriter.BlockSource {
+
+    private final BlockState[] states;
+    // 重みの累積（最後が合計）
+    private final long[] cumulative;
+    private final long seed;
+
+    /**
+     * statesとweights（それぞれ正の値）は同じ長さで、空でないこと
+     */
+    public BlockPattern(List<BlockState> states, List<Integer> weights, long seed) {
+        if (states.isEmpty() || states.size() != weights.size()) {
+            throw new IllegalArgumentException("Pattern needs one weight per block state");
+        }
+        this.states = states.toArray(new BlockState[0]);
+        this.cumulative = new long[this.states.length];
+        long total = 0;
+        for (int i = 0; i < this.states.length; i++) {
+            int weight = weights.get(i);
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Pattern weight must be positive: " + weight);
+            }
+            total += weight;
+            cumulative[i] = total;
+        }
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public BlockState getState(int x, int y, int z) {
+        if (states.length == 1) {
+            return states[0];
+        }
+        long total = cumulative[cumulative.length - 1];
+        long value = Long.remainderUnsigned(HashCommon.mix(Mth.getSeed(x, y, z) ^ seed), total);
+        // 累積がvalueを超える最初の状態
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return states[low];
+    }
+
+    @Override
+    public BlockState getUniformState(BoundingBox slice) {
+        return states.length == 1 ? states[0] : null;
+    }
+}
@@ -0,0 +1,396 @@
+package com.github.minecraftedu.world;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundBlockUpdatePacket;
+import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.level.ThreadedLevelLightEngine;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.lighting.LightEngine;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * チャンクセクションへ直接書き込む大量ブロック編集
+ *
+ * Level.setBlockはブロックごとに隣接更新・ライト・ハイトマップ・クライアント通知を行うため、
+ * 数十万ブロックの変更ではサーバーが止まる。ここでは範囲をチャンク→セクションの順に分け、
+ * セクションのパレットへロックを1回だけ取って書き込む。
+ * <ul>
+ *   <li>変更なし: すでに同じ状態のブロックは書き換えない。パレットに目標の状態しか無いセクションや、
+ *       置き換える状態が無いセクション（BlockSource.mayChange）は読まずに飛ばす</li>
+ *   <li>ハイトマップ: チャンクの列ごとに、最も高い変更位置と、種類ごとに地面になる状態を置いた最も高い位置だけで更新する</li>
+ *   <li>ライト: 光の性質が変わったブロックだけライトエンジンへ登録し、空/非空の切り替えはセクション単位で通知する</li>
+ *   <li>クライアント: 変更位置をセクションごとに集め、flushChangesでセクション1つにつきパケット1つで送る。
+ *       1ティックの変更がCHUNK_RESEND_BLOCKS以上のチャンクは、チャンク全体を送り直す</li>
+ *   <li>隣接更新: 範囲の外周のブロックだけ行う（範囲内のブロック同士の形状更新は行わない）</li>
+ * </ul>
+ * ブロックエンティティを持つ状態（変更前または変更後）はLevel.setBlockで書き込む。
+ * Recorderを渡すと、書き換えたブロックの変更前の状態を記録する（元に戻すため）。
+ * EditOptionsで隣接更新を止められる（physics = false）。
+ * fillの後、ティックの終わりまでにflushChangesを呼ぶこと（呼ばないとクライアントに変更が見えない）。
+ * サーバースレッドから呼ぶこと。
+ */
+public class BulkBlockWriter {
+
+    // 1回のflushChangesでこれ以上のブロックが変わったチャンクはチャンク全体を送り直す
+    // （セクション単位のパケットは1ブロックあたり数バイトだが、チャンクのパケットは圧縮が効き、クライアントの処理も1回で済む）
+    private static final int CHUNK_RESEND_BLOCKS = 8192;
+
+    // 読み込み済みのチャンクが持つハイトマップ
+    private static final Heightmap.Types[] HEIGHTMAP_TYPES = {
+        Heightmap.Types.WORLD_SURFACE, Heightmap.Types.OCEAN_FLOOR, Heightmap.Types.MOTION_BLOCKING, Heightmap.Types.MOTION_BLOCKING_NO_LEAVES
+    };
+
+    /**
+     * 位置ごとに置くブロック状態
+     */
+    @FunctionalInterface
+    public interface BlockSource {
+        /**
+         * 位置に置く状態（nullならその位置は変更しない）
+         */
+        BlockState getState(int x, int y, int z);
+
+        /**
+         * 今の状態がcurrentの位置に置く状態（nullならその位置は変更しない）
+         * 書き込みではこちらが呼ばれる。今の状態で決まるソース（置き換えなど）はこちらを実装する
+         */
+        default BlockState getState(int x, int y, int z, BlockState current) {
+            return getState(x, y, z);
+        }
+
+        /**
+         * セクションの状態（パレット）を見て、変更する位置があり得るか（falseならブロックを読まずに飛ばす）
+         */
+        default boolean mayChange(LevelChunkSection section) {
+            return true;
+        }
+
+        /**
+         * slice（1つのセクションに収まる範囲）のすべての位置で同じ状態ならそれを返す（そうでない、または分からなければnull）
+         * セクションがすでにその状態だけなら、ブロックを読まずに飛ばすために使う
+         */
+        default BlockState getUniformState(BoundingBox slice) {
+            return null;
+        }
+
+        /**
+         * slice（1つのセクションに収まる範囲）に変更する位置があるか（falseならチャンクを読み込まずに飛ばす）
+         */
+        default boolean hasChanges(BoundingBox slice) {
+            return true;
+        }
+
+        /**
+         * すべての位置が同じ状態のソース
+         */
+        static BlockSource of(BlockState blockState) {
+            return new BlockSource() {
+                @Override
+                public BlockState getState(int x, int y, int z) {
+                    return blockState;
+                }
+
+                @Override
+                public BlockState getUniformState(BoundingBox slice) {
+                    return blockState;
+                }
+            };
+        }
+    }
+
+    private final ServerLevel level;
+    private final EditJournal.Recorder recorder;
+    private final EditOptions options;
+    // まだクライアントへ送っていない変更位置（セクション → セクション内の位置）
+    private final Long2ObjectMap<ShortSet> dirtySections = new Long2ObjectOpenHashMap<>();
+
+    public BulkBlockWriter(ServerLevel level) {
+        this(level, null, EditOptions.DEFAULT);
+    }
+
+    public BulkBlockWriter(ServerLevel level, EditJournal.Recorder recorder) {
+        this(level, recorder, EditOptions.DEFAULT);
+    }
+
+    public BulkBlockWriter(ServerLevel level, EditJournal.Recorder recorder, EditOptions options) {
+        this.level = level;
+        this.recorder = recorder;
+        this.options = options;
+    }
+
+    /**
+     * 直方体の範囲をblockStateで埋め、状態が変わったブロック数を返す
+     * 座標は正規化済み（min <= max）であること。ワールドの高さ範囲外は無視する
+     */
+    public int fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BlockState blockState) {
+        BoundingBox region = new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+        return fill(region, region, BlockSource.of(blockState));
+    }
+
+    /**
+     * regionのうちsliceの部分をsourceの状態で埋め、状態が変わったブロック数を返す
+     * 範囲を分割して書き込む場合にsliceを使う。外周の隣接更新はregionの外周に対してのみ行う
+     */
+    public int fill(BoundingBox region, BoundingBox slice, BlockSource source) {
+        int minX = slice.minX();
+        int maxX = slice.maxX();
+        int minZ = slice.minZ();
+        int maxZ = slice.maxZ();
+        int fromY = Math.max(slice.minY(), level.getMinBuildHeight());
+        int toY = Math.min(slice.maxY(), level.getMaxBuildHeight() - 1);
+        if (fromY > toY) {
+            return 0;
+        }
+
+        ServerChunkCache chunkSource = level.getChunkSource();
+        ThreadedLevelLightEngine lightEngine = chunkSource.getLightEngine();
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        // ブロックエンティティが関わる位置と外周の変更位置（セクションのロック外で処理する）
+        LongArrayList fallback = new LongArrayList();
+        LongArrayList edges = new LongArrayList();
+        // チャンク内の列ごとの最も高い変更位置と、ハイトマップの種類ごとにその種類で地面になる状態を置いた最も高い位置
+        // （Integer.MIN_VALUE = 変更なし）
+        int[] columnTop = new int[256];
+        int[][] opaqueTop = new int[HEIGHTMAP_TYPES.length][256];
+        BlockState maskState = null;
+        int opaqueMask = 0;
+        int changedCount = 0;
+
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                LevelChunk chunk = level.getChunk(chunkX, chunkZ);
+                LevelChunkSection[] sections = chunk.getSections();
+                int x0 = Math.max(minX, chunkX << 4);
+                int x1 = Math.min(maxX, (chunkX << 4) + 15);
+                int z0 = Math.max(minZ, chunkZ << 4);
+                int z1 = Math.min(maxZ, (chunkZ << 4) + 15);
+                Arrays.fill(columnTop, Integer.MIN_VALUE);
+                for (int[] tops : opaqueTop) {
+                    Arrays.fill(tops, Integer.MIN_VALUE);
+                }
+                int chunkChanged = 0;
+
+                for (int sectionY = fromY >> 4; sectionY <= toY >> 4; sectionY++) {
+                    LevelChunkSection section = sections[chunk.getSectionIndexFromSectionY(sectionY)];
+                    int y0 = Math.max(fromY, sectionY << 4);
+                    int y1 = Math.min(toY, (sectionY << 4) + 15);
+
+                    BoundingBox sectionSlice = new BoundingBox(x0, y0, z0, x1, y1, z1);
+                    if (!source.hasChanges(sectionSlice)) {
+                        continue;
+                    }
+                    // パレットに目標の状態しか無ければ、このセクションはすでに一致している
+                    BlockState uniform = source.getUniformState(sectionSlice);
+                    if (uniform != null && !section.getStates().maybeHas(state -> state != uniform)) {
+                        continue;
+                    }
+                    if (!source.mayChange(section)) {
+                        continue;
+                    }
+                    boolean wasEmpty = section.hasOnlyAir();
+                    ShortSet dirty = null;
+
+                    if (recorder != null) {
+                        recorder.beginSection(sectionSlice);
+                    }
+                    section.acquire();
+                    try {
+                        for (int y = y0; y <= y1; y++) {
+                            for (int z = z0; z <= z1; z++) {
+                                for (int x = x0; x <= x1; x++) {
+                                    BlockState oldState = section.getBlockState(x & 15, y & 15, z & 15);
+                                    BlockState blockState = source.getState(x, y, z, oldState);
+                                    if (blockState == null || oldState == blockState) {
+                                        continue;
+                                    }
+                                    if (recorder != null) {
+                                        recorder.record(x, y, z, oldState);
+                                    }
+                                    pos.set(x, y, z);
+                                    if (oldState.hasBlockEntity() || blockState.hasBlockEntity()) {
+                                        fallback.add(pos.asLong());
+                                        continue;
+                                    }
+
+                                    section.setBlockState(x & 15, y & 15, z & 15, blockState, false);
+                                    chunkChanged++;
+                                    int column = (z & 15) << 4 | (x & 15);
+                                    if (y > columnTop[column]) {
+                                        columnTop[column] = y;
+                                    }
+                                    if (blockState != maskState) {
+                                        maskState = blockState;
+                                        opaqueMask = opaqueMask(blockState);
+                                    }
+                                    for (int type = 0; type < HEIGHTMAP_TYPES.length; type++) {
+                                        if ((opaqueMask & 1 << type) != 0 && y > opaqueTop[type][column]) {
+                                            opaqueTop[type][column] = y;
+                                        }
+                                    }
+                                    if (LightEngine.hasDifferentLightProperties(chunk, pos, oldState, blockState)) {
+                                        lightEngine.checkBlock(pos);
+                                    }
+                                    level.onBlockStateChange(pos, oldState, blockState);
+                                    if (dirty == null) {
+                                        dirty = dirtySections.computeIfAbsent(SectionPos.asLong(chunkX, sectionY, chunkZ),
+                                            key -> new ShortOpenHashSet());
+                                    }
+                                    dirty.add(SectionPos.sectionRelativePos(pos));
+                                    if (options.isPhysics() && (x == region.minX() || x == region.maxX() || y == region.minY()
+                                            || y == region.maxY() || z == region.minZ() || z == region.maxZ())) {
+                                        edges.add(pos.asLong());
+                                    }
+                                }
+                            }
+                        }
+                    } finally {
+                        section.release();
+                        if (recorder != null) {
+                            recorder.endSection();
+                        }
+                    }
+
+                    boolean isEmpty = section.hasOnlyAir();
+                    if (wasEmpty != isEmpty) {
+                        lightEngine.updateSectionStatus(SectionPos.of(chunkX, sectionY, chunkZ), isEmpty);
+                    }
+                }
+
+                if (chunkChanged > 0) {
+                    updateHeightmaps(chunk, columnTop, opaqueTop);
+                    chunk.setUnsaved(true);
+                    changedCount += chunkChanged;
+                }
+            }
+        }
+
+        for (int i = 0; i < fallback.size(); i++) {
+            pos.set(fallback.getLong(i));
+            BlockState blockState = source.getState(pos.getX(), pos.getY(), pos.getZ(), level.getBlockState(pos));
+            if (level.setBlock(pos, blockState, options.getSetBlockFlags())) {
+                changedCount++;
+            }
+        }
+
+        // 範囲外のブロックへ変更を知らせる（水が流れ込む、柵がつながる など）
+        for (int i = 0; i < edges.size(); i++) {
+            pos.set(edges.getLong(i));
+            BlockState blockState = level.getBlockState(pos);
+            blockState.updateNeighbourShapes(level, pos, 2);
+            level.blockUpdated(pos, blockState.getBlock());
+        }
+
+        return changedCount;
+    }
+
+    /**
+     * 集めた変更位置をクライアントへ送る（ティックの終わり、または編集の終わりに呼ぶ）
+     * セクションごとにClientboundSectionBlocksUpdatePacketを1つ（1ブロックだけならClientboundBlockUpdatePacket）、
+     * 変更の多いチャンクはClientboundLevelChunkWithLightPacketを1つ、そのチャンクを見ているプレイヤーへ送る
+     */
+    public void flushChanges() {
+        if (dirtySections.isEmpty()) {
+            return;
+        }
+        ServerChunkCache chunkSource = level.getChunkSource();
+        Long2IntMap chunkChanges = new Long2IntOpenHashMap();
+        for (Long2ObjectMap.Entry<ShortSet> entry : dirtySections.long2ObjectEntrySet()) {
+            long section = entry.getLongKey();
+            chunkChanges.addTo(ChunkPos.asLong(SectionPos.x(section), SectionPos.z(section)), entry.getValue().size());
+        }
+
+        for (Long2ObjectMap.Entry<ShortSet> entry : dirtySections.long2ObjectEntrySet()) {
+            SectionPos sectionPos = SectionPos.of(entry.getLongKey());
+            ChunkPos chunkPos = sectionPos.chunk();
+            // 送り直し済みのチャンクは-1
+            int changes = chunkChanges.get(chunkPos.toLong());
+            LevelChunk chunk = changes < 0 ? null : chunkSource.getChunkNow(chunkPos.x, chunkPos.z);
+            if (chunk == null) {
+                continue;
+            }
+            List<ServerPlayer> players = chunkSource.chunkMap.getPlayers(chunkPos, false);
+            if (players.isEmpty()) {
+                continue;
+            }
+
+            Packet<?> packet;
+            ShortSet positions = entry.getValue();
+            if (changes >= CHUNK_RESEND_BLOCKS) {
+                packet = new ClientboundLevelChunkWithLightPacket(chunk, level.getLightEngine(), null, null);
+                chunkChanges.put(chunkPos.toLong(), -1);
+            } else if (positions.size() == 1) {
+                BlockPos pos = sectionPos.relativeToBlockPos(positions.iterator().nextShort());
+                packet = new ClientboundBlockUpdatePacket(pos, chunk.getBlockState(pos));
+            } else {
+                LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionPos.y()));
+                packet = new ClientboundSectionBlocksUpdatePacket(sectionPos, positions, section);
+            }
+            for (ServerPlayer player : players) {
+                player.connection.send(packet);
+            }
+        }
+        dirtySections.clear();
+    }
+
+    /**
+     * HEIGHTMAP_TYPESのうち、stateがその種類で地面になるもののビット
+     */
+    private static int opaqueMask(BlockState state) {
+        int mask = 0;
+        for (int type = 0; type < HEIGHTMAP_TYPES.length; type++) {
+            if (HEIGHTMAP_TYPES[type].isOpaque().test(state)) {
+                mask |= 1 << type;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 列ごとにハイトマップを更新する
+     * 最も高い変更位置で更新すると、そこが地面でなくなった場合は下方向へ走査して高さを下げる（下の変更も反映される）。
+     * それより下に地面になる状態を置いた場合はupdateが走査しないので、その最も高い位置でも更新して高さを上げる
+     */
+    private static void updateHeightmaps(LevelChunk chunk, int[] columnTop, int[][] opaqueTop) {
+        int baseX = chunk.getPos().getMinBlockX();
+        int baseZ = chunk.getPos().getMinBlockZ();
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (Map.Entry<Heightmap.Types, Heightmap> entry : chunk.getHeightmaps()) {
+            int type = Arrays.asList(HEIGHTMAP_TYPES).indexOf(entry.getKey());
+            Heightmap heightmap = entry.getValue();
+            for (int column = 0; column < columnTop.length; column++) {
+                int y = columnTop[column];
+                if (y == Integer.MIN_VALUE) {
+                    continue;
+                }
+                int x = column & 15;
+                int z = column >> 4;
+                heightmap.update(x, y, z, chunk.getBlockState(pos.set(baseX + x, y, baseZ + z)));
+                int opaqueY = type >= 0 ? opaqueTop[type][column] : Integer.MIN_VALUE;
+                if (opaqueY != Integer.MIN_VALUE && opaqueY < y) {
+                    heightmap.update(x, opaqueY, z, chunk.getBlockState(pos.set(baseX + x, opaqueY, baseZ + z)));
+                }
+            }
+        }
+    }
+}
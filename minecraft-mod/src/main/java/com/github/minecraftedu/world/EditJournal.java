@@ -0,0 +1,553 @@
+package com.github.minecraftedu.world;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * セッションごとの編集履歴（元に戻す/やり直す）
+ *
+ * ワールドを変更するコマンドが書き換えたブロックの変更前の状態を、1コマンドにつき1件の記録として残す。
+ * 記録はセクションごとの範囲と、その中の位置順のランレングス（パレット番号、0 = 変更なし）で表すので、
+ * 大きさは書き換えた範囲と状態の種類に比例し、ワールドの大きさには依存しない。
+ * ブロック状態はサーバーの起動中だけ有効な番号（Block.getId）で持つため、記録はセッションの終了時に捨てる。
+ * メモリ上の記録の合計がmemoryLimitを超えると、古いものから一時ファイルへ書き出す。
+ * undo/redoは記録をBlockSourceとしてWorldEditJobで書き戻し、そのとき上書きした状態を逆方向の記録にする。
+ */
+public class EditJournal {
+
+    private final long memoryLimit;
+    private final long diskLimit;
+    private final int maxEntries;
+
+    // 先頭が最新
+    private final Deque<Entry> undoStack = new ArrayDeque<>();
+    private final Deque<Entry> redoStack = new ArrayDeque<>();
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+    private Path spillDirectory;
+    private boolean closed = false;
+
+    public EditJournal(long memoryLimit, long diskLimit, int maxEntries) {
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public Recorder newRecorder(String action) {
+        return new Recorder(action);
+    }
+
+    /**
+     * 新しい編集を記録する（やり直しの履歴は消える）
+     */
+    public synchronized void record(Recorder recorder) {
+        if (recorder.isEmpty() || closed) {
+            return;
+        }
+        clear(redoStack);
+        push(undoStack, recorder.finish());
+    }
+
+    /**
+     * 元に戻す記録を取り出す（無ければnull）
+     */
+    public synchronized Entry pollUndo() throws IOException {
+        return poll(undoStack);
+    }
+
+    /**
+     * やり直す記録を取り出す（無ければnull）
+     */
+    public synchronized Entry pollRedo() throws IOException {
+        return poll(redoStack);
+    }
+
+    /**
+     * undo（redoがtrueならredo）で書き戻したときに上書きした状態を、逆方向の履歴に加える
+     */
+    public synchronized void recordReplay(Recorder recorder, boolean redo) {
+        if (recorder.isEmpty() || closed) {
+            return;
+        }
+        push(redo ? undoStack : redoStack, recorder.finish());
+    }
+
+    /**
+     * 書き戻せなかった記録を取り出した履歴へ戻す
+     */
+    public synchronized void restore(Entry entry, boolean redo) {
+        if (!closed) {
+            push(redo ? redoStack : undoStack, entry);
+        }
+    }
+
+    /**
+     * 全記録と一時ファイルを削除する（セッション終了時）
+     */
+    public synchronized void close() {
+        closed = true;
+        clear(undoStack);
+        clear(redoStack);
+        if (spillDirectory != null) {
+            try {
+                Files.deleteIfExists(spillDirectory);
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.warn("Failed to delete journal directory: " + spillDirectory);
+            }
+        }
+    }
+
+    private void push(Deque<Entry> stack, Entry entry) {
+        stack.addFirst(entry);
+        memoryBytes += entry.size;
+        trim();
+    }
+
+    private Entry poll(Deque<Entry> stack) throws IOException {
+        Entry entry = stack.pollFirst();
+        if (entry == null) {
+            return null;
+        }
+        if (entry.file != null) {
+            entry.data = Files.readAllBytes(entry.file);
+            Files.deleteIfExists(entry.file);
+            entry.file = null;
+            diskBytes -= entry.size;
+        } else {
+            memoryBytes -= entry.size;
+        }
+        return entry;
+    }
+
+    private void clear(Deque<Entry> stack) {
+        Entry entry;
+        while ((entry = stack.pollFirst()) != null) {
+            discard(entry);
+        }
+    }
+
+    private void discard(Entry entry) {
+        if (entry.file != null) {
+            try {
+                Files.deleteIfExists(entry.file);
+            } catch (IOException e) {
+                MinecraftEduMod.LOGGER.warn("Failed to delete journal file: " + entry.file);
+            }
+            diskBytes -= entry.size;
+        } else {
+            memoryBytes -= entry.size;
+        }
+        entry.data = null;
+        entry.file = null;
+    }
+
+    /**
+     * 件数とディスクの上限を超えた分は古いものから捨て、メモリの上限を超えた分は古いものから書き出す
+     */
+    private void trim() {
+        while (undoStack.size() + redoStack.size() > maxEntries || diskBytes > diskLimit) {
+            Entry oldest = undoStack.pollLast();
+            if (oldest == null) {
+                oldest = redoStack.pollLast();
+            }
+            if (oldest == null) {
+                break;
+            }
+            discard(oldest);
+        }
+
+        while (memoryBytes > memoryLimit) {
+            Entry oldest = oldestInMemory();
+            if (oldest == null || !spill(oldest)) {
+                break;
+            }
+        }
+    }
+
+    private Entry oldestInMemory() {
+        for (Deque<Entry> stack : List.of(undoStack, redoStack)) {
+            Iterator<Entry> iterator = stack.descendingIterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.file == null) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean spill(Entry entry) {
+        try {
+            if (spillDirectory == null) {
+                spillDirectory = Files.createTempDirectory("minecraftedu-journal");
+            }
+            Path file = Files.createTempFile(spillDirectory, "entry", ".bin");
+            Files.write(file, entry.data);
+            entry.file = file;
+            entry.data = null;
+            memoryBytes -= entry.size;
+            diskBytes += entry.size;
+            return true;
+        } catch (IOException e) {
+            MinecraftEduMod.LOGGER.warn("Failed to spill journal entry to disk: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 1件の記録（pollで取り出した後はデータがメモリ上にある）
+     */
+    public static final class Entry {
+        private final String action;
+        private final long blockCount;
+        private final int size;
+        private byte[] data;
+        private Path file;
+
+        private Entry(String action, long blockCount, byte[] data) {
+            this.action = action;
+            this.blockCount = blockCount;
+            this.size = data.length;
+            this.data = data;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * 記録したブロック数
+         */
+        public long getBlockCount() {
+            return blockCount;
+        }
+
+        /**
+         * 記録を書き戻すためのBlockSource（サーバースレッドで使う）
+         */
+        public Replay createReplay() {
+            return new Replay(data);
+        }
+    }
+
+    /**
+     * 書き換える前の状態の記録
+     *
+     * セクションごとにbeginSection → record（セクション内で Y → Z → X の昇順）→ endSection の順に呼ぶ。
+     * 1ブロックずつ順不同で置く場合はrecordBlockで記録する（次のbeginSectionまたは記録の終わりに、チャンクセクションごとに1つの範囲にまとめる）。
+     * サーバースレッドで使う。
+     */
+    public static final class Recorder {
+        private final String action;
+        private final Map<BlockState, Integer> paletteIndex = new IdentityHashMap<>();
+        private final IntArrayList palette = new IntArrayList();
+        private final ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+        private final DataOutputStream sections = new DataOutputStream(sectionBytes);
+        private int sectionCount = 0;
+        private long blockCount = 0;
+
+        // 記録中のセクション
+        private BoundingBox section;
+        private final ByteArrayOutputStream runBytes = new ByteArrayOutputStream();
+        private int runCount;
+        private int next;
+        private int runId;
+        private int runLength;
+
+        // recordBlockで記録した位置（チャンクセクション → パレット番号 << 12 | セクション内の位置、受け取った順）
+        private final Long2ObjectMap<IntArrayList> blocks = new Long2ObjectLinkedOpenHashMap<>();
+
+        private Recorder(String action) {
+            this.action = action;
+        }
+
+        public void beginSection(BoundingBox box) {
+            flushBlocks();
+            startSection(box);
+        }
+
+        private void startSection(BoundingBox box) {
+            section = box;
+            runBytes.reset();
+            runCount = 0;
+            next = 0;
+            runId = 0;
+            runLength = 0;
+        }
+
+        public void record(int x, int y, int z, BlockState oldState) {
+            record(x, y, z, paletteId(oldState));
+        }
+
+        /**
+         * 1ブロックの変更前の状態を記録する（beginSection/endSectionの外で、順不同に呼んでよい）
+         * 同じ位置を複数回記録した場合は最初の状態を残す
+         */
+        public void recordBlock(int x, int y, int z, BlockState oldState) {
+            blocks.computeIfAbsent(SectionPos.asLong(x >> 4, y >> 4, z >> 4), key -> new IntArrayList())
+                .add(paletteId(oldState) << 12 | (y & 15) << 8 | (z & 15) << 4 | (x & 15));
+        }
+
+        private int paletteId(BlockState state) {
+            Integer id = paletteIndex.get(state);
+            if (id == null) {
+                id = palette.size() + 1;
+                paletteIndex.put(state, id);
+                palette.add(Block.getId(state));
+            }
+            return id;
+        }
+
+        private void record(int x, int y, int z, int id) {
+            int index = ((y - section.minY()) * section.getZSpan() + (z - section.minZ())) * section.getXSpan() + (x - section.minX());
+            if (index != next) {
+                flushRun();
+                writeRun(0, index - next);
+            }
+            if (id != runId) {
+                flushRun();
+                runId = id;
+            }
+            runLength++;
+            next = index + 1;
+            blockCount++;
+        }
+
+        public void endSection() {
+            flushRun();
+            if (runCount > 0) {
+                try {
+                    sections.writeInt(section.minX());
+                    sections.writeInt(section.minY());
+                    sections.writeInt(section.minZ());
+                    sections.writeInt(section.maxX());
+                    sections.writeInt(section.maxY());
+                    sections.writeInt(section.maxZ());
+                    sections.writeInt(runCount);
+                    runBytes.writeTo(sections);
+                } catch (IOException e) {
+                    // ByteArrayOutputStreamへの書き込みは失敗しない
+                    throw new IllegalStateException(e);
+                }
+                sectionCount++;
+            }
+            section = null;
+        }
+
+        public boolean isEmpty() {
+            return blockCount == 0 && blocks.isEmpty();
+        }
+
+        /**
+         * recordBlockで記録した位置を、チャンクセクションごとに記録した位置を囲む範囲として書き出す
+         */
+        private void flushBlocks() {
+            if (blocks.isEmpty()) {
+                return;
+            }
+            // セクション内の位置 → パレット番号（0 = 記録なし）
+            int[] ids = new int[16 * 16 * 16];
+            for (Long2ObjectMap.Entry<IntArrayList> entry : blocks.long2ObjectEntrySet()) {
+                IntArrayList values = entry.getValue();
+                int minX = 15, minY = 15, minZ = 15, maxX = 0, maxY = 0, maxZ = 0;
+                for (int i = 0; i < values.size(); i++) {
+                    int value = values.getInt(i);
+                    int index = value & 4095;
+                    if (ids[index] == 0) {
+                        ids[index] = value >>> 12;
+                    }
+                    int x = index & 15, y = index >> 8, z = (index >> 4) & 15;
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    minZ = Math.min(minZ, z);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                    maxZ = Math.max(maxZ, z);
+                }
+
+                long key = entry.getLongKey();
+                int baseX = SectionPos.sectionToBlockCoord(SectionPos.x(key));
+                int baseY = SectionPos.sectionToBlockCoord(SectionPos.y(key));
+                int baseZ = SectionPos.sectionToBlockCoord(SectionPos.z(key));
+                startSection(new BoundingBox(baseX + minX, baseY + minY, baseZ + minZ, baseX + maxX, baseY + maxY, baseZ + maxZ));
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        for (int x = minX; x <= maxX; x++) {
+                            int index = y << 8 | z << 4 | x;
+                            if (ids[index] != 0) {
+                                record(baseX + x, baseY + y, baseZ + z, ids[index]);
+                                ids[index] = 0;
+                            }
+                        }
+                    }
+                }
+                endSection();
+            }
+            blocks.clear();
+        }
+
+        private void flushRun() {
+            if (runLength > 0) {
+                writeRun(runId, runLength);
+                runLength = 0;
+            }
+        }
+
+        private void writeRun(int id, int length) {
+            writeVarInt(id);
+            writeVarInt(length);
+            runCount++;
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                runBytes.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            runBytes.write(value);
+        }
+
+        private Entry finish() {
+            flushBlocks();
+            ByteBuffer data = ByteBuffer.allocate(8 + palette.size() * 4 + sectionBytes.size());
+            data.putInt(palette.size());
+            for (int i = 0; i < palette.size(); i++) {
+                data.putInt(palette.getInt(i));
+            }
+            data.putInt(sectionCount);
+            data.put(sectionBytes.toByteArray());
+            return new Entry(action, blockCount, data.array());
+        }
+    }
+
+    /**
+     * 記録を書き戻すBlockSource
+     * 記録されていない位置はnull（変更しない）。同じ位置の記録が複数あれば最も古いものを使う
+     */
+    public static final class Replay implements BulkBlockWriter.BlockSource {
+        private final ByteBuffer data;
+        private final BlockState[] palette;
+        // セクション → そのセクションの記録の位置（古い順）
+        private final Long2ObjectMap<IntArrayList> records = new Long2ObjectLinkedOpenHashMap<>();
+        private final Long2ObjectMap<BoundingBox> bounds = new Long2ObjectLinkedOpenHashMap<>();
+
+        // 最後に展開したセクション（パレット番号、-1 = 変更しない）
+        private long currentSection = Long.MIN_VALUE;
+        private final int[] current = new int[16 * 16 * 16];
+
+        private Replay(byte[] bytes) {
+            this.data = ByteBuffer.wrap(bytes);
+            int paletteSize = data.getInt();
+            this.palette = new BlockState[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = Block.stateById(data.getInt());
+            }
+
+            int sectionCount = data.getInt();
+            for (int i = 0; i < sectionCount; i++) {
+                int position = data.position();
+                BoundingBox box = new BoundingBox(data.getInt(), data.getInt(), data.getInt(), data.getInt(), data.getInt(), data.getInt());
+                int runCount = data.getInt();
+                for (int run = 0; run < runCount * 2; run++) {
+                    readVarInt(data);
+                }
+
+                long key = SectionPos.asLong(box.minX() >> 4, box.minY() >> 4, box.minZ() >> 4);
+                records.computeIfAbsent(key, k -> new IntArrayList()).add(position);
+                BoundingBox union = bounds.get(key);
+                bounds.put(key, union == null ? box : BoundingBox.encapsulatingBoxes(List.of(union, box)).orElse(box));
+            }
+        }
+
+        /**
+         * 書き戻すセクションごとの範囲
+         */
+        public List<BoundingBox> getSections() {
+            return new ArrayList<>(bounds.values());
+        }
+
+        @Override
+        public BlockState getState(int x, int y, int z) {
+            long key = SectionPos.asLong(x >> 4, y >> 4, z >> 4);
+            if (key != currentSection) {
+                select(key);
+            }
+            int id = current[(y & 15) << 8 | (z & 15) << 4 | (x & 15)];
+            return id < 0 ? null : palette[id];
+        }
+
+        @Override
+        public boolean hasChanges(BoundingBox slice) {
+            return records.containsKey(SectionPos.asLong(slice.minX() >> 4, slice.minY() >> 4, slice.minZ() >> 4));
+        }
+
+        private void select(long key) {
+            Arrays.fill(current, -1);
+            currentSection = key;
+            IntArrayList positions = records.get(key);
+            if (positions == null) {
+                return;
+            }
+
+            for (int i = 0; i < positions.size(); i++) {
+                data.position(positions.getInt(i));
+                BoundingBox box = new BoundingBox(data.getInt(), data.getInt(), data.getInt(), data.getInt(), data.getInt(), data.getInt());
+                int runCount = data.getInt();
+                int sizeX = box.getXSpan();
+                int sizeXZ = sizeX * box.getZSpan();
+                int index = 0;
+                for (int run = 0; run < runCount; run++) {
+                    int id = readVarInt(data);
+                    int length = readVarInt(data);
+                    if (id == 0) {
+                        index += length;
+                        continue;
+                    }
+                    for (int end = index + length; index < end; index++) {
+                        int x = box.minX() + index % sizeX;
+                        int z = box.minZ() + (index % sizeXZ) / sizeX;
+                        int y = box.minY() + index / sizeXZ;
+                        int local = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+                        // 古い記録を優先する
+                        if (current[local] < 0) {
+                            current[local] = id - 1;
+                        }
+                    }
+                }
+            }
+        }
+
+        private static int readVarInt(ByteBuffer in) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.get() & 0xFF;
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.minecraftedu.world;
+
+/**
+ * 範囲編集のモード
+ *
+ * <ul>
+ *   <li>physics = false: 隣接ブロックへの更新（水が流れ込む、柵がつながる、砂が落ちる など）を行わない</li>
+ * </ul>
+ */
+public final class EditOptions {
+
+    public static final EditOptions DEFAULT = new EditOptions(true);
+
+    // Block.UPDATE_ALL / Block.UPDATE_CLIENTS | Block.UPDATE_KNOWN_SHAPE
+    private static final int FLAGS_PHYSICS = 3;
+    private static final int FLAGS_NO_PHYSICS = 2 | 16;
+
+    private final boolean physics;
+
+    public EditOptions(boolean physics) {
+        this.physics = physics;
+    }
+
+    public boolean isPhysics() {
+        return physics;
+    }
+
+    /**
+     * Level.setBlockに渡すフラグ
+     */
+    public int getSetBlockFlags() {
+        return physics ? FLAGS_PHYSICS : FLAGS_NO_PHYSICS;
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+/**
+ * 高さだけで状態が決まるソース（スーパーフラットの層構成など）
+ *
+ * minYから順にlayersの状態を置き、それより上はすべてabove、下はbelowになる。
+ */
+public class LayeredBlockSource implements BulkBlockWriter.BlockSource {
+
+    private final int minY;
+    private final BlockState[] layers;
+    private final BlockState below;
+    private final BlockState above;
+
+    public LayeredBlockSource(int minY, BlockState[] layers, BlockState below, BlockState above) {
+        this.minY = minY;
+        this.layers = layers.clone();
+        this.below = below;
+        this.above = above;
+    }
+
+    @Override
+    public BlockState getState(int x, int y, int z) {
+        return getLayer(y);
+    }
+
+    @Override
+    public BlockState getUniformState(BoundingBox slice) {
+        int fromY = slice.minY();
+        int toY = slice.maxY();
+        BlockState state = getLayer(fromY);
+        // 層の範囲と重ならなければ1回の比較で済む
+        int first = Math.max(fromY, minY);
+        int last = Math.min(toY, minY + layers.length - 1);
+        for (int y = first; y <= last; y++) {
+            if (layers[y - minY] != state) {
+                return null;
+            }
+        }
+        if (toY >= minY + layers.length && above != state) {
+            return null;
+        }
+        if (fromY < minY && below != state) {
+            return null;
+        }
+        return state;
+    }
+
+    private BlockState getLayer(int y) {
+        if (y < minY) {
+            return below;
+        }
+        if (y >= minY + layers.length) {
+            return above;
+        }
+        return layers[y - minY];
+    }
+}
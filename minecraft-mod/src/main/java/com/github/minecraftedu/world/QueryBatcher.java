@@ -0,0 +1,105 @@
+package com.github.minecraftedu.world;
+
+import com.github.minecraftedu.MinecraftEduMod;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 読み取り（クエリ）をまとめてサーバースレッドで実行する
+ *
+ * 届いたクエリは、WorldEditSchedulerがティックの終わりに範囲編集と同じ予算の中でまとめて処理する
+ * （負荷が目標を超えている間は範囲編集と同じく延期される）。
+ * 同じティックで処理したクエリの間にティックの処理や他のタスクは入らないので、どれも同じ時点のワールドを読む。
+ * 待ち時間はそのティックの終わりまで（通常は1ティック以内）。
+ * submitはどのスレッドから呼んでもよい。
+ */
+public class QueryBatcher {
+
+    private final Queue<PendingQuery<?>> pending = new ConcurrentLinkedQueue<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+
+    QueryBatcher() {
+    }
+
+    /**
+     * readerを次のバッチで実行する（サーバースレッド上で）
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> reader) {
+        PendingQuery<T> query = new PendingQuery<>(reader);
+        pending.add(query);
+        return query.future;
+    }
+
+    /**
+     * 実行したバッチ数
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * 実行したクエリ数
+     */
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * 待っているクエリをdeadline（System.nanoTime）まで続けて実行する（予算が無くても1つは実行する）
+     * サーバースレッドから呼ぶ
+     */
+    void drain(long deadline) {
+        int count = 0;
+        PendingQuery<?> query;
+        while ((count == 0 || System.nanoTime() < deadline) && (query = pending.poll()) != null) {
+            query.run();
+            count++;
+        }
+        if (count > 0) {
+            batches.increment();
+            queries.add(count);
+        }
+    }
+
+    /**
+     * 残っているクエリをすべて取り消す（サーバー停止時）
+     */
+    void cancelAll() {
+        CancellationException reason = new CancellationException("Server is stopping");
+        PendingQuery<?> query;
+        while ((query = pending.poll()) != null) {
+            query.future.completeExceptionally(reason);
+        }
+    }
+
+    /**
+     * 実行を待つクエリ
+     */
+    private static final class PendingQuery<T> {
+        private final Supplier<T> reader;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        PendingQuery(Supplier<T> reader) {
+            this.reader = reader;
+        }
+
+        void run() {
+            try {
+                future.complete(reader.get());
+            } catch (Exception e) {
+                MinecraftEduMod.LOGGER.error("Query failed", e);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
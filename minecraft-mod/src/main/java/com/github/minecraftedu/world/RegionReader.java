@@ -0,0 +1,165 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 範囲のブロック状態をパレットとインデックスの配列として読み取る（getRegion）
+ *
+ * WorldEditJob（SliceReader）として、サーバースレッドでセクション単位の小片ごとに読む（ティックの予算の中で進む）。
+ * 1種類の状態しか無いセクションはブロックを読まずに埋める。
+ * インデックスは Y → Z → X の順に、1つあたりbits（0, 1, 2, 4, 8, 16）ビットで詰める。
+ * 8ビット以下は各バイトの下位ビットから順に、16ビットはリトルエンディアンで並べる（0 = 1種類のみで配列は空）。
+ * ワールドの高さの範囲外はvoid_airになる。
+ */
+public final class RegionReader implements WorldEditJob.SliceReader {
+
+    /**
+     * 読み取った結果（パレットとインデックス）
+     */
+    public static final class Result {
+        private final List<BlockState> palette;
+        private final int bits;
+        private final byte[] indices;
+
+        private Result(List<BlockState> palette, int bits, byte[] indices) {
+            this.palette = palette;
+            this.bits = bits;
+            this.indices = indices;
+        }
+
+        public List<BlockState> getPalette() {
+            return palette;
+        }
+
+        public int getBits() {
+            return bits;
+        }
+
+        public byte[] getIndices() {
+            return indices;
+        }
+    }
+
+    private final ServerLevel level;
+    private final BoundingBox region;
+    // 読み取る範囲のうちワールドの高さの範囲内の部分（すべて範囲外ならnull）
+    private final BoundingBox inWorld;
+    private final int[] values;
+    private final Map<BlockState, Integer> paletteIndex = new IdentityHashMap<>();
+    private final List<BlockState> palette = new ArrayList<>();
+
+    public RegionReader(ServerLevel level, BoundingBox region) {
+        this.level = level;
+        this.region = region;
+        this.values = new int[region.getXSpan() * region.getZSpan() * region.getYSpan()];
+
+        int fromY = Math.max(region.minY(), level.getMinBuildHeight());
+        int toY = Math.min(region.maxY(), level.getMaxBuildHeight() - 1);
+        if (fromY > region.minY() || toY < region.maxY()) {
+            Arrays.fill(values, indexOf(Blocks.VOID_AIR.defaultBlockState()));
+        }
+        this.inWorld = fromY <= toY ? new BoundingBox(region.minX(), fromY, region.minZ(), region.maxX(), toY, region.maxZ()) : null;
+    }
+
+    /**
+     * WorldEditJobで読む範囲（ワールドの高さの範囲外だけならnullで、読まずにgetResultしてよい）
+     */
+    public BoundingBox getReadRegion() {
+        return inWorld;
+    }
+
+    /**
+     * sliceが重なるセクションを1つ読む（sliceは1つのセクションに収まること）
+     */
+    @Override
+    public void read(BoundingBox slice) {
+        int sizeX = region.getXSpan();
+        int sizeXZ = sizeX * region.getZSpan();
+        LevelChunk chunk = level.getChunk(slice.minX() >> 4, slice.minZ() >> 4);
+        LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(slice.minY() >> 4));
+
+        // パレットに1種類しか無ければ、1回読むだけで埋められる
+        BlockState first = section.getBlockState(slice.minX() & 15, slice.minY() & 15, slice.minZ() & 15);
+        boolean uniform = !section.getStates().maybeHas(state -> state != first);
+        int uniformIndex = uniform ? indexOf(first) : -1;
+
+        for (int y = slice.minY(); y <= slice.maxY(); y++) {
+            for (int z = slice.minZ(); z <= slice.maxZ(); z++) {
+                int row = (y - region.minY()) * sizeXZ + (z - region.minZ()) * sizeX - region.minX();
+                if (uniform) {
+                    Arrays.fill(values, row + slice.minX(), row + slice.maxX() + 1, uniformIndex);
+                    continue;
+                }
+                for (int x = slice.minX(); x <= slice.maxX(); x++) {
+                    values[row + x] = indexOf(section.getBlockState(x & 15, y & 15, z & 15));
+                }
+            }
+        }
+    }
+
+    /**
+     * 読み取った結果を詰める（すべての小片を読み終えていること。どのスレッドからでもよい）
+     */
+    public Result getResult() {
+        int bits = bitsFor(palette.size());
+        return new Result(palette, bits, pack(values, bits));
+    }
+
+    private int indexOf(BlockState state) {
+        Integer index = paletteIndex.get(state);
+        if (index == null) {
+            index = palette.size();
+            paletteIndex.put(state, index);
+            palette.add(state);
+        }
+        return index;
+    }
+
+    /**
+     * バイト境界をまたがない幅（0, 1, 2, 4, 8, 16）
+     */
+    static int bitsFor(int paletteSize) {
+        if (paletteSize <= 1) {
+            return 0;
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+        if (bits <= 2) {
+            return bits;
+        }
+        if (bits <= 4) {
+            return 4;
+        }
+        return bits <= 8 ? 8 : 16;
+    }
+
+    static byte[] pack(int[] values, int bits) {
+        if (bits == 0) {
+            return new byte[0];
+        }
+        if (bits == 16) {
+            byte[] packed = new byte[values.length * 2];
+            for (int i = 0; i < values.length; i++) {
+                packed[i * 2] = (byte) values[i];
+                packed[i * 2 + 1] = (byte) (values[i] >>> 8);
+            }
+            return packed;
+        }
+        int perByte = 8 / bits;
+        byte[] packed = new byte[(values.length + perByte - 1) / perByte];
+        for (int i = 0; i < values.length; i++) {
+            packed[i / perByte] |= (byte) (values[i] << ((i % perByte) * bits));
+        }
+        return packed;
+    }
+}
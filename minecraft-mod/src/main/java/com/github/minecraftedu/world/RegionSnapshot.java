@@ -0,0 +1,412 @@
+package com.github.minecraftedu.world;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import net.minecraft.commands.arguments.blocks.BlockStateParser;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 範囲のブロック状態のスナップショット
+ *
+ * ファイルはメモリマップして読み、復元時にBlockSourceとして必要なセクションだけをその場で展開する。
+ * 形式（ビッグエンディアン）:
+ * <pre>
+ * int     magic = "MEDS", version = 1
+ * int     minX, minY, minZ, maxX, maxY, maxZ
+ * int     paletteSize, { u16 length, UTF-8 ブロック状態 } * paletteSize
+ * int     sectionCount, int[sectionCount] 各レコードの位置
+ * レコード（セクションと範囲の重なりごと、セクションX → Z → Y の順）:
+ *   u16   localPaletteSize, int[localPaletteSize] 全体パレットの番号
+ *   u8    bits（0 = 1種類のみ）
+ *   long[] インデックス（1つのlongに 64 / bits 個、Y → Z → X の順）
+ * </pre>
+ * ブロックエンティティの中身（チェストの中身など）は保存しない。
+ */
+public class RegionSnapshot implements BulkBlockWriter.BlockSource {
+
+    private static final int MAGIC = 0x4D454453;
+    private static final int VERSION = 1;
+
+    private final BoundingBox region;
+    private final ByteBuffer data;
+    private final BlockState[] palette;
+    private final int sectionCount;
+    private final int tableOffset;
+    private final int sectionMinX;
+    private final int sectionMinY;
+    private final int sectionMinZ;
+    private final int sectionsY;
+    private final int sectionsZ;
+
+    // 最後に展開したレコード（サーバースレッドのみ）
+    private int currentIndex = -1;
+    private BlockState[] currentPalette;
+    private int currentBits;
+    private int currentDataOffset;
+    private BoundingBox currentSlice;
+
+    private RegionSnapshot(BoundingBox region, ByteBuffer data, BlockState[] palette, int sectionCount, int tableOffset) {
+        this.region = region;
+        this.data = data;
+        this.palette = palette;
+        this.sectionCount = sectionCount;
+        this.tableOffset = tableOffset;
+        this.sectionMinX = region.minX() >> 4;
+        this.sectionMinY = region.minY() >> 4;
+        this.sectionMinZ = region.minZ() >> 4;
+        this.sectionsY = (region.maxY() >> 4) - sectionMinY + 1;
+        this.sectionsZ = (region.maxZ() >> 4) - sectionMinZ + 1;
+    }
+
+    /**
+     * ファイルをメモリマップして開く
+     * 形式が違う、途中で切れている、位置や長さがファイルの外を指すなどの場合はIOException（開いた後の読み取りは失敗しない）
+     */
+    public static RegionSnapshot open(Path file) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (data.remaining() < 8 || data.getInt() != MAGIC) {
+                throw new IOException("Not a region snapshot: " + file);
+            }
+            int version = data.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported region snapshot version " + version + ": " + file);
+            }
+            RegionSnapshot snapshot = read(data);
+            snapshot.validateRecords();
+            return snapshot;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Corrupted region snapshot: " + file + " (" + e.getMessage() + ")", e);
+        }
+    }
+
+    /**
+     * ヘッダー、パレット、レコードの位置の表を読む（dataの位置はバージョンの直後）
+     */
+    private static RegionSnapshot read(ByteBuffer data) {
+        int minX = data.getInt(), minY = data.getInt(), minZ = data.getInt();
+        int maxX = data.getInt(), maxY = data.getInt(), maxZ = data.getInt();
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            throw new IllegalArgumentException("Invalid region");
+        }
+        BoundingBox region = new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+
+        int paletteSize = data.getInt();
+        // 1つの状態は最低2バイト（長さ）
+        if (paletteSize < 0 || paletteSize > data.remaining() / 2) {
+            throw new IllegalArgumentException("Invalid palette size " + paletteSize);
+        }
+        BlockState[] palette = new BlockState[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            int length = data.getShort() & 0xFFFF;
+            if (length > data.remaining()) {
+                throw new IllegalArgumentException("Palette entry " + i + " exceeds the file");
+            }
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            palette[i] = parseState(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        int sectionCount = data.getInt();
+        int tableOffset = data.position();
+        RegionSnapshot snapshot = new RegionSnapshot(region, data, palette, sectionCount, tableOffset);
+        if (sectionCount != snapshot.expectedSectionCount() || sectionCount > data.remaining() / 4) {
+            throw new IllegalArgumentException("Invalid section count " + sectionCount);
+        }
+        return snapshot;
+    }
+
+    /**
+     * すべてのレコードがファイルの中に収まり、パレットの範囲内を指しているか確かめる
+     */
+    private void validateRecords() {
+        int recordsStart = tableOffset + sectionCount * 4;
+        int limit = data.limit();
+        for (int sectionX = sectionMinX; sectionX <= region.maxX() >> 4; sectionX++) {
+            for (int sectionZ = sectionMinZ; sectionZ <= region.maxZ() >> 4; sectionZ++) {
+                for (int sectionY = sectionMinY; sectionY <= region.maxY() >> 4; sectionY++) {
+                    int index = ((sectionX - sectionMinX) * sectionsZ + (sectionZ - sectionMinZ)) * sectionsY + (sectionY - sectionMinY);
+                    int position = data.getInt(tableOffset + index * 4);
+                    if (position < recordsStart || position > limit - 3) {
+                        throw new IllegalArgumentException("Record " + index + " is outside the file");
+                    }
+                    int localSize = data.getShort(position) & 0xFFFF;
+                    position += 2;
+                    if (localSize == 0 || localSize > (limit - position - 1) / 4) {
+                        throw new IllegalArgumentException("Invalid palette size in record " + index);
+                    }
+                    for (int i = 0; i < localSize; i++) {
+                        int global = data.getInt(position);
+                        if (global < 0 || global >= palette.length) {
+                            throw new IllegalArgumentException("Palette index out of range in record " + index);
+                        }
+                        position += 4;
+                    }
+                    int bits = data.get(position) & 0xFF;
+                    if (bits != bitsFor(localSize)) {
+                        throw new IllegalArgumentException("Invalid bits in record " + index);
+                    }
+                    if (bits > 0) {
+                        int perLong = 64 / bits;
+                        BoundingBox slice = slice(region, sectionX, sectionY, sectionZ);
+                        long longs = ((long) slice.getXSpan() * slice.getYSpan() * slice.getZSpan() + perLong - 1) / perLong;
+                        if (position + 1 + longs * 8 > limit) {
+                            throw new IllegalArgumentException("Record " + index + " exceeds the file");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 範囲のブロック状態をセクション単位で読み取り、ファイルの内容を作る
+     * readはWorldEditJob（SliceReader）として、サーバースレッドでセクションごとに呼ばれる。
+     * 全セクションを読み終えたら、toBufferでファイルの内容を取り出す（どのスレッドからでもよい）
+     */
+    public static final class Capture implements WorldEditJob.SliceReader {
+        // どちらか一方（テストではワールドの代わりにsourceから読む）
+        private final ServerLevel level;
+        private final BulkBlockWriter.BlockSource source;
+        private final BoundingBox region;
+        private final int sectionMinX;
+        private final int sectionMinY;
+        private final int sectionMinZ;
+        private final int sectionsY;
+        private final int sectionsZ;
+        private final Map<BlockState, Integer> paletteIndex = new IdentityHashMap<>();
+        private final List<BlockState> palette = new ArrayList<>();
+        // セクションごとのレコードの位置（読み取った順に関係なく、ファイルの順に並べる）
+        private final int[] offsets;
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream records = new DataOutputStream(recordBytes);
+
+        private final Map<BlockState, Integer> localIndex = new IdentityHashMap<>();
+        private final List<Integer> localPalette = new ArrayList<>();
+        private final int[] values = new int[16 * 16 * 16];
+        private int captured = 0;
+
+        /**
+         * regionはワールドの高さの範囲内であること
+         */
+        public Capture(ServerLevel level, BoundingBox region) {
+            this(level, null, region);
+        }
+
+        /**
+         * ワールドの代わりにsourceの状態を読む
+         */
+        Capture(BulkBlockWriter.BlockSource source, BoundingBox region) {
+            this(null, source, region);
+        }
+
+        private Capture(ServerLevel level, BulkBlockWriter.BlockSource source, BoundingBox region) {
+            this.level = level;
+            this.source = source;
+            this.region = region;
+            this.sectionMinX = region.minX() >> 4;
+            this.sectionMinY = region.minY() >> 4;
+            this.sectionMinZ = region.minZ() >> 4;
+            this.sectionsY = (region.maxY() >> 4) - sectionMinY + 1;
+            this.sectionsZ = (region.maxZ() >> 4) - sectionMinZ + 1;
+            this.offsets = new int[((region.maxX() >> 4) - sectionMinX + 1) * sectionsY * sectionsZ];
+        }
+
+        /**
+         * sliceが重なるセクションを1つ読む（sliceは1つのセクションに収まること）
+         */
+        @Override
+        public void read(BoundingBox slice) {
+            int sectionX = slice.minX() >> 4;
+            int sectionY = slice.minY() >> 4;
+            int sectionZ = slice.minZ() >> 4;
+            LevelChunkSection section = null;
+            if (level != null) {
+                LevelChunk chunk = level.getChunk(sectionX, sectionZ);
+                section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionY));
+            }
+
+            localIndex.clear();
+            localPalette.clear();
+            int count = 0;
+            for (int y = slice.minY(); y <= slice.maxY(); y++) {
+                for (int z = slice.minZ(); z <= slice.maxZ(); z++) {
+                    for (int x = slice.minX(); x <= slice.maxX(); x++) {
+                        BlockState state = section != null ? section.getBlockState(x & 15, y & 15, z & 15) : source.getState(x, y, z);
+                        Integer local = localIndex.get(state);
+                        if (local == null) {
+                            local = localPalette.size();
+                            localIndex.put(state, local);
+                            Integer global = paletteIndex.get(state);
+                            if (global == null) {
+                                global = palette.size();
+                                paletteIndex.put(state, global);
+                                palette.add(state);
+                            }
+                            localPalette.add(global);
+                        }
+                        values[count++] = local;
+                    }
+                }
+            }
+
+            int index = ((sectionX - sectionMinX) * sectionsZ + (sectionZ - sectionMinZ)) * sectionsY + (sectionY - sectionMinY);
+            offsets[index] = records.size();
+            try {
+                records.writeShort(localPalette.size());
+                for (int global : localPalette) {
+                    records.writeInt(global);
+                }
+                int bits = bitsFor(localPalette.size());
+                records.writeByte(bits);
+                if (bits > 0) {
+                    int perLong = 64 / bits;
+                    for (int start = 0; start < count; start += perLong) {
+                        long word = 0;
+                        for (int i = 0; i < perLong && start + i < count; i++) {
+                            word |= (long) values[start + i] << (i * bits);
+                        }
+                        records.writeLong(word);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            captured++;
+        }
+
+        /**
+         * ファイルの内容を返す（すべてのセクションを読み終えていること）
+         */
+        public ByteBuffer toBuffer() throws IOException {
+            if (captured != offsets.length) {
+                throw new IllegalStateException("Captured " + captured + " of " + offsets.length + " sections");
+            }
+            ByteArrayOutputStream fileBytes = new ByteArrayOutputStream(recordBytes.size() + 1024);
+            DataOutputStream out = new DataOutputStream(fileBytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(region.minX());
+            out.writeInt(region.minY());
+            out.writeInt(region.minZ());
+            out.writeInt(region.maxX());
+            out.writeInt(region.maxY());
+            out.writeInt(region.maxZ());
+            out.writeInt(palette.size());
+            for (BlockState state : palette) {
+                byte[] bytes = BlockStateParser.serialize(state).getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(offsets.length);
+            int recordsStart = out.size() + offsets.length * 4;
+            for (int offset : offsets) {
+                out.writeInt(recordsStart + offset);
+            }
+            recordBytes.writeTo(out);
+            out.flush();
+            return ByteBuffer.wrap(fileBytes.toByteArray());
+        }
+    }
+
+    public BoundingBox getRegion() {
+        return region;
+    }
+
+    public int getSectionCount() {
+        return sectionCount;
+    }
+
+    @Override
+    public BlockState getState(int x, int y, int z) {
+        select(x >> 4, y >> 4, z >> 4);
+        if (currentBits == 0) {
+            return currentPalette[0];
+        }
+        BoundingBox slice = currentSlice;
+        int i = ((y - slice.minY()) * slice.getZSpan() + (z - slice.minZ())) * slice.getXSpan() + (x - slice.minX());
+        int perLong = 64 / currentBits;
+        long word = data.getLong(currentDataOffset + (i / perLong) * 8);
+        return currentPalette[(int) (word >>> ((i % perLong) * currentBits)) & ((1 << currentBits) - 1)];
+    }
+
+    @Override
+    public BlockState getUniformState(BoundingBox slice) {
+        select(slice.minX() >> 4, slice.minY() >> 4, slice.minZ() >> 4);
+        return currentBits == 0 ? currentPalette[0] : null;
+    }
+
+    /**
+     * セクションのレコードを展開する（直前と同じなら何もしない）
+     */
+    private void select(int sectionX, int sectionY, int sectionZ) {
+        int index = ((sectionX - sectionMinX) * sectionsZ + (sectionZ - sectionMinZ)) * sectionsY + (sectionY - sectionMinY);
+        if (index == currentIndex) {
+            return;
+        }
+
+        int position = data.getInt(tableOffset + index * 4);
+        int localSize = data.getShort(position) & 0xFFFF;
+        position += 2;
+        BlockState[] local = new BlockState[localSize];
+        for (int i = 0; i < localSize; i++) {
+            local[i] = palette[data.getInt(position)];
+            position += 4;
+        }
+        currentBits = data.get(position) & 0xFF;
+        currentDataOffset = position + 1;
+        currentPalette = local;
+        currentSlice = slice(region, sectionX, sectionY, sectionZ);
+        currentIndex = index;
+    }
+
+    private long expectedSectionCount() {
+        long sectionsX = (region.maxX() >> 4) - sectionMinX + 1;
+        return sectionsX * sectionsY * sectionsZ;
+    }
+
+    private static BoundingBox slice(BoundingBox region, int sectionX, int sectionY, int sectionZ) {
+        return new BoundingBox(
+            Math.max(region.minX(), sectionX << 4), Math.max(region.minY(), sectionY << 4), Math.max(region.minZ(), sectionZ << 4),
+            Math.min(region.maxX(), (sectionX << 4) + 15), Math.min(region.maxY(), (sectionY << 4) + 15), Math.min(region.maxZ(), (sectionZ << 4) + 15));
+    }
+
+    private static int bitsFor(int paletteSize) {
+        return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    private static BlockState parseState(String value) {
+        try {
+            return BlockStateParser.parseForBlock(BuiltInRegistries.BLOCK.asLookup(), value, false).blockState();
+        } catch (Exception e) {
+            // 保存後に削除されたMODのブロックなど
+            MinecraftEduMod.LOGGER.warn("Unknown block state in snapshot: " + value);
+            return Blocks.AIR.defaultBlockState();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.state.properties.Property;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 条件に合う状態のブロックだけを置き換えるソース（replaceBlocks）
+ *
+ * matchと同じブロックで、propertiesに挙げたプロパティの値もmatchと同じ状態を置き換える
+ * （propertiesが空ならそのブロックのどの状態も置き換える）。
+ * パレットに条件に合う状態が無いセクションはブロックを読まずに飛ばす。
+ */
+public class ReplaceBlockSource implements BulkBlockWriter.BlockSource {
+
+    private final BlockState match;
+    private final List<Property<?>> properties;
+    private final BulkBlockWriter.BlockSource replacement;
+
+    public ReplaceBlockSource(BlockState match, Collection<Property<?>> properties, BulkBlockWriter.BlockSource replacement) {
+        this.match = match;
+        this.properties = List.copyOf(properties);
+        this.replacement = replacement;
+    }
+
+    /**
+     * 今の状態が分からないので何も置き換えない（書き込みでは今の状態を渡す方が呼ばれる）
+     */
+    @Override
+    public BlockState getState(int x, int y, int z) {
+        return null;
+    }
+
+    @Override
+    public BlockState getState(int x, int y, int z, BlockState current) {
+        return matches(current) ? replacement.getState(x, y, z) : null;
+    }
+
+    @Override
+    public boolean mayChange(LevelChunkSection section) {
+        return section.getStates().maybeHas(this::matches);
+    }
+
+    public boolean matches(BlockState state) {
+        if (state.getBlock() != match.getBlock()) {
+            return false;
+        }
+        for (Property<?> property : properties) {
+            if (!state.getValue(property).equals(match.getValue(property))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
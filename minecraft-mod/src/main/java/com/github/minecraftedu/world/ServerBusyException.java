@@ -0,0 +1,11 @@
+package com.github.minecraftedu.world;
+
+/**
+ * サーバーの負荷が高いため範囲編集を受け付けなかった
+ */
+public class ServerBusyException extends RuntimeException {
+
+    public ServerBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,290 @@
+package com.github.minecraftedu.world;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 図形（球、円柱、線、中空の箱、ピラミッド）の位置に1種類の状態を置くソース
+ *
+ * 図形は作成時にセクションごとのビットマスクへ展開する（サーバースレッドの外で作ってよい）。
+ * 書き込みはgetBoundsの範囲（線のように囲む直方体に比べて小さい図形ではgetSlices）をWorldEditJobで行い、
+ * 図形の無いセクションは読まずに飛ばす。
+ * 図形の中だけのセクションは、すでに同じ状態だけならブロックを読まずに飛ばす。
+ * 作成後は変更しないこと。getStateはサーバースレッドからのみ呼ぶ。
+ */
+public final class ShapeBlockSource implements BulkBlockWriter.BlockSource {
+
+    /**
+     * 図形の中心（または底面の中心）からの相対位置が図形の中か
+     */
+    @FunctionalInterface
+    private interface Inside {
+        boolean test(int dx, int dy, int dz);
+    }
+
+    // 中空にするとき、これらの隣が図形の外なら表面として残す
+    private static final int[][] ALL_SIDES = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+    private static final int[][] WALLS = {{1, 0, 0}, {-1, 0, 0}, {0, 0, 1}, {0, 0, -1}};
+    private static final int[][] WALLS_AND_TOP = {{1, 0, 0}, {-1, 0, 0}, {0, 0, 1}, {0, 0, -1}, {0, 1, 0}};
+
+    private final BlockState blockState;
+    // セクション → セクション内の位置のビット（y << 8 | z << 4 | x）
+    private final Long2ObjectMap<BitSet> sections = new Long2ObjectOpenHashMap<>();
+    private long blockCount = 0;
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxY = Integer.MIN_VALUE;
+    private int maxZ = Integer.MIN_VALUE;
+
+    // 直前に引いたセクション（getStateは同じセクション内で続けて呼ばれる）
+    private long lastSection = Long.MIN_VALUE;
+    private BitSet lastBits;
+
+    private ShapeBlockSource(BlockState blockState) {
+        this.blockState = blockState;
+    }
+
+    /**
+     * 中心(cx, cy, cz)、半径radiusの球（hollowなら厚さ1の球面）
+     */
+    public static ShapeBlockSource sphere(int cx, int cy, int cz, int radius, boolean hollow, BlockState blockState) {
+        double limit = (radius + 0.5) * (radius + 0.5);
+        ShapeBlockSource shape = new ShapeBlockSource(blockState);
+        shape.rasterize(cx, cy, cz, radius, -radius, radius, (dx, dy, dz) -> (double) dx * dx + (double) dy * dy + (double) dz * dz < limit,
+            hollow ? ALL_SIDES : null);
+        return shape;
+    }
+
+    /**
+     * 底面の中心(cx, cy, cz)から上へ高さheightの円柱（hollowなら上下の面の無い厚さ1の筒）
+     */
+    public static ShapeBlockSource cylinder(int cx, int cy, int cz, int radius, int height, boolean hollow, BlockState blockState) {
+        double limit = (radius + 0.5) * (radius + 0.5);
+        ShapeBlockSource shape = new ShapeBlockSource(blockState);
+        shape.rasterize(cx, cy, cz, radius, 0, height - 1,
+            (dx, dy, dz) -> dy >= 0 && dy < height && (double) dx * dx + (double) dz * dz < limit, hollow ? WALLS : null);
+        return shape;
+    }
+
+    /**
+     * 底面の中心(cx, cy, cz)から上へ高さheightのピラミッド（底面は一辺 2 * height - 1、hollowなら底の無い厚さ1の面）
+     */
+    public static ShapeBlockSource pyramid(int cx, int cy, int cz, int height, boolean hollow, BlockState blockState) {
+        ShapeBlockSource shape = new ShapeBlockSource(blockState);
+        shape.rasterize(cx, cy, cz, height - 1, 0, height - 1,
+            (dx, dy, dz) -> dy >= 0 && dy < height && Math.abs(dx) < height - dy && Math.abs(dz) < height - dy,
+            hollow ? WALLS_AND_TOP : null);
+        return shape;
+    }
+
+    /**
+     * 直方体の6つの面（厚さ1）。座標は正規化済み（min <= max）であること
+     */
+    public static ShapeBlockSource hollowBox(BoundingBox box, BlockState blockState) {
+        ShapeBlockSource shape = new ShapeBlockSource(blockState);
+        for (int y = box.minY(); y <= box.maxY(); y++) {
+            for (int z = box.minZ(); z <= box.maxZ(); z++) {
+                if (y == box.minY() || y == box.maxY() || z == box.minZ() || z == box.maxZ()) {
+                    for (int x = box.minX(); x <= box.maxX(); x++) {
+                        shape.set(x, y, z);
+                    }
+                } else {
+                    shape.set(box.minX(), y, z);
+                    shape.set(box.maxX(), y, z);
+                }
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * 2点を結ぶ線（3次元のブレゼンハム、両端を含む）
+     */
+    public static ShapeBlockSource line(int x1, int y1, int z1, int x2, int y2, int z2, BlockState blockState) {
+        ShapeBlockSource shape = new ShapeBlockSource(blockState);
+        int dx = Math.abs(x2 - x1);
+        int dy = Math.abs(y2 - y1);
+        int dz = Math.abs(z2 - z1);
+        int sx = Integer.signum(x2 - x1);
+        int sy = Integer.signum(y2 - y1);
+        int sz = Integer.signum(z2 - z1);
+        int x = x1;
+        int y = y1;
+        int z = z1;
+        shape.set(x, y, z);
+
+        // 最も長い軸を1つずつ進め、他の軸は誤差が半分を超えたら進める
+        if (dx >= dy && dx >= dz) {
+            int errY = 2 * dy - dx;
+            int errZ = 2 * dz - dx;
+            for (int i = 0; i < dx; i++) {
+                x += sx;
+                if (errY >= 0) {
+                    y += sy;
+                    errY -= 2 * dx;
+                }
+                if (errZ >= 0) {
+                    z += sz;
+                    errZ -= 2 * dx;
+                }
+                errY += 2 * dy;
+                errZ += 2 * dz;
+                shape.set(x, y, z);
+            }
+        } else if (dy >= dx && dy >= dz) {
+            int errX = 2 * dx - dy;
+            int errZ = 2 * dz - dy;
+            for (int i = 0; i < dy; i++) {
+                y += sy;
+                if (errX >= 0) {
+                    x += sx;
+                    errX -= 2 * dy;
+                }
+                if (errZ >= 0) {
+                    z += sz;
+                    errZ -= 2 * dy;
+                }
+                errX += 2 * dx;
+                errZ += 2 * dz;
+                shape.set(x, y, z);
+            }
+        } else {
+            int errX = 2 * dx - dz;
+            int errY = 2 * dy - dz;
+            for (int i = 0; i < dz; i++) {
+                z += sz;
+                if (errX >= 0) {
+                    x += sx;
+                    errX -= 2 * dz;
+                }
+                if (errY >= 0) {
+                    y += sy;
+                    errY -= 2 * dz;
+                }
+                errX += 2 * dx;
+                errY += 2 * dy;
+                shape.set(x, y, z);
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * 図形を囲む直方体（図形が空でないこと）
+     */
+    public BoundingBox getBounds() {
+        return new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /**
+     * 図形のブロック数
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * 図形のあるセクションごとに、そのセクションの図形を囲む直方体（セクションX → Z → Y の順）
+     */
+    public List<BoundingBox> getSlices() {
+        List<BoundingBox> slices = new ArrayList<>(sections.size());
+        for (Long2ObjectMap.Entry<BitSet> entry : sections.long2ObjectEntrySet()) {
+            long section = entry.getLongKey();
+            BitSet bits = entry.getValue();
+            int localMinX = 15, localMinY = 15, localMinZ = 15;
+            int localMaxX = 0, localMaxY = 0, localMaxZ = 0;
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                localMinX = Math.min(localMinX, i & 15);
+                localMaxX = Math.max(localMaxX, i & 15);
+                localMinZ = Math.min(localMinZ, (i >> 4) & 15);
+                localMaxZ = Math.max(localMaxZ, (i >> 4) & 15);
+                localMinY = Math.min(localMinY, i >> 8);
+                localMaxY = Math.max(localMaxY, i >> 8);
+            }
+            int baseX = SectionPos.sectionToBlockCoord(SectionPos.x(section));
+            int baseY = SectionPos.sectionToBlockCoord(SectionPos.y(section));
+            int baseZ = SectionPos.sectionToBlockCoord(SectionPos.z(section));
+            slices.add(new BoundingBox(baseX + localMinX, baseY + localMinY, baseZ + localMinZ,
+                baseX + localMaxX, baseY + localMaxY, baseZ + localMaxZ));
+        }
+        slices.sort(Comparator.comparingInt(BoundingBox::minX).thenComparingInt(BoundingBox::minZ).thenComparingInt(BoundingBox::minY));
+        return slices;
+    }
+
+    @Override
+    public BlockState getState(int x, int y, int z) {
+        long section = SectionPos.asLong(x >> 4, y >> 4, z >> 4);
+        if (section != lastSection) {
+            lastSection = section;
+            lastBits = sections.get(section);
+        }
+        return lastBits != null && lastBits.get(index(x, y, z)) ? blockState : null;
+    }
+
+    @Override
+    public BlockState getUniformState(BoundingBox slice) {
+        // セクションのビットはすべて図形を囲む範囲の中にあるので、数が範囲の体積と同じならすべて図形の中
+        BitSet bits = sections.get(SectionPos.asLong(slice.minX() >> 4, slice.minY() >> 4, slice.minZ() >> 4));
+        long volume = (long) slice.getXSpan() * slice.getYSpan() * slice.getZSpan();
+        return bits != null && bits.cardinality() == volume ? blockState : null;
+    }
+
+    @Override
+    public boolean hasChanges(BoundingBox slice) {
+        return sections.containsKey(SectionPos.asLong(slice.minX() >> 4, slice.minY() >> 4, slice.minZ() >> 4));
+    }
+
+    /**
+     * 中心から各軸に±extent（Yは fromDy ～ toDy）の範囲で、insideの位置（hollowSidesがあれば表面だけ）を加える
+     */
+    private void rasterize(int cx, int cy, int cz, int extent, int fromDy, int toDy, Inside inside, int[][] hollowSides) {
+        for (int dy = fromDy; dy <= toDy; dy++) {
+            for (int dz = -extent; dz <= extent; dz++) {
+                for (int dx = -extent; dx <= extent; dx++) {
+                    if (inside.test(dx, dy, dz) && (hollowSides == null || isSurface(inside, dx, dy, dz, hollowSides))) {
+                        set(cx + dx, cy + dy, cz + dz);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isSurface(Inside inside, int dx, int dy, int dz, int[][] sides) {
+        for (int[] side : sides) {
+            if (!inside.test(dx + side[0], dy + side[1], dz + side[2])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void set(int x, int y, int z) {
+        BitSet bits = sections.computeIfAbsent(SectionPos.asLong(x >> 4, y >> 4, z >> 4), key -> new BitSet(4096));
+        int index = index(x, y, z);
+        if (bits.get(index)) {
+            return;
+        }
+        bits.set(index);
+        blockCount++;
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+    }
+}
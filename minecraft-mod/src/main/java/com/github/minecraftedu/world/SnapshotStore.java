@@ -0,0 +1,162 @@
+package com.github.minecraftedu.world;
+
+import com.github.minecraftedu.MinecraftEduMod;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 名前付きのRegionSnapshotの保存先（&lt;ワールド&gt;/minecraftedu/snapshots）
+ *
+ * 開いたスナップショットはメモリマップしたまま保持し、同じ名前の復元で使い回す。
+ * マップしたファイルは置き換えられない（Windows）ので、保存するたびに版番号の付いた新しいファイル
+ * （&lt;名前&gt;.&lt;版&gt;.snapshot）へ書き、一番新しい版を開く。古い版は消せたときに消す。
+ * どのスレッドから呼んでもよい。
+ */
+public class SnapshotStore {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String EXTENSION = ".snapshot";
+
+    private final Path directory;
+    // 名前ごとの一番新しい版と、開いたその版（thisで保護）
+    private final Map<String, Long> latest = new HashMap<>();
+    private final Map<String, RegionSnapshot> opened = new HashMap<>();
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * ファイル名として使える名前か（英数字、_、- のみ）
+     */
+    public static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+
+    /**
+     * スナップショットを保存する（同じ名前があれば置き換える）
+     * 置き換える前に開いたRegionSnapshotは、前の版のファイルを読み続ける
+     */
+    public void save(String name, ByteBuffer contents) throws IOException {
+        Files.createDirectories(directory);
+        long version;
+        synchronized (this) {
+            version = latestVersion(name) + 1;
+            // 書き終わる前に同じ名前を保存しても別の版になるように、先に番号を進める
+            latest.put(name, version);
+        }
+        Path file = versionFile(name, version);
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            opened.remove(name);
+        }
+        deleteOlderVersions(name, version);
+    }
+
+    /**
+     * スナップショット（一番新しい版）を開く（無ければNoSuchFileException）
+     */
+    public synchronized RegionSnapshot open(String name) throws IOException {
+        RegionSnapshot snapshot = opened.get(name);
+        if (snapshot == null) {
+            long version = latestVersion(name);
+            // 保存中の版はまだファイルが無いので、書き終わった版を探し直す
+            Path file = versionFile(name, version);
+            if (!Files.exists(file)) {
+                file = versionFile(name, scanLatestVersion(name));
+            }
+            snapshot = RegionSnapshot.open(file);
+            if (file.equals(versionFile(name, latestVersion(name)))) {
+                opened.put(name, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    private long latestVersion(String name) throws IOException {
+        Long version = latest.get(name);
+        if (version == null) {
+            version = scanLatestVersion(name);
+            latest.put(name, version);
+        }
+        return version;
+    }
+
+    /**
+     * ディレクトリにある一番新しい版（無ければ0）
+     */
+    private long scanLatestVersion(String name) throws IOException {
+        long max = 0;
+        if (!Files.isDirectory(directory)) {
+            return max;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "*" + EXTENSION)) {
+            for (Path file : files) {
+                max = Math.max(max, versionOf(name, file.getFileName().toString()));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * versionより古い版を消す。マップしたまま消せない（Windows）ファイルは次の保存で消す
+     */
+    private void deleteOlderVersions(String name, long version) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "*" + EXTENSION)) {
+            for (Path file : files) {
+                long fileVersion = versionOf(name, file.getFileName().toString());
+                if (fileVersion >= 0 && fileVersion < version) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        MinecraftEduMod.LOGGER.debug("Old snapshot still in use: " + file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            MinecraftEduMod.LOGGER.warn("Failed to delete old snapshots of " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 版0は版番号の無いファイル（&lt;名前&gt;.snapshot）
+     */
+    private Path versionFile(String name, long version) {
+        return directory.resolve(version == 0 ? name + EXTENSION : name + "." + version + EXTENSION);
+    }
+
+    /**
+     * ファイル名がnameの版ならその番号、違えば-1
+     */
+    private static long versionOf(String name, String fileName) {
+        if (fileName.equals(name + EXTENSION)) {
+            return 0;
+        }
+        if (!fileName.startsWith(name + ".") || !fileName.endsWith(EXTENSION)) {
+            return -1;
+        }
+        String version = fileName.substring(name.length() + 1, fileName.length() - EXTENSION.length());
+        try {
+            return Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
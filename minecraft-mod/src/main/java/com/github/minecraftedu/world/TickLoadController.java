@@ -0,0 +1,76 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * サーバーの負荷（MSPT）に合わせて、このMODがワールドの処理に使う時間を調整する
+ *
+ * 1ティックの時間はサーバー本来の処理、MODのタスク（WorldEditScheduler.submitTaskで投入した単発のコマンド）、
+ * 範囲編集とクエリ（WorldEditSchedulerがティックの終わりに実行する）の合計になる。サーバーの平均MSPTからMOD自身の分を除いたものを
+ * 「それ以外の処理」とみなし、合計がtargetMsptに収まるように次のティックの範囲編集の予算を決める。
+ * 予算が残らなければ範囲編集、単発のコマンド、クエリは次のティックへ延期され、すでに目標を超えていれば新しい範囲編集を断る。
+ * isOverloaded以外はサーバースレッドから呼ぶこと。
+ */
+public class TickLoadController {
+
+    // 平均の更新に使う重み（MinecraftServerのaverageTickTimeと同程度）
+    private static final double SMOOTHING = 0.2;
+    private static final double NANOS_PER_MS = 1000 * 1000.0;
+
+    private final MinecraftServer server;
+    private final double targetMs;
+    private final long maxBudgetNanos;
+
+    // 前回のティック以降にMODのタスクが使った時間
+    private long taskNanos = 0;
+    private double averageTaskMs = 0;
+    private double averageEditMs = 0;
+    private volatile boolean overloaded = false;
+
+    public TickLoadController(MinecraftServer server, int targetMspt, int maxBudgetMs) {
+        this.server = server;
+        this.targetMs = targetMspt;
+        this.maxBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxBudgetMs));
+    }
+
+    /**
+     * MODのタスクがサーバースレッドで使った時間を記録する
+     */
+    public void recordTask(long nanos) {
+        taskNanos += nanos;
+    }
+
+    /**
+     * このティックで範囲編集に使ってよい時間（ナノ秒）を返す。0なら延期する
+     */
+    long beginTick() {
+        averageTaskMs += (taskNanos / NANOS_PER_MS - averageTaskMs) * SMOOTHING;
+        taskNanos = 0;
+
+        double mspt = server.getAverageTickTime();
+        double otherMs = Math.max(0, mspt - averageEditMs);
+        overloaded = otherMs + averageTaskMs >= targetMs;
+
+        double budgetMs = targetMs - otherMs - averageTaskMs;
+        if (budgetMs <= 0) {
+            return 0;
+        }
+        return Math.min(maxBudgetNanos, (long) (budgetMs * NANOS_PER_MS));
+    }
+
+    /**
+     * このティックで範囲編集に使った時間を記録する
+     */
+    void endTick(long editNanos) {
+        averageEditMs += (editNanos / NANOS_PER_MS - averageEditMs) * SMOOTHING;
+    }
+
+    /**
+     * MOD以外の処理とMODのタスクだけで目標のMSPTに達しているか（どのスレッドから呼んでもよい）
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * WorldEditSchedulerで少しずつ実行する範囲編集
+ *
+ * 範囲をチャンクセクション（最大16x16x16）単位の小片に分け、step1回で1つずつ書き込む。
+ * 範囲の代わりに小片の一覧を渡すこともできる（編集履歴の書き戻しなど、変更のあったセクションだけを書く場合）。
+ * SliceReaderを渡すと書き込まずに小片ごとに読む（スナップショットの保存など、大きな範囲の読み取り）。
+ * クライアントへはティックの終わりに、そのティックで変わった位置をセクション（またはチャンク）単位でまとめて送る。
+ * 完了するとfutureが変更されたブロック数で完了する（サーバースレッド上で）。
+ */
+public class WorldEditJob {
+
+    /**
+     * 進捗の通知先（サーバースレッドから呼ばれる）
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(long processed, long total);
+    }
+
+    /**
+     * 小片ごとの読み取り（サーバースレッドから、セクションX → Z → Y の順に呼ばれる）
+     */
+    @FunctionalInterface
+    public interface SliceReader {
+        void read(BoundingBox slice);
+    }
+
+    // 読み取りのジョブではnull
+    private final BulkBlockWriter writer;
+    // 小片の一覧を渡した場合はnull（外周の隣接更新は小片ごとに行う）
+    private final BoundingBox region;
+    private final List<BoundingBox> slices;
+    private final BulkBlockWriter.BlockSource source;
+    // 書き込みのジョブではnull
+    private final SliceReader reader;
+    private final ProgressListener listener;
+    private final long total;
+    private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+    // 次に書き込む小片（チャンク座標とセクションY、または一覧の位置）
+    private int chunkX;
+    private int chunkZ;
+    private int sectionY;
+    private int sliceIndex = 0;
+
+    private long processed = 0;
+    private int changed = 0;
+    private long serverTimeNanos = 0;
+    private int ticks = 0;
+    private boolean steppedThisTick = false;
+    private long lastProgressAt;
+
+    public WorldEditJob(ServerLevel level, BoundingBox region, BulkBlockWriter.BlockSource source, ProgressListener listener) {
+        this(level, region, source, null, EditOptions.DEFAULT, listener);
+    }
+
+    /**
+     * recorderを渡すと、書き換えたブロックの変更前の状態を記録する
+     */
+    public WorldEditJob(ServerLevel level, BoundingBox region, BulkBlockWriter.BlockSource source,
+                        EditJournal.Recorder recorder, EditOptions options, ProgressListener listener) {
+        this(new BulkBlockWriter(level, recorder, options), region, source, null, listener);
+    }
+
+    /**
+     * 範囲を書き込まずに、セクション単位の小片ごとにreaderで読む（完了したときの変更数は0）
+     */
+    public WorldEditJob(BoundingBox region, SliceReader reader, ProgressListener listener) {
+        this(null, region, null, reader, listener);
+    }
+
+    private WorldEditJob(BulkBlockWriter writer, BoundingBox region, BulkBlockWriter.BlockSource source, SliceReader reader,
+                         ProgressListener listener) {
+        this.writer = writer;
+        this.region = region;
+        this.slices = null;
+        this.source = source;
+        this.reader = reader;
+        this.listener = listener;
+        this.total = volume(region);
+        this.chunkX = region.minX() >> 4;
+        this.chunkZ = region.minZ() >> 4;
+        this.sectionY = region.minY() >> 4;
+        this.lastProgressAt = System.currentTimeMillis();
+    }
+
+    /**
+     * slicesの小片だけを書き込む（それぞれ1つのセクションに収まり、空でないこと）
+     */
+    public WorldEditJob(ServerLevel level, List<BoundingBox> slices, BulkBlockWriter.BlockSource source,
+                        EditJournal.Recorder recorder, EditOptions options, ProgressListener listener) {
+        this.writer = new BulkBlockWriter(level, recorder, options);
+        this.region = null;
+        this.slices = List.copyOf(slices);
+        this.source = source;
+        this.reader = null;
+        this.listener = listener;
+        this.total = this.slices.stream().mapToLong(WorldEditJob::volume).sum();
+        this.lastProgressAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 小片を1つ書き込む。すべて書き終えたらtrue
+     */
+    boolean step() {
+        if (slices != null) {
+            BoundingBox slice = slices.get(sliceIndex++);
+            write(slice, slice);
+            return sliceIndex >= slices.size();
+        }
+
+        int minX = Math.max(region.minX(), chunkX << 4);
+        int maxX = Math.min(region.maxX(), (chunkX << 4) + 15);
+        int minY = Math.max(region.minY(), sectionY << 4);
+        int maxY = Math.min(region.maxY(), (sectionY << 4) + 15);
+        int minZ = Math.max(region.minZ(), chunkZ << 4);
+        int maxZ = Math.min(region.maxZ(), (chunkZ << 4) + 15);
+        write(region, new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ));
+
+        // セクションY → チャンクZ → チャンクX の順に進める
+        if (++sectionY > region.maxY() >> 4) {
+            sectionY = region.minY() >> 4;
+            if (++chunkZ > region.maxZ() >> 4) {
+                chunkZ = region.minZ() >> 4;
+                chunkX++;
+            }
+        }
+        return chunkX > region.maxX() >> 4;
+    }
+
+    private void write(BoundingBox edges, BoundingBox slice) {
+        long start = System.nanoTime();
+        if (reader != null) {
+            reader.read(slice);
+        } else if (source.hasChanges(slice)) {
+            changed += writer.fill(edges, slice, source);
+        }
+        serverTimeNanos += System.nanoTime() - start;
+        processed += volume(slice);
+        steppedThisTick = true;
+    }
+
+    /**
+     * ティックの終わりに呼ぶ。このティックで進んでいれば、前回の通知からintervalMs以上経った時点で進捗を通知する
+     */
+    void endTick(long intervalMs) {
+        if (!steppedThisTick) {
+            return;
+        }
+        steppedThisTick = false;
+        ticks++;
+        if (writer != null) {
+            writer.flushChanges();
+        }
+        long now = System.currentTimeMillis();
+        if (listener != null && now - lastProgressAt >= intervalMs) {
+            lastProgressAt = now;
+            listener.onProgress(processed, total);
+        }
+    }
+
+    public CompletableFuture<Integer> getFuture() {
+        return future;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * 書き込みに使ったサーバースレッドの時間（ミリ秒）
+     */
+    public double getServerTimeMs() {
+        return serverTimeNanos / 1000 / 1000.0;
+    }
+
+    /**
+     * 処理にかかったティック数
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    void complete() {
+        if (steppedThisTick) {
+            steppedThisTick = false;
+            ticks++;
+        }
+        if (writer != null) {
+            writer.flushChanges();
+        }
+        future.complete(changed);
+    }
+
+    void cancel(Throwable reason) {
+        // 途中まで書き込んだ分をクライアントへ送る
+        if (writer != null) {
+            writer.flushChanges();
+        }
+        future.completeExceptionally(reason);
+    }
+
+    private static long volume(BoundingBox box) {
+        return (long) box.getXSpan() * box.getYSpan() * box.getZSpan();
+    }
+}
@@ -0,0 +1,233 @@
+package com.github.minecraftedu.world;
+
+import com.github.minecraftedu.MinecraftEduMod;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 大きな範囲編集をティックごとに少しずつ実行するスケジューラー
+ *
+ * Forgeのイベントバスに登録し、ServerTickEventの終わりにジョブを実行する。
+ * 1ティックに使う時間はTickLoadControllerがサーバーのMSPTから決める（最大tickBudgetMs）。
+ * 複数のジョブは小片ごとに順番に進めるので、大きな編集があっても他のクライアントの編集は待たされない。
+ * 単発のタスク（1ブロックの書き込み、batch、バイナリメッセージ）もsubmitTaskで受け付け、
+ * 負荷が目標を超えている間は範囲編集と同じくティックの予算の中で実行する。
+ * 読み取り（QueryBatcherのクエリ）は常にティックの終わりに同じ予算の中でまとめて実行する（予算が無ければ延期する）。
+ * submitとsubmitTaskはどのスレッドから呼んでもよい。
+ */
+public class WorldEditScheduler {
+
+    // 進捗を通知する間隔
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+    // 負荷が下がらなくても、この間隔で1つは小片を進める（ジョブが止まったままにならないように）
+    private static final int MAX_DEFERRED_TICKS = 20;
+
+    private final MinecraftServer server;
+    private final TickLoadController loadController;
+    private final long maxQueuedVolume;
+    // 実行待ちの単発のタスク（受け付けた順）
+    private final Queue<QueuedTask<?>> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<WorldEditJob> submitted = new ConcurrentLinkedQueue<>();
+    private final QueryBatcher queryBatcher = new QueryBatcher();
+    // 実行中のジョブ（サーバースレッドのみ）
+    private final Deque<WorldEditJob> active = new ArrayDeque<>();
+    // 登録済みで書き終わっていないジョブの合計ブロック数
+    private final AtomicLong queuedVolume = new AtomicLong();
+    private int deferredTicks = 0;
+    private volatile boolean stopped = false;
+
+    public WorldEditScheduler(MinecraftServer server, int tickBudgetMs, int targetMspt, long maxQueuedVolume) {
+        this.server = server;
+        this.loadController = new TickLoadController(server, targetMspt, tickBudgetMs);
+        this.maxQueuedVolume = maxQueuedVolume;
+    }
+
+    /**
+     * ジョブを登録する。完了すると変更されたブロック数でfutureが完了する
+     * サーバーの負荷が目標を超えている間に他のジョブが残っている場合や、
+     * 待ちの合計がmaxQueuedVolumeを超える場合はServerBusyExceptionで失敗する
+     */
+    public CompletableFuture<Integer> submit(WorldEditJob job) {
+        if (stopped) {
+            job.cancel(new CancellationException("Server is stopping"));
+            return job.getFuture();
+        }
+
+        long queued = queuedVolume.addAndGet(job.getTotal());
+        boolean busy = loadController.isOverloaded() && queued > job.getTotal();
+        if (busy || queued > maxQueuedVolume) {
+            queuedVolume.addAndGet(-job.getTotal());
+            MinecraftEduMod.LOGGER.warn("World edit rejected: " + job.getTotal() + " blocks (queued: " + (queued - job.getTotal())
+                + ", overloaded: " + loadController.isOverloaded() + ")");
+            job.cancel(new ServerBusyException("Server is busy"));
+            return job.getFuture();
+        }
+
+        submitted.add(job);
+        return job.getFuture();
+    }
+
+    /**
+     * 単発のタスクをサーバースレッドで実行する。結果でfutureが完了する
+     * 負荷が目標以下ならすぐに（次にサーバーがタスクを処理するときに）実行し、その時間をTickLoadControllerに記録する。
+     * 目標を超えている間はティックの終わりに範囲編集と同じ予算の中で実行する（予算が無ければ延期する）。
+     * 受け付けた順に実行するので、延期したタスクより後のタスクが先に実行されることはない
+     */
+    public <T> CompletableFuture<T> submitTask(Supplier<T> task) {
+        QueuedTask<T> queued = new QueuedTask<>(task);
+        if (stopped) {
+            queued.cancel(new CancellationException("Server is stopping"));
+            return queued.future;
+        }
+        tasks.add(queued);
+        if (!loadController.isOverloaded()) {
+            server.execute(this::runTasks);
+        }
+        return queued.future;
+    }
+
+    /**
+     * 負荷が目標を超えるまで、待っているタスクを順に実行する（サーバースレッド）
+     */
+    private void runTasks() {
+        QueuedTask<?> task;
+        while (!loadController.isOverloaded() && (task = tasks.poll()) != null) {
+            long start = System.nanoTime();
+            task.run();
+            loadController.recordTask(System.nanoTime() - start);
+        }
+    }
+
+    public TickLoadController getLoadController() {
+        return loadController;
+    }
+
+    /**
+     * ティックの終わりにまとめて実行する読み取りの受け付け
+     */
+    public QueryBatcher getQueryBatcher() {
+        return queryBatcher;
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+
+        long budget = loadController.beginTick();
+
+        WorldEditJob job;
+        while ((job = submitted.poll()) != null) {
+            active.add(job);
+        }
+        if (active.isEmpty() && tasks.isEmpty() && queryBatcher.isEmpty()) {
+            loadController.endTick(0);
+            return;
+        }
+
+        // 予算が無ければ延期する（MAX_DEFERRED_TICKSごとに1つだけは進める）
+        if (budget == 0 && ++deferredTicks < MAX_DEFERRED_TICKS) {
+            loadController.endTick(0);
+            return;
+        }
+        deferredTicks = 0;
+
+        long start = System.nanoTime();
+        long deadline = start + budget;
+        // 延期していたタスクを先に実行する（予算が無くても1つは進める）
+        QueuedTask<?> task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        // 読み取りもまとめて実行する（予算が無くても1つは読む）
+        if (!queryBatcher.isEmpty()) {
+            queryBatcher.drain(deadline);
+        }
+        // ジョブも予算が無くても1つは小片を進める
+        boolean first = true;
+        while (!active.isEmpty() && (first || System.nanoTime() < deadline)) {
+            first = false;
+            job = active.poll();
+            try {
+                if (job.step()) {
+                    finish(job);
+                    job.complete();
+                } else {
+                    active.add(job);
+                }
+            } catch (Exception e) {
+                MinecraftEduMod.LOGGER.error("World edit job failed", e);
+                finish(job);
+                job.cancel(e);
+            }
+        }
+        loadController.endTick(System.nanoTime() - start);
+
+        for (WorldEditJob running : active) {
+            running.endTick(PROGRESS_INTERVAL_MS);
+        }
+    }
+
+    private void finish(WorldEditJob job) {
+        queuedVolume.addAndGet(-job.getTotal());
+    }
+
+    /**
+     * 残っているジョブをすべて取り消す（サーバー停止時）
+     */
+    public void cancelAll() {
+        stopped = true;
+        CancellationException reason = new CancellationException("Server is stopping");
+        WorldEditJob job;
+        while ((job = submitted.poll()) != null) {
+            job.cancel(reason);
+        }
+        while ((job = active.poll()) != null) {
+            job.cancel(reason);
+        }
+        queuedVolume.set(0);
+        QueuedTask<?> task;
+        while ((task = tasks.poll()) != null) {
+            task.cancel(reason);
+        }
+        queryBatcher.cancelAll();
+    }
+
+    /**
+     * submitTaskで受け付けたタスク
+     */
+    private static final class QueuedTask<T> {
+        private final Supplier<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        QueuedTask(Supplier<T> task) {
+            this.task = task;
+        }
+
+        void run() {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        void cancel(Throwable reason) {
+            future.completeExceptionally(reason);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.minecraftedu.commands;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * RequestOrderのテスト（受け取った順の読み取り・書き込みの順番）
+ */
+class RequestOrderTest {
+
+    private final RequestOrder order = new RequestOrder();
+
+    @Test
+    void readWaitsForEarlierWrite() {
+        RequestOrder.Ticket write = order.next();
+        RequestOrder.Ticket read = order.next();
+        assertTrue(write.declare(RequestOrder.Kind.WRITE).isDone());
+
+        CompletableFuture<Void> ready = read.declare(RequestOrder.Kind.READ);
+        assertFalse(ready.isDone());
+
+        write.close();
+        assertTrue(ready.isDone());
+    }
+
+    @Test
+    void readsDoNotWaitForEachOther() {
+        RequestOrder.Ticket first = order.next();
+        RequestOrder.Ticket second = order.next();
+        first.declare(RequestOrder.Kind.READ);
+
+        assertTrue(second.declare(RequestOrder.Kind.READ).isDone());
+    }
+
+    @Test
+    void writeWaitsForEarlierRead() {
+        RequestOrder.Ticket read = order.next();
+        RequestOrder.Ticket write = order.next();
+        read.declare(RequestOrder.Kind.READ);
+
+        CompletableFuture<Void> ready = write.declare(RequestOrder.Kind.WRITE);
+        assertFalse(ready.isDone());
+
+        read.close();
+        assertTrue(ready.isDone());
+    }
+
+    @Test
+    void writeWaitsForEarlierWrite() {
+        RequestOrder.Ticket fill = order.next();
+        RequestOrder.Ticket setBlock = order.next();
+        fill.declare(RequestOrder.Kind.WRITE);
+
+        CompletableFuture<Void> ready = setBlock.declare(RequestOrder.Kind.WRITE);
+        assertFalse(ready.isDone());
+
+        fill.close();
+        assertTrue(ready.isDone());
+    }
+
+    @Test
+    void waitsForWorkTrackedBeyondResponse() {
+        RequestOrder.Ticket fill = order.next();
+        RequestOrder.Ticket setBlock = order.next();
+        fill.declare(RequestOrder.Kind.WRITE);
+        // QUEUEDモード: 応答（close）の後も範囲編集が続く
+        CompletableFuture<Integer> job = new CompletableFuture<>();
+        fill.track(job);
+        fill.close();
+
+        CompletableFuture<Void> ready = setBlock.declare(RequestOrder.Kind.WRITE);
+        assertFalse(ready.isDone());
+
+        job.completeExceptionally(new IllegalStateException("failed edits also count as finished"));
+        assertTrue(ready.isDone());
+    }
+
+    @Test
+    void ignoresWorkTrackedAfterClose() {
+        RequestOrder.Ticket write = order.next();
+        RequestOrder.Ticket read = order.next();
+        write.declare(RequestOrder.Kind.WRITE);
+        write.close();
+        write.track(new CompletableFuture<>());
+
+        assertTrue(read.declare(RequestOrder.Kind.READ).isDone());
+    }
+
+    @Test
+    void waitsUntilEarlierTicketDeclares() {
+        RequestOrder.Ticket earlier = order.next();
+        RequestOrder.Ticket read = order.next();
+
+        CompletableFuture<Void> ready = read.declare(RequestOrder.Kind.READ);
+        assertFalse(ready.isDone());
+
+        // 読み取り同士なので、宣言した時点で待たなくてよくなる
+        earlier.declare(RequestOrder.Kind.READ);
+        assertTrue(ready.isDone());
+    }
+
+    @Test
+    void closingWithoutDeclaringReleasesLaterTickets() {
+        RequestOrder.Ticket failed = order.next();
+        RequestOrder.Ticket write = order.next();
+
+        CompletableFuture<Void> ready = write.declare(RequestOrder.Kind.WRITE);
+        assertFalse(ready.isDone());
+
+        failed.close();
+        assertTrue(ready.isDone());
+    }
+
+    @Test
+    void noneNeitherWaitsNorBlocks() {
+        RequestOrder.Ticket write = order.next();
+        RequestOrder.Ticket position = order.next();
+        RequestOrder.Ticket read = order.next();
+        write.declare(RequestOrder.Kind.WRITE);
+
+        assertTrue(position.declare(RequestOrder.Kind.NONE).isDone());
+        CompletableFuture<Void> ready = read.declare(RequestOrder.Kind.READ);
+        assertFalse(ready.isDone());
+
+        write.close();
+        assertTrue(ready.isDone());
+    }
+
+    @Test
+    void bothWaitsForEverythingEarlier() {
+        RequestOrder.Ticket read = order.next();
+        RequestOrder.Ticket write = order.next();
+        RequestOrder.Ticket batch = order.next();
+        RequestOrder.Ticket laterRead = order.next();
+        read.declare(RequestOrder.Kind.READ);
+        write.declare(RequestOrder.Kind.WRITE);
+
+        CompletableFuture<Void> ready = batch.declare(RequestOrder.Kind.BOTH);
+        CompletableFuture<Void> laterReady = laterRead.declare(RequestOrder.Kind.READ);
+        read.close();
+        assertFalse(ready.isDone());
+
+        write.close();
+        assertTrue(ready.isDone());
+        // 後の読み取りはbatchの書き込みを待つ
+        assertFalse(laterReady.isDone());
+
+        batch.close();
+        assertTrue(laterReady.isDone());
+    }
+
+    @Test
+    void ignoresSecondDeclaration() {
+        RequestOrder.Ticket write = order.next();
+        RequestOrder.Ticket read = order.next();
+        write.declare(RequestOrder.Kind.WRITE);
+        read.declare(RequestOrder.Kind.NONE);
+
+        assertTrue(read.declare(RequestOrder.Kind.READ).isDone());
+    }
+}
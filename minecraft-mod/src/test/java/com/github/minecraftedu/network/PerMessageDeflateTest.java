@@ -0,0 +1,213 @@
+package com.github.minecraftedu.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PerMessageDeflateのテスト（ネゴシエーションと圧縮辞書の引き継ぎ）
+ */
+class PerMessageDeflateTest {
+
+    private static final String MESSAGE = "{\"type\":\"blockChanged\",\"block\":\"minecraft:stone\",\"x\":10,\"y\":64,\"z\":-3}";
+    private static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+
+    @Test
+    void negotiatesPlainOffer() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, true);
+        try {
+            assertEquals("permessage-deflate", deflate.getResponseHeaderValue());
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void echoesNoContextTakeoverParameters() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(
+            "permessage-deflate; server_no_context_takeover; client_no_context_takeover; client_max_window_bits", 0, true);
+        try {
+            assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+                deflate.getResponseHeaderValue());
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void disablesServerContextTakeoverByConfig() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, false);
+        try {
+            assertEquals("permessage-deflate; server_no_context_takeover", deflate.getResponseHeaderValue());
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void skipsUnacceptableOffers() {
+        assertNull(PerMessageDeflate.negotiate(null, 0, true));
+        assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame", 0, true));
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=10", 0, true));
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate; unknown_param", 0, true));
+
+        // 最初の申し出を断っても次の申し出を受け入れる
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(
+            "permessage-deflate; server_max_window_bits=10, permessage-deflate; server_max_window_bits=\"15\"", 0, true);
+        assertNotNull(deflate);
+        deflate.close();
+    }
+
+    @Test
+    void comparesMessageSizeWithThreshold() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 256, true);
+        try {
+            assertFalse(deflate.shouldCompress(255));
+            assertTrue(deflate.shouldCompress(256));
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void roundTripsMessage() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, true);
+        try {
+            byte[] compressed = bytes(deflate.deflate(utf8(MESSAGE)));
+
+            // 末尾の 00 00 FF FF は送らない
+            assertFalse(endsWithTail(compressed));
+            assertEquals(MESSAGE, string(deflate.inflate(ByteBuffer.wrap(compressed), MAX_MESSAGE_BYTES)));
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void reusesDictionaryWithContextTakeover() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, true);
+        try {
+            int first = deflate.deflate(utf8(MESSAGE)).remaining();
+            int second = deflate.deflate(utf8(MESSAGE)).remaining();
+
+            // 2回目は前のメッセージを参照できる
+            assertTrue(second < first, second + " < " + first);
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void resetsDictionaryWithoutContextTakeover() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover", 0, true);
+        try {
+            byte[] first = bytes(deflate.deflate(utf8(MESSAGE)));
+            byte[] second = bytes(deflate.deflate(utf8(MESSAGE)));
+
+            // 前のメッセージを参照しないので毎回同じ結果になる
+            assertArrayEquals(first, second);
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void inflatesClientMessagesSharingDictionary() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, true);
+        Deflater client = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            for (int i = 0; i < 3; i++) {
+                byte[] compressed = clientDeflate(client, MESSAGE);
+                assertEquals(MESSAGE, string(deflate.inflate(ByteBuffer.wrap(compressed), MAX_MESSAGE_BYTES)));
+            }
+        } finally {
+            client.end();
+            deflate.close();
+        }
+    }
+
+    @Test
+    void inflatesIndependentClientMessagesWithoutContextTakeover() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate; client_no_context_takeover", 0, true);
+        try {
+            for (int i = 0; i < 3; i++) {
+                byte[] compressed = WebSocketFrameDecoderTest.clientDeflate(utf8Bytes(MESSAGE));
+                assertEquals(MESSAGE, string(deflate.inflate(ByteBuffer.wrap(compressed), MAX_MESSAGE_BYTES)));
+            }
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void rejectsMalformedData() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, true);
+        try {
+            // BTYPE=11 は予約済み
+            ByteBuffer malformed = ByteBuffer.wrap(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+            WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class,
+                () -> deflate.inflate(malformed, MAX_MESSAGE_BYTES));
+
+            assertEquals(WebSocketProtocolException.INVALID_PAYLOAD, e.getCloseCode());
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void rejectsMessageInflatingOverLimit() {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, true);
+        try {
+            // 小さな圧縮データが上限を超えるサイズに展開される
+            byte[] compressed = WebSocketFrameDecoderTest.clientDeflate(new byte[64 * 1024]);
+            WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class,
+                () -> deflate.inflate(ByteBuffer.wrap(compressed), 16 * 1024));
+
+            assertEquals(WebSocketProtocolException.MESSAGE_TOO_BIG, e.getCloseCode());
+        } finally {
+            deflate.close();
+        }
+    }
+
+    private static byte[] clientDeflate(Deflater deflater, String message) {
+        deflater.setInput(utf8Bytes(message));
+        byte[] buffer = new byte[message.length() * 2 + 64];
+        int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        return Arrays.copyOf(buffer, length - 4);
+    }
+
+    private static boolean endsWithTail(byte[] compressed) {
+        int n = compressed.length;
+        return n >= 4 && compressed[n - 4] == 0 && compressed[n - 3] == 0
+            && compressed[n - 2] == (byte) 0xFF && compressed[n - 1] == (byte) 0xFF;
+    }
+
+    private static ByteBuffer utf8(String value) {
+        return ByteBuffer.wrap(utf8Bytes(value));
+    }
+
+    private static byte[] utf8Bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}
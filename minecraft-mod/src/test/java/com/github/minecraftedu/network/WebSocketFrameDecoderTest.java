@@ -0,0 +1,283 @@
+package com.github.minecraftedu.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WebSocketFrameDecoderのテスト（クライアントからのマスク付きフレーム）
+ */
+class WebSocketFrameDecoderTest {
+
+    private static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+    private static final byte[] MASK = {0x37, (byte) 0xFA, 0x21, 0x3D};
+
+    private final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(MAX_MESSAGE_BYTES);
+    private final RecordingListener listener = new RecordingListener();
+
+    @Test
+    void decodesMaskedTextFrame() throws Exception {
+        decode(frame(true, 0x1, text("Hello")));
+
+        assertEquals(List.of("text:Hello"), listener.events);
+    }
+
+    @Test
+    void reassemblesFragmentedMessage() throws Exception {
+        decode(frame(false, 0x1, text("Hel")), frame(false, 0x0, text("lo, ")), frame(true, 0x0, text("world")));
+
+        assertEquals(List.of("text:Hello, world"), listener.events);
+    }
+
+    @Test
+    void deliversControlFramesBetweenFragments() throws Exception {
+        decode(frame(false, 0x2, new byte[] {1, 2}), frame(true, 0x9, text("ping")), frame(true, 0xA, text("pong")),
+            frame(true, 0x0, new byte[] {3}));
+
+        // Pongは通知しない。Pingはメッセージの完成を待たずに通知する
+        assertEquals(List.of("ping:ping", "binary:[1, 2, 3]"), listener.events);
+    }
+
+    @Test
+    void acceptsFramesSplitAtAnyByte() throws Exception {
+        byte[] bytes = concat(frame(false, 0x1, text("split ")), frame(true, 0x9, new byte[0]), frame(true, 0x0, text("frames")));
+        for (byte b : bytes) {
+            decoder.decode(ByteBuffer.wrap(new byte[] {b}), listener);
+        }
+
+        assertEquals(List.of("ping:", "text:split frames"), listener.events);
+    }
+
+    @Test
+    void decodesSixteenBitLength() throws Exception {
+        byte[] payload = pattern(300);
+        byte[] frame = frame(true, 0x2, payload);
+        assertEquals(126, frame[1] & 0x7F);
+
+        decode(frame);
+
+        assertArrayEquals(payload, listener.lastBinary);
+    }
+
+    @Test
+    void decodesSixtyFourBitLength() throws Exception {
+        byte[] payload = pattern(70000);
+        byte[] frame = frame(true, 0x2, payload);
+        assertEquals(127, frame[1] & 0x7F);
+
+        decode(frame);
+
+        assertArrayEquals(payload, listener.lastBinary);
+    }
+
+    @Test
+    void decodesCloseStatusCode() throws Exception {
+        decode(frame(true, 0x8, new byte[] {0x03, (byte) 0xE8, 'b', 'y', 'e'}), frame(true, 0x8, new byte[0]));
+
+        assertEquals(List.of("close:1000", "close:" + WebSocketFrameDecoder.STATUS_NO_CODE), listener.events);
+    }
+
+    @Test
+    void keepsDecodingAfterLargeMessage() throws Exception {
+        decode(frame(true, 0x2, pattern(300 * 1024)), frame(true, 0x1, text("next")));
+
+        assertEquals("text:next", listener.events.get(1));
+    }
+
+    @Test
+    void inflatesCompressedMessage() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 0, true);
+        decoder.setDeflate(deflate);
+        try {
+            byte[] compressed = clientDeflate(text("compressed compressed compressed"));
+            // RSV1は最初のフレームだけに付く
+            decode(frame(false, 0x1, true, Arrays.copyOfRange(compressed, 0, 5)),
+                frame(true, 0x0, false, Arrays.copyOfRange(compressed, 5, compressed.length)));
+
+            assertEquals(List.of("text:compressed compressed compressed"), listener.events);
+        } finally {
+            deflate.close();
+        }
+    }
+
+    @Test
+    void rejectsUnmaskedFrame() {
+        // ヘッダー（マスクキーの分まで）が揃った時点で断る
+        byte[] unmasked = {(byte) 0x81, 0x05, 'h', 'e', 'l', 'l', 'o'};
+
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, unmasked);
+    }
+
+    @Test
+    void rejectsContinuationWithoutMessage() {
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, frame(true, 0x0, text("orphan")));
+    }
+
+    @Test
+    void rejectsNewMessageBeforePreviousFinished() {
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, frame(false, 0x1, text("a")), frame(true, 0x1, text("b")));
+    }
+
+    @Test
+    void rejectsFragmentedControlFrame() {
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, frame(false, 0x9, text("ping")));
+    }
+
+    @Test
+    void rejectsOversizedControlFrame() {
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, frame(true, 0x9, pattern(126)));
+    }
+
+    @Test
+    void rejectsUnknownOpcode() {
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, frame(true, 0x3, text("x")));
+    }
+
+    @Test
+    void rejectsReservedBitWithoutExtension() {
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, frame(true, 0x1, true, text("x")));
+    }
+
+    @Test
+    void rejectsNegativeSixtyFourBitLength() {
+        byte[] header = {(byte) 0x82, (byte) (0x80 | 127), (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, MASK[0], MASK[1], MASK[2], MASK[3]};
+
+        assertProtocolError(WebSocketProtocolException.PROTOCOL_ERROR, header);
+    }
+
+    @Test
+    void rejectsMessageOverLimitFromHeader() {
+        // 本体を受け取る前に、ヘッダーの長さだけで断る
+        byte[] header = {(byte) 0x82, (byte) (0x80 | 127), 0, 0, 0, 0x10, 0, 0, 0, 0, MASK[0], MASK[1], MASK[2], MASK[3]};
+
+        assertProtocolError(WebSocketProtocolException.MESSAGE_TOO_BIG, header);
+    }
+
+    @Test
+    void rejectsFragmentedMessageOverLimit() {
+        WebSocketFrameDecoder small = new WebSocketFrameDecoder(100);
+        WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class, () -> {
+            small.decode(ByteBuffer.wrap(frame(false, 0x2, pattern(60))), listener);
+            small.decode(ByteBuffer.wrap(frame(true, 0x0, pattern(60))), listener);
+        });
+
+        assertEquals(WebSocketProtocolException.MESSAGE_TOO_BIG, e.getCloseCode());
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    void rejectsInvalidUtf8() {
+        assertProtocolError(WebSocketProtocolException.INVALID_PAYLOAD, frame(true, 0x1, new byte[] {(byte) 0xC3, 0x28}));
+    }
+
+    private void decode(byte[]... frames) throws WebSocketProtocolException {
+        decoder.decode(ByteBuffer.wrap(concat(frames)), listener);
+    }
+
+    private void assertProtocolError(int closeCode, byte[]... frames) {
+        WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class, () -> decode(frames));
+        assertEquals(closeCode, e.getCloseCode());
+    }
+
+    static byte[] frame(boolean fin, int opcode, byte[] payload) {
+        return frame(fin, opcode, false, payload);
+    }
+
+    /**
+     * クライアントが送るマスク付きのフレーム
+     */
+    static byte[] frame(boolean fin, int opcode, boolean rsv1, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((fin ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | opcode);
+        if (payload.length < 126) {
+            out.write(0x80 | payload.length);
+        } else if (payload.length < 65536) {
+            out.write(0x80 | 126);
+            out.write(payload.length >> 8);
+            out.write(payload.length);
+        } else {
+            out.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >> shift));
+            }
+        }
+        out.write(MASK, 0, MASK.length);
+        for (int i = 0; i < payload.length; i++) {
+            out.write(payload[i] ^ MASK[i & 3]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * クライアント側のpermessage-deflate（末尾の 00 00 FF FF を除く）
+     */
+    static byte[] clientDeflate(byte[] message) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(message);
+            byte[] buffer = new byte[message.length + 64];
+            int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            return Arrays.copyOf(buffer, length - 4);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] text(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] pattern(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return bytes;
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class RecordingListener implements WebSocketFrameDecoder.Listener {
+        private final List<String> events = new ArrayList<>();
+        private byte[] lastBinary;
+
+        @Override
+        public void onTextMessage(String message) {
+            events.add("text:" + message);
+        }
+
+        @Override
+        public void onBinaryMessage(ByteBuffer message) {
+            lastBinary = new byte[message.remaining()];
+            message.get(lastBinary);
+            events.add("binary:" + (lastBinary.length <= 16 ? Arrays.toString(lastBinary) : lastBinary.length + " bytes"));
+        }
+
+        @Override
+        public void onPing(ByteBuffer payload) {
+            events.add("ping:" + StandardCharsets.UTF_8.decode(payload));
+        }
+
+        @Override
+        public void onClose(int statusCode) {
+            events.add("close:" + statusCode);
+        }
+    }
+}
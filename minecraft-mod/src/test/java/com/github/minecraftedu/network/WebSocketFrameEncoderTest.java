@@ -0,0 +1,170 @@
+package com.github.minecraftedu.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WebSocketFrameEncoderのテスト（サーバーからのマスクなしフレーム）
+ */
+class WebSocketFrameEncoderTest {
+
+    @Test
+    void encodesShortTextFrame() throws IOException {
+        WebSocketFrameEncoder encoder = new WebSocketFrameEncoder(false);
+        assertTrue(encoder.addText("Hi あ"));
+
+        byte[] bytes = write(encoder);
+
+        byte[] payload = "Hi あ".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0x81, bytes[0] & 0xFF);
+        assertEquals(payload.length, bytes[1]);
+        assertArrayEquals(payload, Arrays.copyOfRange(bytes, 2, bytes.length));
+    }
+
+    @Test
+    void usesLengthEncodingForPayloadSize() throws IOException {
+        assertHeader(125, 2, 125);
+        assertHeader(126, 4, 126);
+        assertHeader(65535, 4, 126);
+        assertHeader(65536, 10, 127);
+        assertHeader(200000, 10, 127);
+    }
+
+    @Test
+    void batchesFramesInOrder() throws IOException {
+        WebSocketFrameEncoder encoder = new WebSocketFrameEncoder(true);
+        encoder.addText("first");
+        encoder.addFrame(WebSocketFrameDecoder.OPCODE_PING, ByteBuffer.wrap(new byte[] {1}));
+        encoder.addFrame(WebSocketFrameDecoder.OPCODE_BINARY, ByteBuffer.wrap(WebSocketFrameDecoderTest.pattern(70000)));
+        encoder.addText("last");
+
+        List<Frame> frames = parse(write(encoder));
+
+        assertEquals(4, frames.size());
+        assertEquals("first", frames.get(0).text());
+        assertEquals(WebSocketFrameDecoder.OPCODE_PING, frames.get(1).opcode);
+        assertArrayEquals(WebSocketFrameDecoderTest.pattern(70000), frames.get(2).payload);
+        assertEquals("last", frames.get(3).text());
+        assertTrue(encoder.isEmpty());
+    }
+
+    @Test
+    void refusesFramesOverBatchLimit() throws IOException {
+        WebSocketFrameEncoder encoder = new WebSocketFrameEncoder(false);
+        for (int i = 0; i < 64; i++) {
+            assertTrue(encoder.addText("message " + i));
+        }
+        assertFalse(encoder.addText("overflow"));
+
+        assertEquals(64, parse(write(encoder)).size());
+        assertTrue(encoder.addText("after flush"));
+    }
+
+    @Test
+    void compressesLargeMessagesOnly() throws Exception {
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", 64, true);
+        WebSocketFrameEncoder encoder = new WebSocketFrameEncoder(false);
+        encoder.setDeflate(deflate);
+        try {
+            String large = "{\"type\":\"blockChanged\",\"x\":1,\"y\":64,\"z\":1}".repeat(20);
+            encoder.addText("small");
+            encoder.addText(large);
+            encoder.addFrame(WebSocketFrameDecoder.OPCODE_PING, ByteBuffer.wrap(WebSocketFrameDecoderTest.pattern(100)));
+
+            List<Frame> frames = parse(write(encoder));
+
+            assertFalse(frames.get(0).compressed);
+            assertEquals("small", frames.get(0).text());
+            assertTrue(frames.get(1).compressed);
+            assertTrue(frames.get(1).payload.length < large.length());
+            assertEquals(large, new String(clientInflate(frames.get(1).payload), StandardCharsets.UTF_8));
+            // 制御フレームは圧縮しない
+            assertFalse(frames.get(2).compressed);
+        } finally {
+            deflate.close();
+        }
+    }
+
+    private static void assertHeader(int payloadLength, int headerLength, int lengthField) throws IOException {
+        WebSocketFrameEncoder encoder = new WebSocketFrameEncoder(false);
+        encoder.addFrame(WebSocketFrameDecoder.OPCODE_BINARY, ByteBuffer.wrap(new byte[payloadLength]));
+
+        byte[] bytes = write(encoder);
+
+        assertEquals(headerLength + payloadLength, bytes.length);
+        // サーバーからのフレームはマスクしない
+        assertEquals(lengthField, bytes[1] & 0xFF);
+        assertEquals(payloadLength, parse(bytes).get(0).payload.length);
+    }
+
+    private static byte[] write(WebSocketFrameEncoder encoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] clientInflate(byte[] payload) throws Exception {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(WebSocketFrameDecoderTest.concat(payload, new byte[] {0x00, 0x00, (byte) 0xFF, (byte) 0xFF}));
+            byte[] buffer = new byte[64 * 1024];
+            int length = inflater.inflate(buffer);
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * クライアント側でマスクなしフレームを読む
+     */
+    private static List<Frame> parse(byte[] bytes) {
+        List<Frame> frames = new ArrayList<>();
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        while (in.hasRemaining()) {
+            int first = in.get() & 0xFF;
+            int second = in.get() & 0xFF;
+            assertEquals(0x80, first & 0x80);
+            assertEquals(0, second & 0x80);
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = in.getShort() & 0xFFFF;
+            } else if (length == 127) {
+                length = in.getLong();
+            }
+            byte[] payload = new byte[(int) length];
+            in.get(payload);
+            frames.add(new Frame(first & 0x0F, (first & 0x40) != 0, payload));
+        }
+        return frames;
+    }
+
+    private static final class Frame {
+        private final int opcode;
+        private final boolean compressed;
+        private final byte[] payload;
+
+        private Frame(int opcode, boolean compressed, byte[] payload) {
+            this.opcode = opcode;
+            this.compressed = compressed;
+            this.payload = payload;
+        }
+
+        private String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+}
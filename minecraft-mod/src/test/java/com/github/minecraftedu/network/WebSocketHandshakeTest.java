@@ -0,0 +1,81 @@
+package com.github.minecraftedu.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WebSocketHandshakeのテスト
+ */
+class WebSocketHandshakeTest {
+
+    private static final String REQUEST = "GET /chat HTTP/1.1\r\n"
+        + "Host: localhost:14711\r\n"
+        + "Upgrade: websocket\r\n"
+        + "CONNECTION: Upgrade\r\n"
+        + "sec-websocket-key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+        + "Sec-WebSocket-Version: 13";
+
+    @Test
+    void generatesAcceptKeyFromRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketHandshake.generateAcceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    void parsesHeadersCaseInsensitively() {
+        WebSocketHandshake handshake = WebSocketHandshake.parse(REQUEST);
+
+        assertEquals("Upgrade", handshake.getHeader("Connection"));
+        assertEquals("websocket", handshake.getHeader("UPGRADE"));
+        assertEquals("localhost:14711", handshake.getHeader("host"));
+        assertEquals("dGhlIHNhbXBsZSBub25jZQ==", handshake.getWebSocketKey());
+        assertNull(handshake.getHeader("Sec-WebSocket-Extensions"));
+    }
+
+    @Test
+    void ignoresMalformedHeaderLines() {
+        WebSocketHandshake handshake = WebSocketHandshake.parse("GET / HTTP/1.1\r\nno colon here\r\n: empty name\r\nUpgrade: websocket");
+
+        assertEquals("websocket", handshake.getHeader("Upgrade"));
+        assertNull(handshake.getHeader(""));
+    }
+
+    @Test
+    void findsEndOfHeaders() {
+        byte[] bytes = ("xx" + REQUEST + "\r\n\r\n" + "frame").getBytes(StandardCharsets.ISO_8859_1);
+        int end = WebSocketHandshake.findHeaderEnd(bytes, 2, bytes.length - 2);
+
+        assertEquals(bytes.length - "frame".length(), end);
+        // 終端がまだ届いていない
+        assertEquals(-1, WebSocketHandshake.findHeaderEnd(bytes, 2, end - 3));
+        assertEquals(-1, WebSocketHandshake.findHeaderEnd(new byte[] {'\r', '\n'}, 0, 2));
+    }
+
+    @Test
+    void createsSwitchingProtocolsResponse() {
+        String response = new String(WebSocketHandshake.parse(REQUEST).createResponse(null), StandardCharsets.ISO_8859_1);
+
+        assertTrue(response.startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+        assertTrue(response.contains("\r\nSec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+        assertFalse(response.contains("Sec-WebSocket-Extensions"));
+        assertTrue(response.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    void includesNegotiatedExtension() {
+        WebSocketHandshake handshake = WebSocketHandshake.parse(REQUEST + "\r\nSec-WebSocket-Extensions: permessage-deflate");
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(handshake.getHeader("Sec-WebSocket-Extensions"), 0, true);
+        try {
+            String response = new String(handshake.createResponse(deflate), StandardCharsets.ISO_8859_1);
+
+            assertTrue(response.contains("\r\nSec-WebSocket-Extensions: permessage-deflate\r\n"));
+        } finally {
+            deflate.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BlockPatternのテスト（定義の検査、重みどおりの割合、seedによる再現）
+ */
+class BlockPatternTest {
+
+    private static BlockState stone;
+    private static BlockState cobblestone;
+    private static BlockState gravel;
+
+    @BeforeAll
+    static void bootstrap() {
+        GameBootstrap.init();
+        stone = Blocks.STONE.defaultBlockState();
+        cobblestone = Blocks.COBBLESTONE.defaultBlockState();
+        gravel = Blocks.GRAVEL.defaultBlockState();
+    }
+
+    @Test
+    void rejectsInvalidDefinitions() {
+        assertThrows(IllegalArgumentException.class, () -> new BlockPattern(List.of(), List.of(), 0));
+        assertThrows(IllegalArgumentException.class, () -> new BlockPattern(List.of(stone, cobblestone), List.of(1), 0));
+        assertThrows(IllegalArgumentException.class, () -> new BlockPattern(List.of(stone, cobblestone), List.of(1, 0), 0));
+        assertThrows(IllegalArgumentException.class, () -> new BlockPattern(List.of(stone), List.of(-1), 0));
+    }
+
+    @Test
+    void treatsSingleStateAsUniform() {
+        BlockPattern pattern = new BlockPattern(List.of(stone), List.of(5), 42);
+        BoundingBox section = new BoundingBox(0, 0, 0, 15, 15, 15);
+
+        assertSame(stone, pattern.getUniformState(section));
+        assertSame(stone, pattern.getState(-3, 70, 12));
+        assertNull(new BlockPattern(List.of(stone, cobblestone), List.of(1, 1), 42).getUniformState(section));
+    }
+
+    @Test
+    void picksStatesInProportionToWeights() {
+        BlockPattern pattern = new BlockPattern(List.of(stone, cobblestone, gravel), List.of(7, 2, 1), 12345);
+
+        int[] counts = new int[3];
+        int total = 0;
+        for (int y = -8; y < 8; y++) {
+            for (int z = -32; z < 32; z++) {
+                for (int x = -32; x < 32; x++) {
+                    BlockState state = pattern.getState(x, y, z);
+                    counts[state == stone ? 0 : state == cobblestone ? 1 : 2]++;
+                    total++;
+                }
+            }
+        }
+        // 65536か所で、割合は重みから1%以内
+        assertEquals(0.7, counts[0] / (double) total, 0.01);
+        assertEquals(0.2, counts[1] / (double) total, 0.01);
+        assertEquals(0.1, counts[2] / (double) total, 0.01);
+    }
+
+    @Test
+    void repeatsPatternForSameSeed() {
+        BlockPattern first = new BlockPattern(List.of(stone, cobblestone), List.of(1, 1), 99);
+        BlockPattern again = new BlockPattern(List.of(stone, cobblestone), List.of(1, 1), 99);
+        BlockPattern other = new BlockPattern(List.of(stone, cobblestone), List.of(1, 1), 100);
+
+        assertEquals(99, first.getSeed());
+        int differences = 0;
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                assertSame(first.getState(x, 64, z), again.getState(x, 64, z));
+                // 同じ位置を何度読んでも同じ
+                assertSame(first.getState(x, 64, z), first.getState(x, 64, z));
+                differences += first.getState(x, 64, z) != other.getState(x, 64, z) ? 1 : 0;
+            }
+        }
+        assertTrue(differences > 0);
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * EditJournalのテスト（記録→書き戻しの往復、一時ファイルへの書き出し、履歴の上限）
+ */
+class EditJournalTest {
+
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+
+    private static BlockState stone;
+    private static BlockState dirt;
+    private static BlockState air;
+
+    @BeforeAll
+    static void bootstrap() {
+        GameBootstrap.init();
+        stone = Blocks.STONE.defaultBlockState();
+        dirt = Blocks.DIRT.defaultBlockState();
+        air = Blocks.AIR.defaultBlockState();
+    }
+
+    @Test
+    void replaysRecordedStatesOnly() throws IOException {
+        EditJournal journal = new EditJournal(NO_LIMIT, NO_LIMIT, 10);
+        BoundingBox box = new BoundingBox(0, 64, 0, 3, 65, 3);
+        EditJournal.Recorder recorder = journal.newRecorder("fillBlocks");
+        recorder.beginSection(box);
+        // 位置順（Y → Z → X）に、間を空けて記録する
+        recorder.record(0, 64, 0, stone);
+        recorder.record(1, 64, 0, stone);
+        recorder.record(3, 64, 0, dirt);
+        recorder.record(2, 65, 3, air);
+        recorder.endSection();
+        journal.record(recorder);
+
+        EditJournal.Entry entry = journal.pollUndo();
+        assertEquals("fillBlocks", entry.getAction());
+        assertEquals(4, entry.getBlockCount());
+
+        EditJournal.Replay replay = entry.createReplay();
+        assertEquals(List.of(box), replay.getSections());
+        assertSame(stone, replay.getState(0, 64, 0));
+        assertSame(stone, replay.getState(1, 64, 0));
+        assertNull(replay.getState(2, 64, 0));
+        assertSame(dirt, replay.getState(3, 64, 0));
+        assertSame(air, replay.getState(2, 65, 3));
+        assertNull(replay.getState(3, 65, 3));
+        assertTrue(replay.hasChanges(box));
+        assertFalse(replay.hasChanges(new BoundingBox(16, 64, 0, 17, 65, 1)));
+        assertNull(journal.pollUndo());
+    }
+
+    @Test
+    void replaysFullSectionRuns() throws IOException {
+        EditJournal journal = new EditJournal(NO_LIMIT, NO_LIMIT, 10);
+        // 負の座標のセクションを、長い（可変長の番号が複数バイトになる）ランで埋める
+        BoundingBox box = new BoundingBox(-16, -64, -16, -1, -49, -1);
+        EditJournal.Recorder recorder = journal.newRecorder("clearArea");
+        recorder.beginSection(box);
+        for (int y = box.minY(); y <= box.maxY(); y++) {
+            for (int z = box.minZ(); z <= box.maxZ(); z++) {
+                for (int x = box.minX(); x <= box.maxX(); x++) {
+                    recorder.record(x, y, z, y < -56 ? stone : dirt);
+                }
+            }
+        }
+        recorder.endSection();
+        journal.record(recorder);
+
+        EditJournal.Entry entry = journal.pollUndo();
+        assertEquals(4096, entry.getBlockCount());
+        EditJournal.Replay replay = entry.createReplay();
+        for (int y = box.minY(); y <= box.maxY(); y++) {
+            for (int z = box.minZ(); z <= box.maxZ(); z++) {
+                for (int x = box.minX(); x <= box.maxX(); x++) {
+                    assertSame(y < -56 ? stone : dirt, replay.getState(x, y, z), x + "," + y + "," + z);
+                }
+            }
+        }
+    }
+
+    @Test
+    void keepsOldestRecordOfSamePosition() throws IOException {
+        EditJournal journal = new EditJournal(NO_LIMIT, NO_LIMIT, 10);
+        EditJournal.Recorder recorder = journal.newRecorder("sphere");
+        // 同じセクションを2回（図形のスライスなど）書き換えた
+        recorder.beginSection(new BoundingBox(0, 0, 0, 1, 0, 0));
+        recorder.record(0, 0, 0, stone);
+        recorder.endSection();
+        recorder.beginSection(new BoundingBox(0, 0, 0, 1, 0, 0));
+        recorder.record(0, 0, 0, dirt);
+        recorder.record(1, 0, 0, dirt);
+        recorder.endSection();
+        journal.record(recorder);
+
+        EditJournal.Replay replay = journal.pollUndo().createReplay();
+
+        assertSame(stone, replay.getState(0, 0, 0));
+        assertSame(dirt, replay.getState(1, 0, 0));
+        assertEquals(1, replay.getSections().size());
+    }
+
+    @Test
+    void groupsSingleBlocksBySection() throws IOException {
+        EditJournal journal = new EditJournal(NO_LIMIT, NO_LIMIT, 10);
+        EditJournal.Recorder recorder = journal.newRecorder("binary");
+        // 1ブロックずつ順不同に置いた（同じ位置は最初の状態を残す）
+        recorder.recordBlock(3, 64, 2, stone);
+        recorder.recordBlock(1, 64, 0, dirt);
+        recorder.recordBlock(17, 65, 0, air);
+        recorder.recordBlock(1, 64, 0, stone);
+        assertFalse(recorder.isEmpty());
+        // 範囲の記録の前に、それまでの1ブロックずつの記録が入る
+        recorder.beginSection(new BoundingBox(0, 64, 0, 1, 64, 0));
+        recorder.record(0, 64, 0, air);
+        recorder.record(1, 64, 0, air);
+        recorder.endSection();
+        recorder.recordBlock(0, 64, 0, stone);
+        journal.record(recorder);
+
+        EditJournal.Replay replay = journal.pollUndo().createReplay();
+
+        assertEquals(List.of(new BoundingBox(0, 64, 0, 3, 64, 2), new BoundingBox(17, 65, 0, 17, 65, 0)), replay.getSections());
+        assertSame(stone, replay.getState(3, 64, 2));
+        assertSame(dirt, replay.getState(1, 64, 0));
+        assertSame(air, replay.getState(0, 64, 0));
+        assertSame(air, replay.getState(17, 65, 0));
+        assertNull(replay.getState(2, 64, 1));
+    }
+
+    @Test
+    void replaysEntriesSpilledToDisk() throws IOException {
+        // メモリの上限0: 記録はすべて一時ファイルへ書き出される
+        EditJournal journal = new EditJournal(0, NO_LIMIT, 10);
+        journal.record(single("first", 5, stone));
+        journal.record(single("second", 5, dirt));
+        try {
+            EditJournal.Entry second = journal.pollUndo();
+            assertEquals("second", second.getAction());
+            assertSame(dirt, second.createReplay().getState(5, 5, 5));
+
+            EditJournal.Entry first = journal.pollUndo();
+            assertEquals("first", first.getAction());
+            assertSame(stone, first.createReplay().getState(5, 5, 5));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    void discardsOldestEntriesOverLimits() throws IOException {
+        EditJournal limited = new EditJournal(NO_LIMIT, NO_LIMIT, 2);
+        limited.record(single("first", 0, stone));
+        limited.record(single("second", 0, stone));
+        limited.record(single("third", 0, stone));
+        assertEquals("third", limited.pollUndo().getAction());
+        assertEquals("second", limited.pollUndo().getAction());
+        assertNull(limited.pollUndo());
+
+        // ディスクの上限0: 書き出した古い記録は捨てられ、最新の1件だけが残る
+        EditJournal noDisk = new EditJournal(0, 0, 10);
+        noDisk.record(single("first", 0, stone));
+        noDisk.record(single("second", 0, stone));
+        try {
+            assertEquals("second", noDisk.pollUndo().getAction());
+            assertNull(noDisk.pollUndo());
+        } finally {
+            noDisk.close();
+        }
+    }
+
+    @Test
+    void movesEntriesBetweenUndoAndRedo() throws IOException {
+        EditJournal journal = new EditJournal(NO_LIMIT, NO_LIMIT, 10);
+        journal.record(single("setBlock", 1, stone));
+
+        assertEquals("setBlock", journal.pollUndo().getAction());
+        // 書き戻しで上書きした状態はやり直しの履歴に入る
+        journal.recordReplay(single("setBlock", 1, dirt), false);
+        assertNull(journal.pollUndo());
+
+        EditJournal.Entry redo = journal.pollRedo();
+        assertSame(dirt, redo.createReplay().getState(1, 1, 1));
+        // 書き戻せなかった記録は元の履歴へ戻る
+        journal.restore(redo, true);
+        assertSame(redo, journal.pollRedo());
+
+        journal.recordReplay(single("setBlock", 1, dirt), false);
+        journal.record(single("fillBlocks", 2, air));
+        // 新しい編集でやり直しの履歴は消える
+        assertNull(journal.pollRedo());
+        assertEquals("fillBlocks", journal.pollUndo().getAction());
+    }
+
+    @Test
+    void ignoresEmptyRecorders() throws IOException {
+        EditJournal journal = new EditJournal(NO_LIMIT, NO_LIMIT, 10);
+        EditJournal.Recorder recorder = journal.newRecorder("fillBlocks");
+        recorder.beginSection(new BoundingBox(0, 0, 0, 15, 15, 15));
+        recorder.endSection();
+        assertTrue(recorder.isEmpty());
+
+        journal.record(recorder);
+        assertNull(journal.pollUndo());
+    }
+
+    private static EditJournal.Recorder single(String action, int position, BlockState state) {
+        EditJournal.Recorder recorder = new EditJournal(NO_LIMIT, NO_LIMIT, 1).newRecorder(action);
+        recorder.beginSection(new BoundingBox(position, position, position, position, position, position));
+        recorder.record(position, position, position, state);
+        recorder.endSection();
+        return recorder;
+    }
+}
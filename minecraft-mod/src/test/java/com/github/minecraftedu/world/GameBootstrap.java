@@ -0,0 +1,18 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+
+/**
+ * テストでブロックの登録（Blocks、Block.getIdなど）を使えるようにする
+ */
+final class GameBootstrap {
+
+    private GameBootstrap() {
+    }
+
+    static void init() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.minecraftedu.world;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * RegionReaderのテスト（インデックスの幅と詰め方。getRegionの応答の形式）
+ */
+class RegionReaderTest {
+
+    @Test
+    void choosesWidthsThatDoNotCrossBytes() {
+        assertEquals(0, RegionReader.bitsFor(0));
+        assertEquals(0, RegionReader.bitsFor(1));
+        assertEquals(1, RegionReader.bitsFor(2));
+        assertEquals(2, RegionReader.bitsFor(3));
+        assertEquals(2, RegionReader.bitsFor(4));
+        assertEquals(4, RegionReader.bitsFor(5));
+        assertEquals(4, RegionReader.bitsFor(16));
+        assertEquals(8, RegionReader.bitsFor(17));
+        assertEquals(8, RegionReader.bitsFor(256));
+        assertEquals(16, RegionReader.bitsFor(257));
+        assertEquals(16, RegionReader.bitsFor(65536));
+    }
+
+    @Test
+    void packsSingleStateAsEmpty() {
+        assertArrayEquals(new byte[0], RegionReader.pack(new int[4096], 0));
+    }
+
+    @Test
+    void packsFromLowBitsOfEachByte() {
+        assertArrayEquals(new byte[] {(byte) 0x8D, 0x01}, RegionReader.pack(new int[] {1, 0, 1, 1, 0, 0, 0, 1, 1}, 1));
+        assertArrayEquals(new byte[] {0x63, 0x01}, RegionReader.pack(new int[] {3, 0, 2, 1, 1}, 2));
+        assertArrayEquals(new byte[] {0x5A, 0x0F}, RegionReader.pack(new int[] {0xA, 0x5, 0xF}, 4));
+        assertArrayEquals(new byte[] {(byte) 200, 7}, RegionReader.pack(new int[] {200, 7}, 8));
+    }
+
+    @Test
+    void packsSixteenBitsLittleEndian() {
+        assertArrayEquals(new byte[] {0x34, 0x12, (byte) 0xFF, (byte) 0xFF, 0x00, 0x01},
+            RegionReader.pack(new int[] {0x1234, 0xFFFF, 0x100}, 16));
+    }
+
+    @Test
+    void unpacksWithDocumentedLayout() {
+        Random random = new Random(1);
+        for (int bits : new int[] {1, 2, 4, 8, 16}) {
+            // 1バイトに収まらない端数が出る長さ
+            int[] values = new int[1000 + bits];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(1 << bits);
+            }
+
+            byte[] packed = RegionReader.pack(values, bits);
+            assertEquals((values.length * bits + 7) / 8, packed.length, "bits " + bits);
+            for (int i = 0; i < values.length; i++) {
+                int value;
+                if (bits == 16) {
+                    value = (packed[i * 2] & 0xFF) | (packed[i * 2 + 1] & 0xFF) << 8;
+                } else {
+                    int perByte = 8 / bits;
+                    value = (packed[i / perByte] & 0xFF) >>> ((i % perByte) * bits) & ((1 << bits) - 1);
+                }
+                assertEquals(values[i], value, "bits " + bits + ", index " + i);
+            }
+        }
+    }
+}
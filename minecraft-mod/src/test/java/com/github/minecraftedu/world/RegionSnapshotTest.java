@@ -0,0 +1,147 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * RegionSnapshotのテスト（ファイル形式の往復と、別の版・壊れたファイルの拒否）
+ */
+class RegionSnapshotTest {
+
+    // セクションX 3つ × Y 2つ × Z 2つ。下のY（-64〜-49）は石だけ
+    private static final BoundingBox REGION = new BoundingBox(-20, -64, 5, 3, -45, 20);
+
+    private static BlockState stone;
+    private static BlockState[] mixed;
+
+    @BeforeAll
+    static void bootstrap() {
+        GameBootstrap.init();
+        stone = Blocks.STONE.defaultBlockState();
+        // 5種類: 1つのlongに収まらない端数が出る3ビット
+        mixed = new BlockState[] {
+            Blocks.DIRT.defaultBlockState(), Blocks.GLASS.defaultBlockState(), Blocks.SAND.defaultBlockState(),
+            Blocks.OAK_PLANKS.defaultBlockState(), Blocks.AIR.defaultBlockState()};
+    }
+
+    @Test
+    void roundTripsThroughFile(@TempDir Path directory) throws IOException {
+        Path file = write(directory, capture(REGION, RegionSnapshotTest::stateAt));
+
+        RegionSnapshot snapshot = RegionSnapshot.open(file);
+
+        assertEquals(REGION, snapshot.getRegion());
+        assertEquals(12, snapshot.getSectionCount());
+        for (int y = REGION.minY(); y <= REGION.maxY(); y++) {
+            for (int z = REGION.minZ(); z <= REGION.maxZ(); z++) {
+                for (int x = REGION.minX(); x <= REGION.maxX(); x++) {
+                    assertSame(stateAt(x, y, z), snapshot.getState(x, y, z), x + "," + y + "," + z);
+                }
+            }
+        }
+        assertSame(stone, snapshot.getUniformState(new BoundingBox(-16, -64, 16, -1, -49, 20)));
+        assertNull(snapshot.getUniformState(new BoundingBox(-16, -48, 16, -1, -45, 20)));
+    }
+
+    @Test
+    void rejectsOtherFiles(@TempDir Path directory) throws IOException {
+        byte[] bytes = capture(REGION, RegionSnapshotTest::stateAt).array();
+
+        // 次の形式の版
+        byte[] newer = bytes.clone();
+        newer[7] = 2;
+        IOException version = assertThrows(IOException.class, () -> RegionSnapshot.open(write(directory, ByteBuffer.wrap(newer))));
+        assertTrue(version.getMessage().contains("version 2"), version.getMessage());
+
+        byte[] other = bytes.clone();
+        other[0] = 'X';
+        assertThrows(IOException.class, () -> RegionSnapshot.open(write(directory, ByteBuffer.wrap(other))));
+    }
+
+    @Test
+    void rejectsTruncatedFiles(@TempDir Path directory) throws IOException {
+        byte[] bytes = capture(REGION, RegionSnapshotTest::stateAt).array();
+        for (int length = 0; length < bytes.length; length++) {
+            Path file = write(directory, ByteBuffer.wrap(Arrays.copyOf(bytes, length)));
+            assertThrows(IOException.class, () -> RegionSnapshot.open(file), "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsRecordsOutsideFile(@TempDir Path directory) throws IOException {
+        byte[] bytes = capture(REGION, RegionSnapshotTest::stateAt).array();
+        int table = tableOffset(bytes);
+
+        for (int position : new int[] {Integer.MAX_VALUE, -1, 0, bytes.length - 2}) {
+            byte[] corrupted = bytes.clone();
+            ByteBuffer.wrap(corrupted).putInt(table + 4, position);
+            Path file = write(directory, ByteBuffer.wrap(corrupted));
+            assertThrows(IOException.class, () -> RegionSnapshot.open(file), "position " + position);
+        }
+
+        // 最初のレコードのパレット番号を全体のパレットの外へ
+        byte[] corrupted = bytes.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(corrupted);
+        buffer.putInt(buffer.getInt(table) + 2, 1000);
+        Path file = write(directory, buffer);
+        assertThrows(IOException.class, () -> RegionSnapshot.open(file));
+    }
+
+    /**
+     * sourceのregionを、WorldEditJobと同じ順（セクションX → Z → Y）に小片ごとに読んだファイルの内容
+     */
+    static ByteBuffer capture(BoundingBox region, BulkBlockWriter.BlockSource source) throws IOException {
+        RegionSnapshot.Capture capture = new RegionSnapshot.Capture(source, region);
+        for (int sectionX = region.minX() >> 4; sectionX <= region.maxX() >> 4; sectionX++) {
+            for (int sectionZ = region.minZ() >> 4; sectionZ <= region.maxZ() >> 4; sectionZ++) {
+                for (int sectionY = region.minY() >> 4; sectionY <= region.maxY() >> 4; sectionY++) {
+                    capture.read(new BoundingBox(
+                        Math.max(region.minX(), sectionX << 4), Math.max(region.minY(), sectionY << 4), Math.max(region.minZ(), sectionZ << 4),
+                        Math.min(region.maxX(), (sectionX << 4) + 15), Math.min(region.maxY(), (sectionY << 4) + 15),
+                        Math.min(region.maxZ(), (sectionZ << 4) + 15)));
+                }
+            }
+        }
+        return capture.toBuffer();
+    }
+
+    private static BlockState stateAt(int x, int y, int z) {
+        return y <= -49 ? stone : mixed[Math.floorMod(x * 7 + y * 3 + z, mixed.length)];
+    }
+
+    private static Path write(Path directory, ByteBuffer contents) throws IOException {
+        Path file = directory.resolve("region.snapshot");
+        Files.write(file, Arrays.copyOfRange(contents.array(), contents.position(), contents.limit()));
+        return file;
+    }
+
+    /**
+     * レコードの位置の表の先頭（ヘッダーとパレットの後）
+     */
+    private static int tableOffset(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(32);
+        int paletteSize = buffer.getInt();
+        for (int i = 0; i < paletteSize; i++) {
+            int length = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + length);
+        }
+        return buffer.position() + 4;
+    }
+}
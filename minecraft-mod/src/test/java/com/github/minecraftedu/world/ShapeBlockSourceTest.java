@@ -0,0 +1,161 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ShapeBlockSourceのテスト（図形の展開、囲む範囲と小片、1種類だけのセクションの判定）
+ */
+class ShapeBlockSourceTest {
+
+    private static BlockState stone;
+
+    @BeforeAll
+    static void bootstrap() {
+        GameBootstrap.init();
+        stone = Blocks.STONE.defaultBlockState();
+    }
+
+    @Test
+    void rasterizesSphereByDistanceFromCenter() {
+        ShapeBlockSource sphere = ShapeBlockSource.sphere(5, 70, -3, 4, false, stone);
+
+        long count = 0;
+        for (int dy = -5; dy <= 5; dy++) {
+            for (int dz = -5; dz <= 5; dz++) {
+                for (int dx = -5; dx <= 5; dx++) {
+                    boolean inside = dx * dx + dy * dy + dz * dz < 4.5 * 4.5;
+                    assertEquals(inside, sphere.getState(5 + dx, 70 + dy, -3 + dz) != null, dx + "," + dy + "," + dz);
+                    count += inside ? 1 : 0;
+                }
+            }
+        }
+        assertEquals(count, sphere.getBlockCount());
+        assertEquals(new BoundingBox(1, 66, -7, 9, 74, 1), sphere.getBounds());
+    }
+
+    @Test
+    void keepsOnlySurfaceOfHollowSphere() {
+        ShapeBlockSource solid = ShapeBlockSource.sphere(0, 0, 0, 5, false, stone);
+        ShapeBlockSource hollow = ShapeBlockSource.sphere(0, 0, 0, 5, true, stone);
+
+        assertNull(hollow.getState(0, 0, 0));
+        assertSame(stone, hollow.getState(5, 0, 0));
+        assertTrue(hollow.getBlockCount() < solid.getBlockCount());
+        for (int y = -5; y <= 5; y++) {
+            for (int z = -5; z <= 5; z++) {
+                for (int x = -5; x <= 5; x++) {
+                    boolean surface = solid.getState(x, y, z) != null
+                        && (solid.getState(x + 1, y, z) == null || solid.getState(x - 1, y, z) == null
+                        || solid.getState(x, y + 1, z) == null || solid.getState(x, y - 1, z) == null
+                        || solid.getState(x, y, z + 1) == null || solid.getState(x, y, z - 1) == null);
+                    assertEquals(surface, hollow.getState(x, y, z) != null, x + "," + y + "," + z);
+                }
+            }
+        }
+    }
+
+    @Test
+    void buildsCylinderUpFromBase() {
+        ShapeBlockSource cylinder = ShapeBlockSource.cylinder(0, 64, 0, 2, 3, false, stone);
+        assertEquals(new BoundingBox(-2, 64, -2, 2, 66, 2), cylinder.getBounds());
+        // 1層は半径2.5未満の21ブロック
+        assertEquals(3 * 21, cylinder.getBlockCount());
+        assertNull(cylinder.getState(0, 63, 0));
+        assertNull(cylinder.getState(0, 67, 0));
+        assertNull(cylinder.getState(2, 64, 2));
+
+        // 中空の円柱は上下の面が無い
+        ShapeBlockSource tube = ShapeBlockSource.cylinder(0, 64, 0, 2, 3, true, stone);
+        for (int y = 64; y <= 66; y++) {
+            assertNull(tube.getState(0, y, 0));
+            assertSame(stone, tube.getState(2, y, 0));
+        }
+        assertEquals(3 * 12, tube.getBlockCount());
+    }
+
+    @Test
+    void buildsPyramidLayers() {
+        ShapeBlockSource pyramid = ShapeBlockSource.pyramid(0, 64, 0, 3, false, stone);
+        assertEquals(new BoundingBox(-2, 64, -2, 2, 66, 2), pyramid.getBounds());
+        assertEquals(25 + 9 + 1, pyramid.getBlockCount());
+
+        // 中空のピラミッドは底の無い面だけ
+        ShapeBlockSource hollow = ShapeBlockSource.pyramid(0, 64, 0, 3, true, stone);
+        assertEquals(16 + 8 + 1, hollow.getBlockCount());
+        assertNull(hollow.getState(0, 64, 0));
+        assertNull(hollow.getState(0, 65, 0));
+        assertSame(stone, hollow.getState(0, 66, 0));
+    }
+
+    @Test
+    void buildsSixFacesOfHollowBox() {
+        BoundingBox box = new BoundingBox(-1, 10, -1, 2, 13, 2);
+        ShapeBlockSource shape = ShapeBlockSource.hollowBox(box, stone);
+
+        assertEquals(4 * 4 * 4 - 2 * 2 * 2, shape.getBlockCount());
+        assertEquals(box, shape.getBounds());
+        assertNull(shape.getState(0, 11, 0));
+        assertNull(shape.getState(1, 12, 1));
+        assertSame(stone, shape.getState(-1, 11, 0));
+        assertSame(stone, shape.getState(0, 13, 1));
+    }
+
+    @Test
+    void drawsLineWithOneBlockPerStepOfLongestAxis() {
+        ShapeBlockSource line = ShapeBlockSource.line(0, 0, 0, 10, 3, -5, stone);
+        assertEquals(11, line.getBlockCount());
+        assertSame(stone, line.getState(0, 0, 0));
+        assertSame(stone, line.getState(10, 3, -5));
+        assertEquals(new BoundingBox(0, 0, -5, 10, 3, 0), line.getBounds());
+        for (int x = 0; x <= 10; x++) {
+            int blocks = 0;
+            for (int y = 0; y <= 3; y++) {
+                for (int z = -5; z <= 0; z++) {
+                    blocks += line.getState(x, y, z) != null ? 1 : 0;
+                }
+            }
+            assertEquals(1, blocks, "x " + x);
+        }
+    }
+
+    @Test
+    void splitsIntoSlicesPerSection() {
+        ShapeBlockSource line = ShapeBlockSource.line(3, 0, 7, 3, -20, 7, stone);
+
+        assertEquals(21, line.getBlockCount());
+        assertEquals(List.of(
+                new BoundingBox(3, -20, 7, 3, -17, 7),
+                new BoundingBox(3, -16, 7, 3, -1, 7),
+                new BoundingBox(3, 0, 7, 3, 0, 7)),
+            line.getSlices());
+        assertTrue(line.hasChanges(new BoundingBox(0, -16, 0, 15, -1, 15)));
+        assertFalse(line.hasChanges(new BoundingBox(16, -16, 0, 31, -1, 15)));
+    }
+
+    @Test
+    void reportsUniformStateOnlyForFullSections() {
+        ShapeBlockSource sphere = ShapeBlockSource.sphere(8, 8, 8, 20, false, stone);
+
+        // 中心のセクションは角まで球の中
+        assertSame(stone, sphere.getUniformState(new BoundingBox(0, 0, 0, 15, 15, 15)));
+        // 球面をまたぐセクション
+        assertNull(sphere.getUniformState(new BoundingBox(16, 16, 16, 28, 28, 28)));
+        // 図形の無いセクション
+        assertNull(sphere.getUniformState(new BoundingBox(64, 0, 0, 79, 15, 15)));
+
+        ShapeBlockSource box = ShapeBlockSource.hollowBox(new BoundingBox(0, 0, 0, 15, 15, 15), stone);
+        assertNull(box.getUniformState(new BoundingBox(0, 0, 0, 15, 15, 15)));
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.minecraftedu.world;
+
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SnapshotStoreのテスト（版番号の付いたファイル、再起動後の版の検索、名前の検査）
+ */
+class SnapshotStoreTest {
+
+    private static final BoundingBox FIRST = new BoundingBox(0, 0, 0, 3, 3, 3);
+    private static final BoundingBox SECOND = new BoundingBox(-8, 10, -8, 8, 12, 8);
+
+    private static BlockState stone;
+    private static BlockState dirt;
+
+    @BeforeAll
+    static void bootstrap() {
+        GameBootstrap.init();
+        stone = Blocks.STONE.defaultBlockState();
+        dirt = Blocks.DIRT.defaultBlockState();
+    }
+
+    @Test
+    void opensLatestSavedVersion(@TempDir Path directory) throws IOException {
+        SnapshotStore store = new SnapshotStore(directory);
+        store.save("castle", RegionSnapshotTest.capture(FIRST, (x, y, z) -> stone));
+        RegionSnapshot first = store.open("castle");
+        assertEquals(FIRST, first.getRegion());
+        // 開いたままなら同じものを使い回す
+        assertSame(first, store.open("castle"));
+
+        store.save("castle", RegionSnapshotTest.capture(SECOND, (x, y, z) -> dirt));
+        RegionSnapshot second = store.open("castle");
+
+        assertEquals(SECOND, second.getRegion());
+        assertSame(dirt, second.getState(0, 11, 0));
+        // 置き換える前に開いたものは前の版を読み続ける
+        assertSame(stone, first.getState(1, 1, 1));
+        assertTrue(Files.exists(directory.resolve("castle.2.snapshot")));
+    }
+
+    @Test
+    void findsVersionsSavedBeforeRestart(@TempDir Path directory) throws IOException {
+        SnapshotStore before = new SnapshotStore(directory);
+        before.save("castle", RegionSnapshotTest.capture(FIRST, (x, y, z) -> stone));
+        before.save("castle", RegionSnapshotTest.capture(SECOND, (x, y, z) -> dirt));
+        // 名前が前方一致する別のスナップショットは数えない
+        before.save("castle2", RegionSnapshotTest.capture(FIRST, (x, y, z) -> stone));
+
+        SnapshotStore after = new SnapshotStore(directory);
+        assertEquals(SECOND, after.open("castle").getRegion());
+
+        after.save("castle", RegionSnapshotTest.capture(FIRST, (x, y, z) -> dirt));
+        assertTrue(Files.exists(directory.resolve("castle.3.snapshot")));
+        assertFalse(Files.exists(directory.resolve("castle.2.snapshot")));
+        assertEquals(FIRST, after.open("castle").getRegion());
+        assertEquals(FIRST, after.open("castle2").getRegion());
+    }
+
+    @Test
+    void reportsMissingAndCorruptedSnapshots(@TempDir Path directory) throws IOException {
+        SnapshotStore store = new SnapshotStore(directory);
+        assertThrows(NoSuchFileException.class, () -> store.open("missing"));
+
+        // 版番号の無いファイル（版0）
+        Files.write(directory.resolve("broken.snapshot"), new byte[] {'M', 'E', 'D', 'S', 0, 0, 0, 1, 0, 0});
+        IOException error = assertThrows(IOException.class, () -> store.open("broken"));
+        assertFalse(error instanceof NoSuchFileException);
+    }
+
+    @Test
+    void acceptsOnlyFileSafeNames() {
+        assertTrue(SnapshotStore.isValidName("castle_v2-final"));
+        assertFalse(SnapshotStore.isValidName(null));
+        assertFalse(SnapshotStore.isValidName(""));
+        assertFalse(SnapshotStore.isValidName("../castle"));
+        assertFalse(SnapshotStore.isValidName("castle.1"));
+        assertFalse(SnapshotStore.isValidName("a".repeat(65)));
+    }
+}